@@ -1,13 +1,13 @@
 package compojar.bnf;
 
+import compojar.util.PersistentTreeMap;
 import compojar.util.T2;
-import compojar.util.Util;
 
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
-import static compojar.util.Util.contentEquals;
+import static compojar.util.Util.reduce;
 import static compojar.util.Util.removeAll;
 import static java.lang.String.format;
 import static java.util.Comparator.comparing;
@@ -15,60 +15,149 @@ import static java.util.stream.Collectors.*;
 
 // TODO enhance with metadata:
 // * names for fields of AST nodes
-public record BNF (Set<Terminal> terminals, Set<Variable> variables, Set<Rule> rules, Variable start) {
+/**
+ * A grammar in BNF.
+ * <p>
+ * Rules are kept in a persistent map keyed by the names of their LHS, so that updates of individual rules cost
+ * {@code O(log n)}, share all untouched rules with the original BNF, and validate only the rules that changed.
+ * Rules are iterated in the order of their LHS names.
+ */
+public final class BNF {
 
-    public BNF {
-        validateRules(rules, start);
+    /** LHS name -> rule */
+    private final PersistentTreeMap<String, Rule> rulesByLhs;
+    /** RHS symbol name -> LHS name -> rule that contains the symbol in its RHS */
+    private final PersistentTreeMap<String, PersistentTreeMap<String, Rule>> rulesByRhsSymbol;
+    private final Variable start;
+    private final Set<Rule> rules;
+    private final Set<Terminal> explicitTerminals;
+    private final Set<Variable> explicitVariables;
+
+    /**
+     * Lookup index, built lazily on first use and shared by all lookups on this instance.
+     * Since the index is immutable, a racy initialisation at worst builds it more than once.
+     */
+    private Index index;
+    private CompactGrammar compact;
+    private GrammarAnalysis analysis;
+
+    public BNF(Set<Terminal> terminals, Set<Variable> variables, Set<Rule> rules, Variable start) {
+        this(rulesByLhs(validateRules(rules, start)), rulesByRhsSymbol(rules), start, terminals, variables);
+    }
+
+    public BNF(Collection<Rule> rules, Variable start) {
+        this(new LinkedHashSet<>(rules), start);
     }
 
-    private static void validateRules(final Set<Rule> rules, final Variable start) {
+    private BNF(LinkedHashSet<Rule> rules, Variable start) {
+        this(rulesByLhs(validateRules(rules, start)), rulesByRhsSymbol(rules), start, null, null);
+    }
+
+    private BNF(final PersistentTreeMap<String, Rule> rulesByLhs,
+                final PersistentTreeMap<String, PersistentTreeMap<String, Rule>> rulesByRhsSymbol,
+                final Variable start,
+                final Set<Terminal> explicitTerminals,
+                final Set<Variable> explicitVariables)
+    {
+        this.rulesByLhs = rulesByLhs;
+        this.rulesByRhsSymbol = rulesByRhsSymbol;
+        this.start = start;
+        this.explicitTerminals = explicitTerminals;
+        this.explicitVariables = explicitVariables;
+        this.rules = new RuleSet();
+    }
+
+    private static <C extends Collection<? extends Rule>> C validateRules(final C rules, final Variable start) {
         if (rules.stream().noneMatch(rule -> start.equals(rule.lhs()))) {
             throw new IllegalArgumentException("Missing a rule for the start variable %s".formatted(start));
         }
 
         final var illegalRules = rules.stream()
-                .collect(collectingAndThen(groupingBy(Rule::lhs),
+                .collect(collectingAndThen(groupingBy(BNF::lhsName),
                                            map -> removeAll(map, (lhs, rs) -> rs.size() <= 1)
                                                    .values().stream()
                                                    .flatMap(Collection::stream)
                                                    .sorted(Rule.compareByLhs)
                                                    .toList()));
         if (!illegalRules.isEmpty()) {
-            throw new IllegalArgumentException(
-                    format("BNF cannot contain multiple rules for the same LHS. Invalid rules:\n%s",
-                           illegalRules.stream().map(Objects::toString).collect(joining("\n"))));
+            throw duplicateRulesError(illegalRules);
         }
+
+        return rules;
     }
 
-    public BNF(Collection<Rule> rules, Variable start) {
-        this(allTerminals(rules), allVariables(rules), new LinkedHashSet<>(rules), start);
+    private static IllegalArgumentException duplicateRulesError(final Collection<? extends Rule> illegalRules) {
+        return new IllegalArgumentException(
+                format("BNF cannot contain multiple rules for the same LHS. Invalid rules:\n%s",
+                       illegalRules.stream().map(Objects::toString).collect(joining("\n"))));
+    }
+
+    private static String lhsName(final Rule rule) {
+        return rule.lhs().name().toString();
+    }
+
+    private static PersistentTreeMap<String, Rule> rulesByLhs(final Collection<? extends Rule> rules) {
+        return reduce(rules, PersistentTreeMap.empty(), (acc, rule) -> acc.put(lhsName(rule), rule));
+    }
+
+    private static PersistentTreeMap<String, PersistentTreeMap<String, Rule>> rulesByRhsSymbol(final Collection<? extends Rule> rules) {
+        return reduce(rules, PersistentTreeMap.empty(), BNF::addUsages);
+    }
+
+    private static Stream<String> rhsNames(final Rule rule) {
+        return rule.rhs().stream().map(sym -> sym.name().toString()).distinct();
+    }
+
+    private static PersistentTreeMap<String, PersistentTreeMap<String, Rule>> addUsages(
+            final PersistentTreeMap<String, PersistentTreeMap<String, Rule>> usages,
+            final Rule rule)
+    {
+        return reduce(rhsNames(rule), usages,
+                      (acc, name) -> acc.update(name, users -> Optional.of(users.orElseGet(PersistentTreeMap::empty).put(lhsName(rule), rule))));
+    }
+
+    private static PersistentTreeMap<String, PersistentTreeMap<String, Rule>> removeUsages(
+            final PersistentTreeMap<String, PersistentTreeMap<String, Rule>> usages,
+            final Rule rule)
+    {
+        return reduce(rhsNames(rule), usages,
+                      (acc, name) -> acc.update(name, users -> users.map(it -> it.remove(lhsName(rule))).filter(it -> !it.isEmpty())));
+    }
+
+    public Set<Terminal> terminals() {
+        return index().terminals;
+    }
+
+    public Set<Variable> variables() {
+        return index().variables;
+    }
+
+    public Set<Rule> rules() {
+        return rules;
+    }
+
+    public Variable start() {
+        return start;
     }
 
     public Variable getVariable(CharSequence name) {
-        return variables.stream()
-                .filter(var -> contentEquals(var.name(), name))
-                .findFirst()
+        return Optional.ofNullable(index().variablesByName.get(name.toString()))
                 .orElseThrow(() -> new IllegalArgumentException("No such BNF variable: %s".formatted(name)));
     }
 
     public Optional<Rule> ruleFor(final Variable v) {
-        return rules.stream()
-                .filter(rule -> rule.lhs().equals(v))
-                .findFirst();
+        return rulesByLhs.get(v.name().toString())
+                .filter(rule -> rule.lhs().equals(v));
                 // .orElseThrow(() -> new IllegalArgumentException("No such rule: %s".formatted(v)));
     }
 
     public Rule requireRuleFor(final Variable v) {
-        return rules.stream()
-                .filter(rule -> rule.lhs().name().equals(v.name()))
-                .findFirst()
+        return rulesByLhs.get(v.name().toString())
                 .orElseThrow(() -> new IllegalArgumentException("No such rule: %s".formatted(v)));
     }
 
     public Selection requireSelectionFor(final Variable v) {
-        return rules.stream()
-                .filter(rule -> rule.lhs().name().equals(v.name()))
-                .findFirst()
+        return rulesByLhs.get(v.name().toString())
                 .map(rule -> {
                     if (rule instanceof Selection it) {
                         return it;
@@ -79,17 +168,65 @@ public record BNF (Set<Terminal> terminals, Set<Variable> variables, Set<Rule> r
     }
 
     public Stream<Rule> rulesFor(final Variable v) {
-        return rules.stream()
-                .filter(rule -> rule.lhs().name().equals(v.name()));
+        return rulesByLhs.get(v.name().toString()).stream();
         // .orElseThrow(() -> new IllegalArgumentException("No such rule: %s".formatted(v)));
     }
 
+    /**
+     * Returns the compact form of this BNF, which is computed once per instance.
+     */
+    public CompactGrammar compact() {
+        var result = compact;
+        if (result == null) {
+            result = CompactGrammar.of(this);
+            compact = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the analysis of this BNF, which is computed once per instance.
+     */
+    public GrammarAnalysis analysis() {
+        var result = analysis;
+        if (result == null) {
+            result = GrammarAnalysis.of(this);
+            analysis = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a stream of rules whose RHS contains the specified symbol.
+     */
+    public Stream<Rule> rulesUsing(final Symbol symbol) {
+        return rulesByRhsSymbol.get(symbol.name().toString())
+                .stream()
+                .flatMap(PersistentTreeMap::values)
+                .filter(rule -> rule.rhs().contains(symbol));
+    }
+
     public Stream<Derivation> rulesForOptions(final Selection selection) {
         return selection.rhs().stream()
                 .map(var -> ruleFor(var).orElseThrow(() -> new IllegalStateException("No derivation for variable %s".formatted(var))))
                 .map(rule -> (Derivation) rule);
     }
 
+    @Override
+    public boolean equals(final Object obj) {
+        return this == obj
+               || obj instanceof BNF that
+                  && terminals().equals(that.terminals())
+                  && variables().equals(that.variables())
+                  && rules.equals(that.rules)
+                  && start.equals(that.start);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(terminals(), variables(), rules, start);
+    }
+
     @Override
     public String toString() {
         return rules.stream()
@@ -103,7 +240,7 @@ public record BNF (Set<Terminal> terminals, Set<Variable> variables, Set<Rule> r
                 .flatMap(Rule::allSymbols)
                 .filter(sym -> sym instanceof Terminal)
                 .map(sym -> (Terminal) sym)
-                .collect(toSet());
+                .collect(toCollection(LinkedHashSet::new));
     }
 
     private static Set<Variable> allVariables(Collection<Rule> rules) {
@@ -111,13 +248,29 @@ public record BNF (Set<Terminal> terminals, Set<Variable> variables, Set<Rule> r
                 .flatMap(Rule::allSymbols)
                 .filter(sym -> sym instanceof Variable)
                 .map(sym -> (Variable) sym)
-                .collect(toSet());
+                .collect(toCollection(LinkedHashSet::new));
     }
 
     public BNF addRules(final Collection<? extends Rule> rules) {
-        return rules.isEmpty()
-                ? this
-                : new BNF(Util.concatList(this.rules, rules), start);
+        if (rules.isEmpty()) {
+            return this;
+        }
+
+        var newRulesByLhs = rulesByLhs;
+        var newRulesByRhsSymbol = rulesByRhsSymbol;
+        for (final Rule rule : rules) {
+            final var existing = newRulesByLhs.get(lhsName(rule));
+            if (existing.isPresent()) {
+                // Adding an equal rule twice is a no-op, as it was when rules were collected into a set.
+                if (existing.get().equals(rule)) {
+                    continue;
+                }
+                throw duplicateRulesError(List.of(existing.get(), rule));
+            }
+            newRulesByLhs = newRulesByLhs.put(lhsName(rule), rule);
+            newRulesByRhsSymbol = addUsages(newRulesByRhsSymbol, rule);
+        }
+        return new BNF(newRulesByLhs, newRulesByRhsSymbol, start, null, null);
     }
 
     // public BNF removeVariables(final Collection<? extends Variable> variables) {
@@ -136,37 +289,78 @@ public record BNF (Set<Terminal> terminals, Set<Variable> variables, Set<Rule> r
     public BNF updateRule(Variable lhs, Function<? super Rule, ? extends Rule> fn) {
         var rule = ruleFor(lhs).orElseThrow(() -> new IllegalArgumentException("No such rule: %s".formatted(lhs)));
         var newRule = fn.apply(rule);
-        return new BNF(rules.stream()
-                               .map(r -> r.lhs().equals(lhs) ? newRule : r)
-                               .toList(),
-                       start);
+        if (newRule == rule) {
+            return this;
+        }
+        else if (!lhsName(newRule).equals(lhsName(rule))) {
+            // The rule was renamed, which may clash with another rule or leave the start variable without a rule.
+            return new BNF(rules.stream().map(r -> r == rule ? newRule : r).toList(), start);
+        }
+        else {
+            return new BNF(rulesByLhs.put(lhsName(newRule), newRule),
+                           addUsages(removeUsages(rulesByRhsSymbol, rule), newRule),
+                           start, null, null);
+        }
     }
 
     public BNF updateRules(final Function<? super Rule, ? extends Rule> fn) {
-        return new BNF(rules.stream().map(fn).collect(toSet()), start);
+        var result = this;
+        for (final Rule rule : rules) {
+            final var newRule = fn.apply(rule);
+            if (newRule != rule) {
+                if (!lhsName(newRule).equals(lhsName(rule))) {
+                    // Renamed rules are validated all at once.
+                    return new BNF(rules.stream().<Rule>map(fn).toList(), start);
+                }
+                result = result.updateRule(rule.lhs(), $ -> newRule);
+            }
+        }
+        return result;
     }
 
-    private List<Variable> findUnused() {
-        return variables.stream()
-                .filter(var -> !var.equals(start))
-                .filter(var -> rules.stream()
-                        .filter(r -> !r.lhs().equals(var))
-                        .noneMatch(r -> r.rhs().contains(var)))
-                .toList();
+    /**
+     * Removes rules whose LHS are the specified variables.
+     */
+    private BNF removeRulesFor(final Collection<? extends Variable> variables) {
+        var newRulesByLhs = rulesByLhs;
+        var newRulesByRhsSymbol = rulesByRhsSymbol;
+        for (final Variable var : variables) {
+            final var name = var.name().toString();
+            if (name.equals(start.name().toString())) {
+                throw new IllegalArgumentException("Start variable %s cannot be removed".formatted(start));
+            }
+            final var rule = newRulesByLhs.get(name);
+            if (rule.isPresent()) {
+                newRulesByLhs = newRulesByLhs.remove(name);
+                newRulesByRhsSymbol = removeUsages(newRulesByRhsSymbol, rule.get());
+            }
+        }
+        return newRulesByLhs == rulesByLhs ? this : new BNF(newRulesByLhs, newRulesByRhsSymbol, start, null, null);
     }
 
+    /**
+     * Removes rules for variables that are unreachable from the start variable.
+     *
+     * @return  the new BNF and the removed variables, sorted by name
+     */
     public T2<BNF, List<Variable>> removeUnused() {
-        var unusedVars = findUnused();
-        if (unusedVars.isEmpty()) {
-            return T2.t2(this, List.of());
-        }
-        else {
-            var newRules = rules.stream()
-                    .filter(r -> !unusedVars.contains(r.lhs()))
-                    .toList();
-            final var result = new BNF(newRules, start).removeUnused();
-            return result.map2(restUnused -> Util.concatList(unusedVars, restUnused));
+        // Breadth-first search over rules, without the full grammar analysis.
+        final var reachable = new HashSet<String>();
+        final var queue = new ArrayDeque<Rule>();
+        reachable.add(start.name().toString());
+        rulesByLhs.get(start.name().toString()).ifPresent(queue::add);
+        while (!queue.isEmpty()) {
+            for (final var symbol : queue.poll().rhs()) {
+                if (symbol instanceof Variable v && reachable.add(v.name().toString())) {
+                    rulesByLhs.get(v.name().toString()).ifPresent(queue::add);
+                }
+            }
         }
+        final var unreachable = variables().stream()
+                .filter(var -> !reachable.contains(var.name().toString()))
+                .sorted(Variable.comparator)
+                .toList();
+        return T2.t2(unreachable.isEmpty() ? this : removeRulesFor(unreachable), unreachable);
     }
 
     public boolean semanticEquals(final BNF bnf) {
@@ -184,4 +378,58 @@ public record BNF (Set<Terminal> terminals, Set<Variable> variables, Set<Rule> r
         return true;
     }
 
+    private Index index() {
+        var idx = index;
+        if (idx == null) {
+            idx = new Index(this);
+            index = idx;
+        }
+        return idx;
+    }
+
+    /**
+     * Symbols that are derived from rules on demand.
+     * Variables are indexed by their names, because equality of symbols may depend on metadata, which is not reflected
+     * in their hash codes.
+     */
+    private static final class Index {
+
+        final Set<Terminal> terminals;
+        final Set<Variable> variables;
+        final Map<String, Variable> variablesByName;
+
+        Index(final BNF bnf) {
+            terminals = bnf.explicitTerminals != null ? bnf.explicitTerminals : allTerminals(bnf.rules);
+            variables = bnf.explicitVariables != null ? bnf.explicitVariables : allVariables(bnf.rules);
+
+            variablesByName = new HashMap<>(variables.size());
+            for (final Variable variable : variables) {
+                variablesByName.putIfAbsent(variable.name().toString(), variable);
+            }
+        }
+
+    }
+
+    /**
+     * Read-only view of rules.
+     */
+    private final class RuleSet extends AbstractSet<Rule> {
+
+        @Override
+        public Iterator<Rule> iterator() {
+            return rulesByLhs.values().iterator();
+        }
+
+        @Override
+        public int size() {
+            return rulesByLhs.size();
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            return o instanceof Rule rule && rulesByLhs.get(lhsName(rule)).filter(rule::equals).isPresent();
+        }
+
+    }
+
 }
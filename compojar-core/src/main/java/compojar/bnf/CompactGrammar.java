@@ -0,0 +1,137 @@
+package compojar.bnf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact, read-only form of {@link BNF} for analyses that iterate over the grammar many times.
+ * <p>
+ * Symbols are interned to dense ids by a {@link SymbolTable}, and rules are stored in flat primitive arrays:
+ * the RHS of rule {@code r} occupies {@code rhs[rhsOffsets[r] .. rhsOffsets[r + 1])}.
+ * Rules are numbered in the iteration order of {@link BNF#rules()}.
+ * <p>
+ * The original symbol occurrences are retained alongside the ids, so that {@link #toBNF()} restores the grammar
+ * exactly, including parameters of terminals and metadata of variables.
+ */
+public final class CompactGrammar {
+
+    private final SymbolTable symbols;
+    private final int start;
+    private final int[] lhs;
+    private final boolean[] selection;
+    private final int[] rhsOffsets;
+    private final int[] rhs;
+    /** symbol id -> index of the rule with that LHS, or -1 */
+    private final int[] ruleByLhs;
+
+    // Original occurrences, for lossless conversion back
+    private final Variable startSymbol;
+    private final Variable[] lhsSymbols;
+    private final Symbol[] rhsSymbols;
+
+    private CompactGrammar(final BNF bnf) {
+        symbols = new SymbolTable();
+        startSymbol = bnf.start();
+        start = symbols.intern(startSymbol);
+
+        final int ruleCount = bnf.rules().size();
+        lhs = new int[ruleCount];
+        selection = new boolean[ruleCount];
+        rhsOffsets = new int[ruleCount + 1];
+        lhsSymbols = new Variable[ruleCount];
+        final var rhsSymbolList = new ArrayList<Symbol>();
+
+        int r = 0;
+        for (final Rule rule : bnf.rules()) {
+            lhsSymbols[r] = rule.lhs();
+            lhs[r] = symbols.intern(rule.lhs());
+            selection[r] = rule instanceof Selection;
+            rhsOffsets[r] = rhsSymbolList.size();
+            rhsSymbolList.addAll(rule.rhs());
+            r++;
+        }
+        rhsOffsets[ruleCount] = rhsSymbolList.size();
+
+        rhsSymbols = rhsSymbolList.toArray(Symbol[]::new);
+        rhs = new int[rhsSymbols.length];
+        for (int i = 0; i < rhsSymbols.length; i++) {
+            rhs[i] = symbols.intern(rhsSymbols[i]);
+        }
+
+        ruleByLhs = new int[symbols.size()];
+        Arrays.fill(ruleByLhs, -1);
+        for (r = 0; r < ruleCount; r++) {
+            ruleByLhs[lhs[r]] = r;
+        }
+    }
+
+    public static CompactGrammar of(final BNF bnf) {
+        return new CompactGrammar(bnf);
+    }
+
+    public SymbolTable symbols() {
+        return symbols;
+    }
+
+    public int symbolCount() {
+        return symbols.size();
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int ruleCount() {
+        return lhs.length;
+    }
+
+    public int lhs(final int rule) {
+        return lhs[rule];
+    }
+
+    public boolean isSelection(final int rule) {
+        return selection[rule];
+    }
+
+    /**
+     * Index of the first RHS symbol of the rule in {@link #rhsSymbol(int)}.
+     */
+    public int rhsStart(final int rule) {
+        return rhsOffsets[rule];
+    }
+
+    /**
+     * Index past the last RHS symbol of the rule in {@link #rhsSymbol(int)}.
+     */
+    public int rhsEnd(final int rule) {
+        return rhsOffsets[rule + 1];
+    }
+
+    public int rhsLength(final int rule) {
+        return rhsOffsets[rule + 1] - rhsOffsets[rule];
+    }
+
+    public int rhsSymbol(final int index) {
+        return rhs[index];
+    }
+
+    /**
+     * Returns the index of the rule for the variable, or {@code -1} if there is no such rule.
+     */
+    public int ruleFor(final int variable) {
+        return ruleByLhs[variable];
+    }
+
+    public BNF toBNF() {
+        final var rules = new ArrayList<Rule>(ruleCount());
+        for (int r = 0; r < ruleCount(); r++) {
+            final var rhsList = List.of(Arrays.copyOfRange(rhsSymbols, rhsStart(r), rhsEnd(r)));
+            rules.add(selection[r]
+                              ? new Selection(lhsSymbols[r], rhsList.stream().map(sym -> (Variable) sym).toList())
+                              : new Derivation(lhsSymbols[r], rhsList));
+        }
+        return new BNF(rules, startSymbol);
+    }
+
+}
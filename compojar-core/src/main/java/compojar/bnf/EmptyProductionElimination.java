@@ -79,7 +79,8 @@ public class EmptyProductionElimination {
         // 1. Let r be a rule whose RHS is empty.
         // 2. For each rule u where r is the first RHS symbol, drop the first RHS symbol and mark u as implicitly parsing r.
         // 3. Replace RHS of r with $.
-        var result = reduce(bnf.rules().stream(),
+        // Only nullable variables can have rules with an empty RHS.
+        var result = reduce(bnf.analysis().nullableVariables().stream().flatMap(bnf::rulesFor),
                             t3(bnf, astMetadata, 0),
                             (acc, rule) -> transformRule(rule, acc));
         return result.thd() > 0 ? Optional.of(t2(result.fst(), result.snd())) : Optional.empty();
@@ -96,7 +97,7 @@ public class EmptyProductionElimination {
             return switch (r) {
                 case Selection $ -> result;
                 case Derivation rd -> {
-                    var us = result.fst().rules().stream()
+                    var us = result.fst().rulesUsing(r.lhs())
                             .filter(u -> switch (u) {
                                 case Derivation d -> firstOpt(d.rhs()).filter(r.lhs()::equals).isPresent();
                                 case Selection $ -> false;
@@ -0,0 +1,294 @@
+package compojar.bnf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Facts about a grammar that are computed once and shared by transformations: nullable symbols, FIRST and FOLLOW sets,
+ * reachability from the start variable, and FIRST conflicts between options of selections.
+ * <p>
+ * All sets are computed as fixpoints with a worklist over {@link BitSet}s indexed by the ids of {@link CompactGrammar}.
+ * An instance is cached per BNF and can be obtained with {@link BNF#analysis()}.
+ * <p>
+ * Variables without rules are treated as deriving nothing.
+ */
+public final class GrammarAnalysis {
+
+    private final CompactGrammar grammar;
+    private final BitSet nullable;
+    /** symbol id -> ids of terminals */
+    private final BitSet[] first;
+    /** symbol id -> ids of terminals */
+    private final BitSet[] follow;
+    private final BitSet reachable;
+    /** Variables from which a selection with options that have intersecting FIRST sets can be reached through leading positions. */
+    private final BitSet firstConflicts;
+
+    private GrammarAnalysis(final CompactGrammar grammar) {
+        this.grammar = grammar;
+        final int n = grammar.symbolCount();
+        nullable = new BitSet(n);
+        first = new BitSet[n];
+        follow = new BitSet[n];
+        for (int s = 0; s < n; s++) {
+            first[s] = new BitSet(n);
+            follow[s] = new BitSet(n);
+            if (grammar.symbols().isTerminal(s)) {
+                first[s].set(s);
+            }
+        }
+        reachable = new BitSet(n);
+        firstConflicts = new BitSet(n);
+
+        final var users = users(grammar);
+        computeNullableAndFirst(users);
+        computeFollow();
+        computeReachable();
+        computeFirstConflicts(users);
+    }
+
+    public static GrammarAnalysis of(final BNF bnf) {
+        return new GrammarAnalysis(bnf.compact());
+    }
+
+    public CompactGrammar grammar() {
+        return grammar;
+    }
+
+    public boolean isNullable(final Symbol symbol) {
+        final int id = grammar.symbols().id(symbol);
+        return id >= 0 && nullable.get(id);
+    }
+
+    public Set<Terminal> first(final Symbol symbol) {
+        final int id = grammar.symbols().id(symbol);
+        return id < 0 ? Set.of() : terminals(first[id]);
+    }
+
+    public Set<Terminal> follow(final Variable variable) {
+        final int id = grammar.symbols().id(variable);
+        return id < 0 ? Set.of() : terminals(follow[id]);
+    }
+
+    public boolean isReachable(final Variable variable) {
+        final int id = grammar.symbols().id(variable);
+        return id >= 0 && reachable.get(id);
+    }
+
+    /**
+     * Variables that derive the empty string, sorted by name.
+     */
+    public List<Variable> nullableVariables() {
+        return nullable.stream().mapToObj(id -> (Variable) grammar.symbols().symbol(id)).sorted(Variable.comparator).toList();
+    }
+
+    /**
+     * Determines whether a selection with options whose FIRST sets intersect (including an option that occurs twice) can
+     * be reached from the variable through leading positions of rules.
+     * <p>
+     * If this is false, then no two derivation chains that start from the variable begin with the same terminal.
+     */
+    public boolean hasFirstConflict(final Variable variable) {
+        final int id = grammar.symbols().id(variable);
+        return id >= 0 && firstConflicts.get(id);
+    }
+
+    private Set<Terminal> terminals(final BitSet ids) {
+        final var result = new LinkedHashSet<Terminal>();
+        ids.stream().forEach(id -> result.add((Terminal) grammar.symbols().symbol(id)));
+        return result;
+    }
+
+    /**
+     * symbol id -> indices of rules whose RHS contains that symbol
+     */
+    private static List<List<Integer>> users(final CompactGrammar grammar) {
+        final var users = new ArrayList<List<Integer>>(grammar.symbolCount());
+        for (int s = 0; s < grammar.symbolCount(); s++) {
+            users.add(new ArrayList<>());
+        }
+        for (int r = 0; r < grammar.ruleCount(); r++) {
+            for (int i = grammar.rhsStart(r); i < grammar.rhsEnd(r); i++) {
+                final var list = users.get(grammar.rhsSymbol(i));
+                if (list.isEmpty() || list.getLast() != r) {
+                    list.add(r);
+                }
+            }
+        }
+        return users;
+    }
+
+    private void computeNullableAndFirst(final List<List<Integer>> users) {
+        final var worklist = new ArrayDeque<Integer>();
+        final var queued = new BitSet(grammar.ruleCount());
+        for (int r = 0; r < grammar.ruleCount(); r++) {
+            worklist.add(r);
+            queued.set(r);
+        }
+
+        while (!worklist.isEmpty()) {
+            final int r = worklist.poll();
+            queued.clear(r);
+            final int lhs = grammar.lhs(r);
+
+            final var newFirst = (BitSet) first[lhs].clone();
+            boolean isNullable;
+            if (grammar.isSelection(r)) {
+                isNullable = false;
+                for (int i = grammar.rhsStart(r); i < grammar.rhsEnd(r); i++) {
+                    final int option = grammar.rhsSymbol(i);
+                    newFirst.or(first[option]);
+                    isNullable |= nullable.get(option);
+                }
+            }
+            else {
+                isNullable = true;
+                for (int i = grammar.rhsStart(r); i < grammar.rhsEnd(r) && isNullable; i++) {
+                    final int sym = grammar.rhsSymbol(i);
+                    newFirst.or(first[sym]);
+                    isNullable = nullable.get(sym);
+                }
+            }
+
+            if (!newFirst.equals(first[lhs]) || isNullable && !nullable.get(lhs)) {
+                first[lhs] = newFirst;
+                if (isNullable) {
+                    nullable.set(lhs);
+                }
+                for (final int user : users.get(lhs)) {
+                    if (!queued.get(user)) {
+                        queued.set(user);
+                        worklist.add(user);
+                    }
+                }
+            }
+        }
+    }
+
+    private void computeFollow() {
+        final var worklist = new ArrayDeque<Integer>();
+        final var queued = new BitSet(grammar.ruleCount());
+        for (int r = 0; r < grammar.ruleCount(); r++) {
+            worklist.add(r);
+            queued.set(r);
+        }
+
+        // FOLLOW sets of RHS symbols depend on the FOLLOW set of the LHS, so a rule is revisited when the FOLLOW set of
+        // its LHS grows.
+        while (!worklist.isEmpty()) {
+            final int r = worklist.poll();
+            queued.clear(r);
+            final int lhs = grammar.lhs(r);
+            if (grammar.isSelection(r)) {
+                for (int i = grammar.rhsStart(r); i < grammar.rhsEnd(r); i++) {
+                    final int sym = grammar.rhsSymbol(i);
+                    if (addAll(follow[sym], follow[lhs])) {
+                        enqueueRuleFor(sym, worklist, queued);
+                    }
+                }
+            }
+            else {
+                // Scan right to left, accumulating the FIRST set of the suffix.
+                final var trailer = (BitSet) follow[lhs].clone();
+                for (int i = grammar.rhsEnd(r) - 1; i >= grammar.rhsStart(r); i--) {
+                    final int sym = grammar.rhsSymbol(i);
+                    if (grammar.symbols().isVariable(sym) && addAll(follow[sym], trailer)) {
+                        enqueueRuleFor(sym, worklist, queued);
+                    }
+                    if (!nullable.get(sym)) {
+                        trailer.clear();
+                    }
+                    trailer.or(first[sym]);
+                }
+            }
+        }
+    }
+
+    private void enqueueRuleFor(final int variable, final ArrayDeque<Integer> worklist, final BitSet queued) {
+        final int r = grammar.ruleFor(variable);
+        if (r >= 0 && !queued.get(r)) {
+            queued.set(r);
+            worklist.add(r);
+        }
+    }
+
+    private static boolean addAll(final BitSet target, final BitSet source) {
+        final int before = target.cardinality();
+        target.or(source);
+        return target.cardinality() != before;
+    }
+
+    private void computeReachable() {
+        final var worklist = new ArrayDeque<Integer>();
+        reachable.set(grammar.start());
+        worklist.add(grammar.start());
+        while (!worklist.isEmpty()) {
+            final int r = grammar.ruleFor(worklist.poll());
+            if (r >= 0) {
+                for (int i = grammar.rhsStart(r); i < grammar.rhsEnd(r); i++) {
+                    final int sym = grammar.rhsSymbol(i);
+                    if (grammar.symbols().isVariable(sym) && !reachable.get(sym)) {
+                        reachable.set(sym);
+                        worklist.add(sym);
+                    }
+                }
+            }
+        }
+    }
+
+    private void computeFirstConflicts(final List<List<Integer>> users) {
+        final var worklist = new ArrayDeque<Integer>();
+        for (int r = 0; r < grammar.ruleCount(); r++) {
+            if (grammar.isSelection(r) && hasLocalFirstConflict(r)) {
+                firstConflicts.set(grammar.lhs(r));
+                worklist.add(grammar.lhs(r));
+            }
+        }
+
+        // Propagate to rules in which a conflicting variable occurs in a leading position.
+        while (!worklist.isEmpty()) {
+            final int sym = worklist.poll();
+            for (final int r : users.get(sym)) {
+                final int lhs = grammar.lhs(r);
+                if (!firstConflicts.get(lhs) && occursInLeadingPosition(sym, r)) {
+                    firstConflicts.set(lhs);
+                    worklist.add(lhs);
+                }
+            }
+        }
+    }
+
+    private boolean hasLocalFirstConflict(final int selection) {
+        final var seen = new BitSet();
+        final var seenOptions = new BitSet();
+        for (int i = grammar.rhsStart(selection); i < grammar.rhsEnd(selection); i++) {
+            final int option = grammar.rhsSymbol(i);
+            if (seenOptions.get(option) || seen.intersects(first[option])) {
+                return true;
+            }
+            seenOptions.set(option);
+            seen.or(first[option]);
+        }
+        return false;
+    }
+
+    private boolean occursInLeadingPosition(final int sym, final int rule) {
+        if (grammar.isSelection(rule)) {
+            return true;
+        }
+        for (int i = grammar.rhsStart(rule); i < grammar.rhsEnd(rule); i++) {
+            if (grammar.rhsSymbol(i) == sym) {
+                return true;
+            }
+            if (!nullable.get(grammar.rhsSymbol(i))) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+}
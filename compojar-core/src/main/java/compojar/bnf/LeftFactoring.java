@@ -7,13 +7,14 @@ import compojar.util.T2;
 import compojar.util.Util;
 
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 import static compojar.bnf.Symbol.variable;
 import static compojar.util.T2.t2;
 import static compojar.util.Util.*;
+import static java.util.Collections.unmodifiableMap;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toSet;
 
@@ -25,22 +26,150 @@ import static java.util.stream.Collectors.toSet;
 public class LeftFactoring {
 
     private final Namer namer;
+    /** If present, selections are searched for common prefixes in parallel on this pool. */
+    private final Optional<ForkJoinPool> pool;
 
     public LeftFactoring(final Namer namer) {
         this.namer = namer;
+        this.pool = Optional.empty();
+    }
+
+    /**
+     * Creates an instance that searches selections for common prefixes in parallel on the specified pool.
+     * The result is identical to that of a sequential search.
+     */
+    public LeftFactoring(final Namer namer, final ForkJoinPool pool) {
+        this.namer = namer;
+        this.pool = Optional.of(pool);
     }
 
     public Data apply(Data data) {
         return findFirstCommonPrefix(data.bnf)
-                .map(cp -> removeCommonChainPrefix(cp, data.bnf).orElse(cp))
-                .map(pref -> removeCommonPrefix(data.bnf, data.astMetadata, pref))
-                .map(data_ -> new EmptyProductionElimination(namer).apply(data_.bnf(), data_.astMetadata())
-                        .map(pair -> pair.map(Data::new))
-                        .orElse(data_))
+                .map(cp -> rewrite(data, cp))
                 .map(this::apply)
                 .orElse(data);
     }
 
+    /**
+     * Produces the same result as {@link #apply(Data)}, but after each rewrite re-checks only those selections whose
+     * chains pass through rules that were changed by the rewrite.
+     * Selections that were found to have no common prefix are remembered together with the variables their chains pass
+     * through, and are skipped until one of those variables is affected.
+     */
+    public Result applyIncrementally(Data data) {
+        // Selection name -> names of variables whose rules form the chains of that selection
+        final var cleanSelections = new HashMap<String, Set<String>>();
+        var current = data;
+        int rewrites = 0, checks = 0, skippedChecks = 0;
+
+        while (true) {
+            final var bnf = current.bnf;
+            // Rules are iterated in the same order as in findFirstCommonPrefix.
+            final var candidates = new ArrayList<Selection>();
+            for (final var rule : bnf.rules().stream().sorted(Rule.compareByLhs).toList()) {
+                if (rule instanceof Selection selection) {
+                    if (cleanSelections.containsKey(selection.lhs().name().toString())) {
+                        skippedChecks++;
+                    }
+                    else {
+                        candidates.add(selection);
+                    }
+                }
+            }
+
+            final var checked = checkSelections(candidates, new ChainIndex(bnf));
+            checks += checked.size();
+            checked.forEach(pair -> pair.run((selection, maybePrefix) -> {
+                if (maybePrefix.isEmpty()) {
+                    cleanSelections.put(selection.lhs().name().toString(), chainVariables(selection, bnf));
+                }
+            }));
+            final var commonPrefix = checked.stream().map(T2::snd).flatMap(Optional::stream).findFirst();
+
+            if (commonPrefix.isEmpty()) {
+                return new Result(current, rewrites, checks, skippedChecks);
+            }
+
+            final var next = rewrite(current, commonPrefix.get());
+            final var changed = changedRules(current.bnf, next.bnf);
+            cleanSelections.values().removeIf(vars -> !Collections.disjoint(vars, changed));
+            current = next;
+            rewrites++;
+        }
+    }
+
+    /**
+     * Searches selections for common prefixes in order.
+     * A sequential search stops at the first selection with a common prefix, while a parallel one checks all selections.
+     *
+     * @return  pairs (selection, common prefix) for each checked selection, in the order of selections
+     */
+    private List<T2<Selection, Optional<CommonPrefix>>> checkSelections(final List<Selection> selections, final ChainIndex chains) {
+        if (pool.isPresent()) {
+            return pool.get().submit(() -> selections.parallelStream()
+                            .map(sel -> t2(sel, findFirstCommonPrefix(sel, chains)))
+                            .toList())
+                    .join();
+        }
+        else {
+            final var result = new ArrayList<T2<Selection, Optional<CommonPrefix>>>();
+            for (final var selection : selections) {
+                final var commonPrefix = findFirstCommonPrefix(selection, chains);
+                result.add(t2(selection, commonPrefix));
+                if (commonPrefix.isPresent()) {
+                    break;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @param rewrites  number of eliminated common prefixes
+     * @param checks  number of selections that were searched for a common prefix
+     * @param skippedChecks  number of searches that were avoided because the selection was known to have no common prefix
+     */
+    public record Result (Data data, int rewrites, int checks, int skippedChecks) {}
+
+    private Data rewrite(final Data data, final CommonPrefix commonPrefix) {
+        final var cp = removeCommonChainPrefix(commonPrefix, data.bnf).orElse(commonPrefix);
+        final var data_ = removeCommonPrefix(data.bnf, data.astMetadata, cp);
+        return new EmptyProductionElimination(namer).apply(data_.bnf(), data_.astMetadata())
+                .map(pair -> pair.map(Data::new))
+                .orElse(data_);
+    }
+
+    /**
+     * Returns names of all variables that occur in chains starting from the selection (see {@link ChainIndex}).
+     */
+    private static Set<String> chainVariables(final Selection selection, final BNF bnf) {
+        final var result = new HashSet<String>();
+        final var stack = new ArrayDeque<Variable>();
+        stack.push(selection.lhs());
+        while (!stack.isEmpty()) {
+            final var var = stack.pop();
+            if (result.add(var.name().toString())) {
+                switch (bnf.requireRuleFor(var)) {
+                    case Selection sel -> sel.rhs().forEach(stack::push);
+                    case Derivation der -> firstOpt(der.rhs())
+                            .filter(sym -> sym instanceof Variable)
+                            .ifPresent(sym -> stack.push((Variable) sym));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns LHS names of rules that were added, removed or modified.
+     */
+    private static Set<String> changedRules(final BNF before, final BNF after) {
+        return Stream.concat(after.rules().stream().filter(r -> !before.rules().contains(r)),
+                             before.rules().stream().filter(r -> !after.rules().contains(r)))
+                .map(r -> r.lhs().name().toString())
+                .collect(toSet());
+    }
+
     private Data removeCommonPrefix(
             final BNF bnf,
             final AstMetadata astMetadata,
@@ -219,68 +348,110 @@ public class LeftFactoring {
     }
 
     private Optional<CommonPrefix> findFirstCommonPrefix(BNF bnf) {
-        return bnf.rules().stream()
+        final var analysis = bnf.analysis();
+        final var chains = new ChainIndex(bnf);
+        final var selections = bnf.rules().stream()
                 // Sort to enable determinism.
                 .sorted(Rule.compareByLhs)
                 .filter(r -> r instanceof Selection)
+                // Chains that start from a selection without FIRST conflicts cannot have a common prefix.
+                .filter(r -> analysis.hasFirstConflict(r.lhs()))
                 .map(r -> (Selection) r)
-                .map(r -> findFirstCommonPrefix(r, bnf))
+                .toList();
+        // An ordered parallel stream finds the same first element as a sequential one.
+        return pool.map(p -> p.submit(() -> findFirstCommonPrefix(selections.parallelStream(), chains)).join())
+                .orElseGet(() -> findFirstCommonPrefix(selections.stream(), chains));
+    }
+
+    private Optional<CommonPrefix> findFirstCommonPrefix(Stream<Selection> selections, ChainIndex chains) {
+        return selections
+                .map(r -> findFirstCommonPrefix(r, chains))
                 .flatMap(Optional::stream)
                 .findFirst();
     }
 
-    private Optional<CommonPrefix> findFirstCommonPrefix(Selection selection, BNF bnf) {
-        final var chains = allChains(selection, bnf).toList();
-
-        // Compare all pairs with each other to find all existing common prefixes.
-        // A group is a pair (prefix contents, all common prefixes with such contents)
-        final var commonPrefixGroups = enumeratedStream(chains.stream(),
-                                                        (chain, i) -> subList(chains, i + 1).stream()
-                                                                .map(otherChain -> findCommonPrefix(chain, otherChain, bnf)
-                                                                        .map(pref -> pref.equals(chain.getLast()) && pref.equals(otherChain.getLast())
-                                                                                // Given prefix C and chains A -> C, A -> B -> C, drop C from the chains.
-                                                                                ? new CommonPrefix(pref, List.of(dropRight(chain, 1), dropRight(otherChain, 1)))
-                                                                                : new CommonPrefix(pref, List.of(chain, otherChain))))
-                                                                .flatMap(Optional::stream))
-                .flatMap(Function.identity())
-                .collect(Collectors.groupingBy(CommonPrefix::symbol));
-        // Take any group
-        return commonPrefixGroups.isEmpty()
-                ? Optional.empty()
-                : Optional.of(CommonPrefix.combineChains(first(commonPrefixGroups.values())));
+    /**
+     * A common prefix of a selection is a terminal that begins at least 2 of its chains.
+     * If there are several such terminals, the one that begins the earliest chain is chosen.
+     * Only the chains that begin with the chosen terminal are enumerated explicitly.
+     */
+    private Optional<CommonPrefix> findFirstCommonPrefix(Selection selection, ChainIndex chains) {
+        return chains.leadingTerminals(selection.lhs()).entrySet().stream()
+                .filter(entry -> entry.getValue() >= 2)
+                .findFirst()
+                .map(Map.Entry::getKey)
+                .map(prefix -> new CommonPrefix(prefix, chains.chainsTo(selection, prefix).distinct().toList()));
     }
 
     /**
-     * Returns a stream of all chains that start from the specified rule and end at the first terminal (excluded).
+     * Chains of a BNF, represented implicitly by rules and summarised for each variable.
+     * <p>
+     * A chain starts from a rule and follows the first RHS symbol of derivations (or any option of selections) down to
+     * the first terminal (excluded).
      * Since a terminal can occur only in the RHS of a derivation, the last symbol in each chain is a derivation rule.
+     * <p>
+     * Chains from different variables share their suffixes, so instead of enumerating them, the number of chains that
+     * begin with each terminal is memoised per variable.
+     * <p>
+     * The index may be shared by threads. A value that is being computed by several threads at once is computed by each
+     * of them, but all results are equal.
      */
-    private Stream<List<Variable>> allChains(final Rule rule, final BNF bnf) {
-        return switch (rule) {
-            case Derivation derivation -> {
-                if (derivation.rhs().isEmpty() || derivation.rhs().getFirst() instanceof Terminal) {
-                    yield Stream.of(List.of(derivation.lhs()));
-                }
-                else yield allChains(bnf.requireRuleFor((Variable) derivation.rhs().getFirst()), bnf)
-                        .map(chain -> prepend(derivation.lhs(), chain));
+    private static final class ChainIndex {
+
+        private final BNF bnf;
+        /** Variable name -> terminal -> number of chains from that variable that begin with the terminal (at most 2) */
+        private final Map<String, Map<Symbol, Integer>> leadingTerminals = new ConcurrentHashMap<>();
+
+        ChainIndex(final BNF bnf) {
+            this.bnf = bnf;
+        }
+
+        /**
+         * Terminals are ordered by the first chain they begin, in the order in which chains are enumerated by {@link #chainsTo(Rule, Symbol)}.
+         * Counts are capped at 2, since it is only relevant whether a terminal begins more than one chain.
+         */
+        Map<Symbol, Integer> leadingTerminals(final Variable variable) {
+            final var name = variable.name().toString();
+            // computeIfAbsent is not used, since this method is recursive
+            final var cached = leadingTerminals.get(name);
+            if (cached != null) {
+                return cached;
             }
-            case Selection selection -> selection.rhs().stream()
-                    .flatMap(v -> allChains(bnf.requireRuleFor(v), bnf))
-                    .map(chain -> prepend(selection.lhs(), chain));
-        };
-    }
+            final Map<Symbol, Integer> result = switch (bnf.requireRuleFor(variable)) {
+                case Derivation derivation -> switch (firstOpt(derivation.rhs()).orElse(null)) {
+                    case null -> Map.of();
+                    case Terminal t -> Map.of(t, 1);
+                    case Variable v -> leadingTerminals(v);
+                };
+                case Selection sel -> {
+                    final var map = new LinkedHashMap<Symbol, Integer>();
+                    sel.rhs().forEach(option -> leadingTerminals(option).forEach((t, n) -> map.merge(t, n, (x, y) -> Math.min(x + y, 2))));
+                    yield unmodifiableMap(map);
+                }
+            };
+            leadingTerminals.put(name, result);
+            return result;
+        }
+
+        /**
+         * Returns a stream of all chains that start from the specified rule and end at a derivation whose RHS begins with the prefix.
+         */
+        Stream<List<Variable>> chainsTo(final Rule rule, final Symbol prefix) {
+            return switch (rule) {
+                case Derivation derivation -> switch (firstOpt(derivation.rhs()).orElse(null)) {
+                    case null -> Stream.of();
+                    case Terminal t -> t.equals(prefix) ? Stream.of(List.of(derivation.lhs())) : Stream.of();
+                    case Variable v -> leadingTerminals(v).containsKey(prefix)
+                            ? chainsTo(bnf.requireRuleFor(v), prefix).map(chain -> prepend(derivation.lhs(), chain))
+                            : Stream.of();
+                };
+                case Selection selection -> selection.rhs().stream()
+                        .filter(v -> leadingTerminals(v).containsKey(prefix))
+                        .flatMap(v -> chainsTo(bnf.requireRuleFor(v), prefix))
+                        .map(chain -> prepend(selection.lhs(), chain));
+            };
+        }
 
-    private Optional<Symbol> findCommonPrefix(List<? extends Variable> xs, List<? extends Variable> ys, BNF bnf) {
-        // The last rule in a chain is always a derivation.
-        if (!(bnf.requireRuleFor(xs.getLast()) instanceof Derivation dx))
-            throw new IllegalArgumentException("The last rule in chain [%s] is not a derivation.".formatted(String.join(", ", xs)));
-        if (!(bnf.requireRuleFor(ys.getLast()) instanceof Derivation dy))
-            throw new IllegalArgumentException("The last rule in chain [%s] is not a derivation.".formatted(String.join(", ", ys)));
-
-        // if (dx.lhs().equals(dy.lhs()))
-        //     return Optional.of(dx.lhs());
-        if (optionalMap2(firstOpt(dx.rhs()), firstOpt(dy.rhs()), Objects::equals).orElse(false))
-            return firstOpt(dx.rhs());
-        else return Optional.empty();
     }
 
     /**
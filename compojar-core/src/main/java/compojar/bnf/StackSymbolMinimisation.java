@@ -0,0 +1,95 @@
+package compojar.bnf;
+
+import compojar.gen.ParserInfo;
+import compojar.util.T2;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static compojar.util.T2.t2;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Merges behaviourally equivalent variables of a canonical grammar, which become stack symbols of the stack machine, and
+ * thus fluent interfaces and their implementations.
+ * <p>
+ * Two variables are equivalent if their rules are of the same kind, have the same terminals in the same positions,
+ * equivalent variables in the other positions, and their parser infos are equal up to equivalence of implicitly parsed variables.
+ * Equivalent variables parse the same sentences into the same AST nodes, so each class of equivalent variables is replaced
+ * by a single representative: the start variable, or otherwise the first one by name.
+ * <p>
+ * The equivalence is computed by partition refinement: variables are initially partitioned by the properties of their
+ * rules that don't involve other variables, and blocks are split by the blocks of referenced variables until the partition is stable.
+ */
+public class StackSymbolMinimisation {
+
+    public T2<BNF, AstMetadata> apply(final BNF bnf, final AstMetadata astMetadata) {
+        final var variables = bnf.rules().stream().map(Rule::lhs).sorted(Variable.comparator).toList();
+
+        // Block of each variable, refined until the number of blocks doesn't change.
+        var blocks = number(variables, v -> signature(bnf.requireRuleFor(v), astMetadata.requireParserInfo(v), Map.of()));
+        int count;
+        do {
+            count = blockCount(blocks);
+            final var previous = blocks;
+            blocks = number(variables, v -> List.of(previous.get(v), signature(bnf.requireRuleFor(v), astMetadata.requireParserInfo(v), previous)));
+        } while (blockCount(blocks) != count);
+
+        final var representatives = new HashMap<Integer, Variable>();
+        representatives.put(blocks.get(bnf.start()), bnf.start());
+        final var finalBlocks = blocks;
+        variables.forEach(v -> representatives.putIfAbsent(finalBlocks.get(v), v));
+        final Map<Variable, Variable> replacement = variables.stream()
+                .collect(toMap(v -> v, v -> representatives.get(finalBlocks.get(v))));
+
+        final var rules = bnf.rules().stream()
+                .filter(rule -> replacement.get(rule.lhs()).equals(rule.lhs()))
+                .map(rule -> switch (rule) {
+                    case Derivation derivation -> (Rule) new Derivation(derivation.lhs(), derivation.rhs().stream()
+                            .map(s -> s instanceof Variable v ? replacement.get(v) : s)
+                            .toList());
+                    case Selection selection -> new Selection(selection.lhs(), selection.rhs().stream().map(replacement::get).toList());
+                })
+                .toList();
+        final var removed = variables.stream().filter(v -> !replacement.get(v).equals(v)).toList();
+        final var newAstMetadata = astMetadata.removeVariables(removed);
+        final var parserInfos = newAstMetadata.parserInfoMap().entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, e -> withImplicitVar(e.getValue(), e.getValue().implicitVar().map(replacement::get))));
+        return t2(new BNF(rules, bnf.start()), newAstMetadata.updateParserInfos(parserInfos));
+    }
+
+    /**
+     * Properties of a rule and its parser info, where variables are represented by their blocks, if the blocks are known.
+     */
+    private static List<Object> signature(final Rule rule, final ParserInfo parserInfo, final Map<Variable, Integer> blocks) {
+        final var rhs = rule.rhs().stream()
+                .map(s -> s instanceof Variable v ? blocks.getOrDefault(v, -1) : s)
+                .toList();
+        final var implicitBlock = parserInfo.implicitVar().map(v -> blocks.getOrDefault(v, -1));
+        return List.of(rule instanceof Selection, rhs, withImplicitVar(parserInfo, Optional.empty()), implicitBlock);
+    }
+
+    private static ParserInfo withImplicitVar(final ParserInfo parserInfo, final Optional<Variable> implicitVar) {
+        return switch (parserInfo) {
+            case ParserInfo.Full full -> new ParserInfo.Full(full.astNode(), implicitVar);
+            case ParserInfo.PartialD partial -> new ParserInfo.PartialD(partial.astNode(), partial.parameters(), implicitVar);
+            case ParserInfo.PartialS $ -> parserInfo;
+            case ParserInfo.Bridge $ -> parserInfo;
+        };
+    }
+
+    /**
+     * Numbers variables by distinct values of the key, in the order of variables.
+     */
+    private static Map<Variable, Integer> number(final List<Variable> variables, final Function<Variable, Object> key) {
+        final var numbers = new HashMap<Object, Integer>();
+        final var blocks = new HashMap<Variable, Integer>();
+        variables.forEach(v -> blocks.put(v, numbers.computeIfAbsent(key.apply(v), $ -> numbers.size())));
+        return blocks;
+    }
+
+    private static int blockCount(final Map<Variable, Integer> blocks) {
+        return (int) blocks.values().stream().distinct().count();
+    }
+
+}
@@ -0,0 +1,59 @@
+package compojar.bnf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns symbols to dense int ids.
+ * <p>
+ * Symbols are identified by their kind and name, the same way {@link BNF} identifies rules, so that all occurrences of
+ * a symbol receive the same id regardless of their parameters and metadata.
+ * The first interned occurrence of each symbol is kept as its representative.
+ */
+public final class SymbolTable {
+
+    private final Map<String, Integer> terminalIds = new HashMap<>();
+    private final Map<String, Integer> variableIds = new HashMap<>();
+    private final List<Symbol> symbols = new ArrayList<>();
+
+    SymbolTable() {}
+
+    int intern(final Symbol symbol) {
+        final var ids = symbol instanceof Terminal ? terminalIds : variableIds;
+        final var name = symbol.name().toString();
+        final var id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        final int newId = symbols.size();
+        ids.put(name, newId);
+        symbols.add(symbol);
+        return newId;
+    }
+
+    public int size() {
+        return symbols.size();
+    }
+
+    /**
+     * Returns the id of the symbol, or {@code -1} if it is not in this table.
+     */
+    public int id(final Symbol symbol) {
+        return (symbol instanceof Terminal ? terminalIds : variableIds).getOrDefault(symbol.name().toString(), -1);
+    }
+
+    public Symbol symbol(final int id) {
+        return symbols.get(id);
+    }
+
+    public boolean isTerminal(final int id) {
+        return symbols.get(id) instanceof Terminal;
+    }
+
+    public boolean isVariable(final int id) {
+        return symbols.get(id) instanceof Variable;
+    }
+
+}
@@ -4,7 +4,7 @@ import compojar.gen.Namer;
 import compojar.gen.ParserInfo;
 import compojar.util.T2;
 
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -24,7 +24,7 @@ public class TerminalNormalisation {
     }
 
     public T2<BNF, AstMetadata> apply(final BNF bnf, final AstMetadata astMetadata) {
-        var normalisedTerminals = new HashSet<Terminal>();
+        var normalisedTerminals = new LinkedHashSet<Terminal>();
         var newBnf = reduce(bnf.rules().stream(),
                             bnf,
                             (acc, rule) -> normalise(rule)
@@ -41,7 +41,7 @@ public class TerminalNormalisation {
 
     private Optional<T2<Derivation, Set<Terminal>>> normalise(final Rule rule) {
         if (rule instanceof Derivation derivation) {
-            Set<T2<Terminal, Integer>> terminals = new HashSet<>();
+            Set<T2<Terminal, Integer>> terminals = new LinkedHashSet<>();
 
             for (int i = 1; i < derivation.rhs().size(); i++) {
                 if (derivation.rhs().get(i) instanceof Terminal terminal) {
@@ -56,7 +56,7 @@ public class TerminalNormalisation {
                 var newRule = reduce(terminals.stream(),
                                      derivation,
                                      (acc, pair) -> new Derivation(derivation.lhs(), replace(acc.rhs(), pair.snd(), variable(namer.normalisedTerminalName(pair.fst())))));
-                return Optional.of(t2(newRule, terminals.stream().map(T2::fst).collect(Collectors.toSet())));
+                return Optional.of(t2(newRule, terminals.stream().map(T2::fst).collect(Collectors.toCollection(LinkedHashSet::new))));
             }
         }
         else {
@@ -1,7 +1,6 @@
 package compojar.dfa;
 
 import java.util.Set;
-import java.util.stream.Stream;
 
 record DFA
         (Set<String> states, Set<String> symbols, Set<Rule> rules, Set<String> acceptingStates, String start)
@@ -25,10 +24,18 @@ record DFA
         return acceptingStates.contains(state);
     }
 
-    public Stream<Rule> transitionsFrom(final String state) {
-        return rules.stream()
-                .filter(rule -> rule.source().equals(state));
+    /**
+     * @return  the int-indexed transition table of this automaton
+     */
+    TransitionTable table() {
+        return TransitionTable.of(this);
+    }
 
+    /**
+     * @return  the equivalent automaton with the least number of states
+     */
+    public DFA minimise() {
+        return table().minimise().toDfa();
     }
 
 }
@@ -6,9 +6,15 @@ import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
 
 import javax.lang.model.element.Modifier;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static com.squareup.javapoet.MethodSpec.methodBuilder;
+import static com.squareup.javapoet.TypeSpec.enumBuilder;
 import static com.squareup.javapoet.TypeSpec.interfaceBuilder;
 import static java.util.stream.Collectors.toSet;
 
@@ -22,38 +28,106 @@ public class Generator {
                                .build())
             .build();
 
+    private static final String IMPL_TYPE_NAME = "$Impl";
+
+    /** Methods without parameters that an enum either has already or can't override with a method that returns the enum. */
+    private static final Set<String> ENUM_METHODS = Stream.concat(Arrays.stream(Enum.class.getMethods()).filter(m -> m.getParameterCount() == 0).map(Method::getName),
+                                                                  Stream.of("values", "clone", "finalize"))
+            .collect(toSet());
+
     public void generateApi(String name, DFA dfa) {
-        final String pkgName = "";
-        final TypeName endTypeName = ClassName.get(pkgName, END_TYPE.name);
+        System.out.println(generateJavaFile(name, dfa).toString());
+    }
+
+    /**
+     * Generates the API in the default package (see {@link #generateJavaFile(String, String, DFA)}).
+     */
+    public JavaFile generateJavaFile(String name, DFA dfa) {
+        return generateJavaFile("", name, dfa);
+    }
+
+    /**
+     * Generates interfaces for states of the minimal automaton equivalent to the given one, reading transitions from its
+     * {@linkplain TransitionTable transition table}, and their implementation.
+     * <p>
+     * Since the interfaces alone rule out sentences that the automaton doesn't accept, the implementation needs no state:
+     * it is an enum singleton that implements all state interfaces, and whose methods return the singleton itself.
+     * Hence, a method chain allocates nothing.
+     */
+    public JavaFile generateJavaFile(String pkgName, String name, DFA dfa) {
+        final TypeName endTypeName = ClassName.get(pkgName, name, END_TYPE.name);
+        final var table = dfa.table().minimise();
+        final ClassName implTypeName = ClassName.get(pkgName, name, IMPL_TYPE_NAME);
+        // State interfaces are nested next to the end interface and the implementation.
+        IntStream.range(0, table.stateCount())
+                .mapToObj(state -> typeNameFromState(table.state(state)))
+                .filter(type -> type.equals(END_TYPE.name) || type.equals(IMPL_TYPE_NAME))
+                .findFirst()
+                .ifPresent(type -> {
+                    throw new IllegalArgumentException("State [%s] clashes with a generated type.".formatted(type));
+                });
 
-        final Set<TypeSpec> stateTypes = dfa.states().stream()
-                .map(state -> {
-                    final var builder = interfaceBuilder(typeNameFromState(state))
+        final List<TypeSpec> stateTypes = IntStream.range(0, table.stateCount())
+                .mapToObj(state -> {
+                    final var builder = interfaceBuilder(typeNameFromState(table.state(state)))
                             .addModifiers(Modifier.PUBLIC, Modifier.STATIC);
-                    if (dfa.isAccepting(state)) {
+                    if (table.isAccepting(state)) {
                         builder.addSuperinterface(endTypeName);
                     }
-                    dfa.transitionsFrom(state)
-                            .map(rule -> methodBuilder(rule.symbol())
+                    IntStream.range(0, table.symbolCount())
+                            .filter(symbol -> table.next(state, symbol) != TransitionTable.NONE)
+                            .mapToObj(symbol -> methodBuilder(table.symbol(symbol))
                                     .addModifiers(Modifier.ABSTRACT, Modifier.PUBLIC)
-                                    .returns(ClassName.get(pkgName, typeNameFromState(rule.destination())))
+                                    .returns(ClassName.get(pkgName, name, typeNameFromState(table.state(table.next(state, symbol)))))
                                     .build())
                             .forEach(builder::addMethod);
                     return builder.build();
                 })
-                .collect(toSet());
+                .toList();
 
         final var topLevelInterface = interfaceBuilder(name)
+                .addModifiers(Modifier.PUBLIC)
                 .addMethod(methodBuilder(name)
                                    .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
-                                   .returns(ClassName.get(pkgName, typeNameFromState(dfa.start())))
-                                   .addStatement("throw new $T()", UnsupportedOperationException.class)
+                                   .returns(ClassName.get(pkgName, name, typeNameFromState(table.state(table.start()))))
+                                   .addStatement("return $T.INSTANCE", implTypeName)
                                    .build())
                 .addType(END_TYPE)
                 .addTypes(stateTypes)
+                .addType(implType(table, stateTypes, implTypeName, endTypeName))
                 .build();
 
-        System.out.println(JavaFile.builder(pkgName, topLevelInterface).build().toString());
+        return JavaFile.builder(pkgName, topLevelInterface).build();
+    }
+
+    private static TypeSpec implType(TransitionTable table, List<TypeSpec> stateTypes, ClassName implTypeName, TypeName endTypeName) {
+        final var builder = enumBuilder(implTypeName)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addEnumConstant("INSTANCE")
+                .addSuperinterface(endTypeName)
+                .addSuperinterfaces(stateTypes.stream().map(type -> implTypeName.peerClass(type.name)).toList())
+                .addMethod(methodBuilder("$")
+                                   .addAnnotation(Override.class)
+                                   .addModifiers(Modifier.PUBLIC)
+                                   .returns(void.class)
+                                   .build());
+        final var symbols = IntStream.range(0, table.symbolCount())
+                .filter(symbol -> IntStream.range(0, table.stateCount()).anyMatch(state -> table.next(state, symbol) != TransitionTable.NONE))
+                .mapToObj(table::symbol)
+                .toList();
+        symbols.stream().filter(ENUM_METHODS::contains).findFirst().ifPresent(symbol -> {
+            throw new IllegalArgumentException("Symbol [%s] clashes with a method of enums.".formatted(symbol));
+        });
+        // Transitions on the same symbol from different states return different interfaces, all of which are implemented by the singleton.
+        symbols.stream()
+                .map(symbol -> methodBuilder(symbol)
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(implTypeName)
+                        .addStatement("return this")
+                        .build())
+                .forEach(builder::addMethod);
+        return builder.build();
     }
 
     private String typeNameFromState(String state) {
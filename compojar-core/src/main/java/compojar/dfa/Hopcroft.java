@@ -0,0 +1,246 @@
+package compojar.dfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import static compojar.dfa.TransitionTable.NONE;
+
+/**
+ * Hopcroft's minimisation of a {@link TransitionTable}.
+ * <p>
+ * Unreachable states are removed first. Missing transitions lead to an implicit dead state, so states from which no
+ * accepting state can be reached end up in its block and are removed together with it.
+ * Each remaining block becomes a state named after the start state, if the block contains it, or otherwise after its
+ * first state by name.
+ * <p>
+ * The partition is kept in a single array of states, where each block occupies a contiguous range, and states of a block
+ * that are marked during refinement are moved to the beginning of its range, so that splitting a block takes time
+ * proportional to the number of its marked states.
+ */
+final class Hopcroft {
+
+    private Hopcroft() {}
+
+    static TransitionTable minimise(final TransitionTable table) {
+        final int symbolCount = table.symbolCount();
+
+        // Reachable states, with the dead state last.
+        final int[] reachableId = new int[table.stateCount()];
+        Arrays.fill(reachableId, NONE);
+        final var reachable = new ArrayList<Integer>();
+        reachableId[table.start()] = 0;
+        reachable.add(table.start());
+        for (int i = 0; i < reachable.size(); i++) {
+            for (int symbol = 0; symbol < symbolCount; symbol++) {
+                final int next = table.next(reachable.get(i), symbol);
+                if (next != NONE && reachableId[next] == NONE) {
+                    reachableId[next] = reachable.size();
+                    reachable.add(next);
+                }
+            }
+        }
+        final int n = reachable.size() + 1, dead = n - 1;
+
+        // Complete transition function and its inverse, indexed by symbol * n + state.
+        final int[] delta = new int[n * symbolCount];
+        for (int q = 0; q < n; q++) {
+            for (int symbol = 0; symbol < symbolCount; symbol++) {
+                final int next = q == dead ? NONE : table.next(reachable.get(q), symbol);
+                delta[q * symbolCount + symbol] = next == NONE ? dead : reachableId[next];
+            }
+        }
+        final int[] predecessorOffsets = new int[symbolCount * n + 1];
+        for (int q = 0; q < n; q++) {
+            for (int symbol = 0; symbol < symbolCount; symbol++) {
+                predecessorOffsets[symbol * n + delta[q * symbolCount + symbol] + 1]++;
+            }
+        }
+        for (int i = 0; i < symbolCount * n; i++) {
+            predecessorOffsets[i + 1] += predecessorOffsets[i];
+        }
+        final int[] predecessors = new int[n * symbolCount];
+        final int[] fill = Arrays.copyOf(predecessorOffsets, symbolCount * n);
+        for (int q = 0; q < n; q++) {
+            for (int symbol = 0; symbol < symbolCount; symbol++) {
+                predecessors[fill[symbol * n + delta[q * symbolCount + symbol]]++] = q;
+            }
+        }
+
+        // Initial partition: accepting and other states.
+        final var partition = new Partition(n);
+        for (int q = 0; q < dead; q++) {
+            if (table.isAccepting(reachable.get(q))) {
+                partition.mark(q);
+            }
+        }
+        final int split = partition.split(0);
+
+        final boolean[] waiting = new boolean[n * symbolCount];
+        final int[] worklist = new int[n * symbolCount];
+        int worklistSize = 0;
+        if (split != NONE) {
+            final int smaller = partition.size(split) <= partition.size(0) ? split : 0;
+            for (int symbol = 0; symbol < symbolCount; symbol++) {
+                waiting[smaller * symbolCount + symbol] = true;
+                worklist[worklistSize++] = smaller * symbolCount + symbol;
+            }
+        }
+
+        final int[] splitter = new int[n];
+        final int[] touched = new int[n];
+        while (worklistSize > 0) {
+            final int entry = worklist[--worklistSize];
+            waiting[entry] = false;
+            final int block = entry / symbolCount, symbol = entry % symbolCount;
+
+            final int splitterSize = partition.copy(block, splitter);
+            int touchedCount = 0;
+            for (int i = 0; i < splitterSize; i++) {
+                final int cell = symbol * n + splitter[i];
+                for (int p = predecessorOffsets[cell]; p < predecessorOffsets[cell + 1]; p++) {
+                    if (partition.mark(predecessors[p])) {
+                        touched[touchedCount++] = partition.blockOf(predecessors[p]);
+                    }
+                }
+            }
+
+            for (int i = 0; i < touchedCount; i++) {
+                final int old = touched[i];
+                final int created = partition.split(old);
+                if (created != NONE) {
+                    final int smaller = partition.size(created) <= partition.size(old) ? created : old;
+                    for (int c = 0; c < symbolCount; c++) {
+                        final int added = waiting[old * symbolCount + c] ? created : smaller;
+                        if (!waiting[added * symbolCount + c]) {
+                            waiting[added * symbolCount + c] = true;
+                            worklist[worklistSize++] = added * symbolCount + c;
+                        }
+                    }
+                }
+            }
+        }
+
+        // Blocks become states, except for the block of the dead state, unless it contains the start state.
+        final int deadBlock = partition.blockOf(dead) == partition.blockOf(0) ? NONE : partition.blockOf(dead);
+        final var names = new String[partition.blockCount()];
+        for (int q = dead - 1; q >= 0; q--) {
+            final int block = partition.blockOf(q);
+            final String name = table.state(reachable.get(q));
+            if (q == 0 || names[block] == null || (partition.blockOf(0) != block && name.compareTo(names[block]) < 0)) {
+                names[block] = name;
+            }
+        }
+        final var sortedNames = new TreeSet<String>();
+        for (int block = 0; block < names.length; block++) {
+            if (block != deadBlock && names[block] != null) {
+                sortedNames.add(names[block]);
+            }
+        }
+        final var states = sortedNames.toArray(String[]::new);
+        final int[] stateOfBlock = new int[names.length];
+        for (int block = 0; block < names.length; block++) {
+            stateOfBlock[block] = block == deadBlock || names[block] == null ? NONE : Arrays.binarySearch(states, names[block]);
+        }
+
+        final int[] next = new int[states.length * symbolCount];
+        final boolean[] accepting = new boolean[states.length];
+        for (int q = 0; q < dead; q++) {
+            final int state = stateOfBlock[partition.blockOf(q)];
+            if (state != NONE) {
+                accepting[state] = table.isAccepting(reachable.get(q));
+                for (int symbol = 0; symbol < symbolCount; symbol++) {
+                    final int target = partition.blockOf(delta[q * symbolCount + symbol]);
+                    next[state * symbolCount + symbol] = target == partition.blockOf(dead) ? NONE : stateOfBlock[target];
+                }
+            }
+        }
+
+        final var symbols = new String[symbolCount];
+        Arrays.setAll(symbols, table::symbol);
+        return TransitionTable.of(states, symbols, next, accepting, stateOfBlock[partition.blockOf(0)]);
+    }
+
+    /**
+     * A partition of states {@code [0, n)} into blocks with contiguous ranges in {@link #elements}.
+     */
+    private static final class Partition {
+        final int[] elements, location, blockOf;
+        final int[] first, end, marked;
+        int blockCount;
+
+        Partition(final int n) {
+            elements = new int[n];
+            location = new int[n];
+            blockOf = new int[n];
+            first = new int[n];
+            end = new int[n];
+            marked = new int[n];
+            for (int q = 0; q < n; q++) {
+                elements[q] = q;
+                location[q] = q;
+            }
+            end[0] = n;
+            blockCount = 1;
+        }
+
+        int blockCount() {
+            return blockCount;
+        }
+
+        int blockOf(final int q) {
+            return blockOf[q];
+        }
+
+        int size(final int block) {
+            return end[block] - first[block];
+        }
+
+        int copy(final int block, final int[] target) {
+            final int size = size(block);
+            System.arraycopy(elements, first[block], target, 0, size);
+            return size;
+        }
+
+        /**
+         * Moves the state to the marked prefix of its block.
+         *
+         * @return  whether this is the first marked state of its block
+         */
+        boolean mark(final int q) {
+            final int block = blockOf[q];
+            final int i = location[q], j = first[block] + marked[block];
+            if (i < j) {
+                return false;
+            }
+            final int other = elements[j];
+            elements[j] = q;
+            location[q] = j;
+            elements[i] = other;
+            location[other] = i;
+            return marked[block]++ == 0;
+        }
+
+        /**
+         * Splits the marked states off the block, unless all of its states are marked, and clears the marks.
+         *
+         * @return  the new block of the marked states, or {@link TransitionTable#NONE}
+         */
+        int split(final int block) {
+            final int count = marked[block];
+            marked[block] = 0;
+            if (count == 0 || count == size(block)) {
+                return NONE;
+            }
+            final int created = blockCount++;
+            first[created] = first[block];
+            end[created] = first[block] + count;
+            first[block] = end[created];
+            for (int i = first[created]; i < end[created]; i++) {
+                blockOf[elements[i]] = created;
+            }
+            return created;
+        }
+    }
+
+}
@@ -44,7 +44,7 @@ public class Test {
 
     interface AB {
         static S AB() {
-            throw new UnsupportedOperationException();
+            return $Impl.INSTANCE;
         }
 
         interface $End {
@@ -55,19 +55,28 @@ public class Test {
             O b();
         }
 
-        interface A {
-            O b();
+        interface S {
+            S a();
 
-            A a();
+            O b();
         }
 
-        interface S {
-            O b();
+        enum $Impl implements $End, O, S {
+            INSTANCE;
 
-            A a();
-        }
-    }
+            @Override
+            public void $() {}
 
+            @Override
+            public $Impl a() {
+                return this;
+            }
 
+            @Override
+            public $Impl b() {
+                return this;
+            }
+        }
+    }
 
 }
@@ -0,0 +1,144 @@
+package compojar.dfa;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Int-indexed form of a {@link DFA}: states and symbols are numbered in the order of their names, and transitions are
+ * stored in a dense array indexed by {@code state * symbolCount() + symbol}.
+ */
+final class TransitionTable {
+
+    /** Absence of a transition, a state or a symbol. */
+    static final int NONE = -1;
+
+    private final String[] states;
+    private final String[] symbols;
+    private final Map<String, Integer> stateIds;
+    private final Map<String, Integer> symbolIds;
+    private final int[] next;
+    private final boolean[] accepting;
+    private final int start;
+
+    private TransitionTable(final String[] states, final String[] symbols, final int[] next, final boolean[] accepting, final int start) {
+        this.states = states;
+        this.symbols = symbols;
+        this.stateIds = ids(states);
+        this.symbolIds = ids(symbols);
+        this.next = next;
+        this.accepting = accepting;
+        this.start = start;
+    }
+
+    static TransitionTable of(final DFA dfa) {
+        final var states = dfa.states().stream().sorted().toArray(String[]::new);
+        final var symbols = dfa.symbols().stream().sorted().toArray(String[]::new);
+        final var stateIds = ids(states);
+        final var symbolIds = ids(symbols);
+
+        final var next = new int[states.length * symbols.length];
+        Arrays.fill(next, NONE);
+        for (final var rule : dfa.rules()) {
+            final Integer source = stateIds.get(rule.source()), symbol = symbolIds.get(rule.symbol()), destination = stateIds.get(rule.destination());
+            if (source == null || symbol == null || destination == null) {
+                throw new IllegalArgumentException("Rule %s refers to an unknown state or symbol.".formatted(rule));
+            }
+            final int cell = source * symbols.length + symbol;
+            if (next[cell] != NONE && next[cell] != destination) {
+                throw new IllegalArgumentException("The automaton is not deterministic: state %s has several transitions on %s."
+                                                           .formatted(rule.source(), rule.symbol()));
+            }
+            next[cell] = destination;
+        }
+
+        final var accepting = new boolean[states.length];
+        dfa.acceptingStates().forEach(state -> accepting[stateIds.get(state)] = true);
+        return new TransitionTable(states, symbols, next, accepting, stateIds.get(dfa.start()));
+    }
+
+    static TransitionTable of(final String[] states, final String[] symbols, final int[] next, final boolean[] accepting, final int start) {
+        return new TransitionTable(states, symbols, next, accepting, start);
+    }
+
+    private static Map<String, Integer> ids(final String[] names) {
+        final var ids = new HashMap<String, Integer>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+        return ids;
+    }
+
+    int stateCount() {
+        return states.length;
+    }
+
+    int symbolCount() {
+        return symbols.length;
+    }
+
+    String state(final int state) {
+        return states[state];
+    }
+
+    String symbol(final int symbol) {
+        return symbols[symbol];
+    }
+
+    int stateId(final String state) {
+        return stateIds.getOrDefault(state, NONE);
+    }
+
+    int symbolId(final String symbol) {
+        return symbolIds.getOrDefault(symbol, NONE);
+    }
+
+    int start() {
+        return start;
+    }
+
+    boolean isAccepting(final int state) {
+        return accepting[state];
+    }
+
+    /**
+     * @return  the destination of the transition, or {@link #NONE}
+     */
+    int next(final int state, final int symbol) {
+        return next[state * symbols.length + symbol];
+    }
+
+    /**
+     * Runs the automaton over the symbols.
+     *
+     * @return  whether the automaton ends in an accepting state
+     */
+    boolean accepts(final int[] input) {
+        int state = start;
+        for (final int symbol : input) {
+            if (symbol < 0 || symbol >= symbols.length || (state = next(state, symbol)) == NONE) {
+                return false;
+            }
+        }
+        return accepting[state];
+    }
+
+    /**
+     * @return  the equivalent automaton with the least number of states (see {@link Hopcroft})
+     */
+    TransitionTable minimise() {
+        return Hopcroft.minimise(this);
+    }
+
+    DFA toDfa() {
+        final var rules = IntStream.range(0, states.length).boxed()
+                .flatMap(state -> IntStream.range(0, symbols.length)
+                        .filter(symbol -> next(state, symbol) != NONE)
+                        .mapToObj(symbol -> new Rule(states[state], symbols[symbol], states[next(state, symbol)])))
+                .collect(toSet());
+        final var acceptingStates = IntStream.range(0, states.length).filter(s -> accepting[s]).mapToObj(s -> states[s]).collect(toSet());
+        return new DFA(Set.of(states), Set.of(symbols), rules, acceptingStates, states[start]);
+    }
+
+}
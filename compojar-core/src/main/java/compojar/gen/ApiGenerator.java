@@ -9,6 +9,7 @@ import compojar.util.T2;
 import compojar.util.Util;
 
 import java.io.IOException;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -27,10 +28,16 @@ public class ApiGenerator {
 
     private final StackMachine machine;
     private final Namer namer;
+    private final ApiImplGenerator.Backend backend;
 
     public ApiGenerator(final Namer namer, final StackMachine machine) {
+        this(namer, machine, ApiImplGenerator.Backend.CONTINUATIONS);
+    }
+
+    public ApiGenerator(final Namer namer, final StackMachine machine, final ApiImplGenerator.Backend backend) {
         this.namer = namer;
         this.machine = machine;
+        this.backend = backend;
     }
 
     public T2<JavaFile, Map<Symbol, TypeSpec>> generate() {
@@ -42,14 +49,7 @@ public class ApiGenerator {
 
         apiTypeBuilder.addTypes(symbolInterfaceMap.values());
 
-        apiTypeBuilder.addMethod(
-                methodBuilder("start")
-                        .returns(ParameterizedTypeName.get(makeInterfaceName(machine.start()), namer.astNodeClassName(machine.start())))
-                        .addModifiers(PUBLIC, STATIC)
-                        .addStatement("return new $T<>($T.identity())",
-                                      namer.fluentInterfaceImplClassName(namer.implSimpleName(makeInterfaceName(machine.start()).simpleName())),
-                                      ClassName.get(Function.class))
-                        .build());
+        apiTypeBuilder.addMethod(startMethod());
 
         var apiType = apiTypeBuilder.build();
         return t2(JavaFile.builder(namer.pkgName(), apiType).skipJavaLangImports(true).build(),
@@ -76,19 +76,25 @@ public class ApiGenerator {
                 .map(sym -> generateType(sym, machine.rulesThatPop(sym)))
                 .forEach(apiTypeBuilder::addType);
 
-        apiTypeBuilder.addMethod(
-                methodBuilder("start")
-                        .returns(ParameterizedTypeName.get(makeInterfaceName(machine.start()), namer.astNodeClassName(machine.start())))
-                        .addModifiers(PUBLIC, STATIC)
-                        .addStatement("return new $T<>($T.identity())",
-                                      namer.fluentInterfaceImplClassName(namer.implSimpleName(makeInterfaceName(machine.start()).simpleName())),
-                                      ClassName.get(Function.class))
-                        .build());
+        apiTypeBuilder.addMethod(startMethod());
 
         var apiType = apiTypeBuilder.build();
         return JavaFile.builder(namer.pkgName(), apiType).skipJavaLangImports(true).build();
     }
 
+    private MethodSpec startMethod() {
+        var builder = methodBuilder("start")
+                .returns(ParameterizedTypeName.get(makeInterfaceName(machine.start()), namer.astNodeClassName(machine.start())))
+                .addModifiers(PUBLIC, STATIC);
+        return switch (backend) {
+            case CONTINUATIONS -> builder.addStatement("return new $T<>($T.identity())",
+                                                       namer.fluentInterfaceImplClassName(namer.implSimpleName(makeInterfaceName(machine.start()).simpleName())),
+                                                       ClassName.get(Function.class))
+                    .build();
+            case OPERAND_STACK -> builder.addStatement("return $T.start()", namer.enclosingApiImplTypeClassName()).build();
+        };
+    }
+
     private TypeSpec generateType(Symbol symbol, Set<Rule> rules) {
         rules = adaptRules(rules);
         var builder = TypeSpec.interfaceBuilder(makeInterfaceName(symbol))
@@ -126,7 +132,7 @@ public class ApiGenerator {
                 .map(rule -> rule.reads() == empty && rule.pushes().isEmpty()
                         ? new Rule(END_SYMBOL, rule.pops(), rule.pushes())
                         : rule)
-                .collect(Collectors.toSet());
+                .collect(Collectors.toCollection(LinkedHashSet::new));
     }
 
     private TypeName makeParameterisedType(final List<Symbol> symbols) {
@@ -27,7 +27,26 @@ import static javax.lang.model.element.Modifier.*;
  */
 public class ApiImplGenerator {
 
+    /**
+     * Strategy of the generated implementation.
+     */
+    public enum Backend {
+        /**
+         * Each fluent interface implementation is immutable and holds a continuation as a lambda.
+         * Intermediate results of a sentence can be reused.
+         */
+        CONTINUATIONS,
+        /**
+         * All fluent interface implementations of a sentence share a single {@link OperandStack}.
+         * A sentence allocates a constant number of objects besides AST nodes and boxed parameters,
+         * but its intermediate results can be used only once.
+         */
+        OPERAND_STACK
+    }
+
     private final Namer namer;
+    private final Backend backend;
+    private final Optional<Variable> start;
     private final Map<ClassName, TypeSpec> astNodes;
     private final Map<ClassName, TypeSpec> fluentInterfacesMap;
     // one-to-one even for selection rules, for which the common AST node type is used
@@ -40,8 +59,25 @@ public class ApiImplGenerator {
             Map<TypeSpec, TypeSpec> fluentInterfaceToAstNodeMap,
             Map<TypeSpec, InterfaceDescription> interfaceDescriptionMap,
             Map<ClassName, TypeSpec> astNodes)
+    {
+        this(namer, Backend.CONTINUATIONS, Optional.empty(), fluentInterfaces, fluentInterfaceToAstNodeMap, interfaceDescriptionMap, astNodes);
+    }
+
+    /**
+     * @param start  the start variable, required only by {@link Backend#OPERAND_STACK}
+     */
+    public ApiImplGenerator(
+            Namer namer,
+            Backend backend,
+            Optional<Variable> start,
+            Collection<TypeSpec> fluentInterfaces,
+            Map<TypeSpec, TypeSpec> fluentInterfaceToAstNodeMap,
+            Map<TypeSpec, InterfaceDescription> interfaceDescriptionMap,
+            Map<ClassName, TypeSpec> astNodes)
     {
         this.namer = namer;
+        this.backend = backend;
+        this.start = start;
         this.astNodes = astNodes;
         this.fluentInterfacesMap = fluentInterfaces.stream()
                 .collect(toMap(ty -> namer.fluentInterfaceClassName(ty.name), Function.identity()));
@@ -53,24 +89,34 @@ public class ApiImplGenerator {
         return generateJavaFile().toString();
     }
 
-    private Collection<TypeSpec> fluentInterfaces() {
+    Collection<TypeSpec> fluentInterfaces() {
         return fluentInterfacesMap.values();
     }
 
-    private TypeSpec requireAstNodeFor(TypeSpec fluentInterface) {
+    TypeSpec requireAstNodeFor(TypeSpec fluentInterface) {
         return requireKey(fluentInterfaceToAstNodeMap, fluentInterface,
                           k -> "Missing AST node type for fluent interface %s".formatted(fluentInterface.name));
     }
 
-    private TypeSpec requireAstNode(ClassName typeName) {
+    TypeSpec requireAstNode(ClassName typeName) {
         return requireKey(astNodes, typeName, $ -> "No such AST node: %s".formatted(typeName));
     }
 
+    /**
+     * Returns an expression that constructs an AST node, either by its static factory (see hash-consing in {@link AstGenerator}),
+     * or by its constructor.
+     */
+    CodeBlock newAstNode(ClassName astNodeName, CodeBlock args) {
+        return requireAstNode(astNodeName).methodSpecs.stream().anyMatch(m -> m.name.equals(AstGenerator.FACTORY))
+                ? CodeBlock.of("$T.$L($L)", astNodeName, AstGenerator.FACTORY, args)
+                : CodeBlock.of("new $T($L)", astNodeName, args);
+    }
+
     private Optional<TypeSpec> astNodeFor(TypeSpec inter) {
         return Optional.ofNullable(fluentInterfaceToAstNodeMap.get(inter));
     }
 
-    private InterfaceDescription interfaceDescription(TypeSpec inter) {
+    InterfaceDescription interfaceDescription(TypeSpec inter) {
         return requireKey(interfaceDescriptionMap, inter,
                           k -> "Missing interface description for fluent interface %s".formatted(inter.name));
     }
@@ -84,7 +130,7 @@ public class ApiImplGenerator {
                 .orElseThrow(() -> new IllegalStateException("No interface description for %s".formatted(interName)));
     }
 
-    private TypeSpec interfaceForVariable(Variable variable) {
+    TypeSpec interfaceForVariable(Variable variable) {
         // TODO bi-directional map
         return interfaceDescriptionMap.entrySet()
                 .stream()
@@ -99,12 +145,21 @@ public class ApiImplGenerator {
     }
 
     public JavaFile generateJavaFile() {
+        return switch (backend) {
+            case CONTINUATIONS -> generateContinuationsJavaFile();
+            case OPERAND_STACK -> new OperandStackImplGenerator(this, namer, start.orElseThrow(
+                    () -> new IllegalStateException("Backend %s requires the start variable.".formatted(backend))))
+                    .generateJavaFile();
+        };
+    }
+
+    private JavaFile generateContinuationsJavaFile() {
         var topLevelTypeBuilder = interfaceBuilder(namer.enclosingApiImplTypeClassName());
 
         var implementations = fluentInterfaces().stream()
                 .map(this::genImpl)
                 .map(impl -> impl.toBuilder().addModifiers(PUBLIC, STATIC).build())
-                .collect(toSet());
+                .toList();
 
         topLevelTypeBuilder.addTypes(implementations);
 
@@ -156,11 +211,25 @@ public class ApiImplGenerator {
             case Selection selection -> {
                 // Implement methods of all options via delegation.
                 // This relies on the correct order of fields declared in this implementation type: continuation followed by zero or more parameters.
-                final List<String> argumentsToDelegateCtors = builder.fieldSpecs.stream().map(f -> f.name).toList();
+                final List<String> fieldNames = fields.stream().map(f -> f.name).toList();
+                final var listShape = listShape(inter);
                 inter.superinterfaces.stream()
                         .map(this::getFluentInterface)
-                        .flatMap(superInter -> allApiMethods(superInter).map(m -> buildDelegatingMethod(m, argumentsToDelegateCtors, implClassName(superInter))))
+                        .flatMap(superInter -> allApiMethods(superInter).map(
+                                m -> listShape.map(shape -> buildListMethod(m, inter, shape, superInter))
+                                        .orElseGet(() -> buildDelegatingMethod(m, fieldNames, superInter))))
                         .forEach(builder::addMethod);
+                listShape.ifPresent(shape -> {
+                    builder.addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(Snoc.class), astNodeClassName(shape.element())),
+                                                       LIST_BUFFER, PRIVATE, FINAL)
+                                             .build());
+                    builder.addMethod(buildCloseListMethod(inter, shape));
+                    // Other parsers instantiate this implementation with an empty list.
+                    builder.addMethod(MethodSpec.constructorBuilder()
+                                              .addParameter(builder.fieldSpecs.getFirst().type, "k", FINAL)
+                                              .addStatement("this(k, null)")
+                                              .build());
+                });
             }
             case Derivation derivation when !(interDesc.parserInfo() instanceof Bridge) -> {
                 switch (derivation.rhs().getFirst()) {
@@ -249,7 +318,7 @@ public class ApiImplGenerator {
         return builder.build();
     }
 
-    private List<FieldSpec> fieldsForParameters(InterfaceDescription interDesc) {
+    List<FieldSpec> fieldsForParameters(InterfaceDescription interDesc) {
         final List<FieldSpec> fields = switch (interDesc.parserInfo()) {
             case ParserInfo.PartialD d -> {
                 // Declare fields for all parameters that should be supplied.
@@ -270,6 +339,108 @@ public class ApiImplGenerator {
         return fields;
     }
 
+    private static final String LIST_BUFFER = "buffer";
+    private static final String CLOSE_LIST = "close";
+
+    /**
+     * Describes a selection that is a right-recursive list: {@code L ::= Cons | ...}, where {@code Cons ::= E L}.
+     * <p>
+     * The implementation of such a selection accumulates parsed elements in a {@link Snoc} and builds all cons nodes at once,
+     * when another option of the selection is parsed.
+     * In contrast, delegation to {@code Cons} would build a continuation for each element, and the chain of continuations
+     * would be unwound recursively.
+     *
+     * @param cons  the option that parses an element followed by the list
+     * @param element  parser of an element
+     * @param flat  whether the list is a single AST node (see {@link AstGenerator.ListNodes#FLAT}), which is produced by
+     *              all options of the selection
+     */
+    record ListShape (TypeSpec cons, TypeSpec element, boolean flat) {}
+
+    Optional<ListShape> listShape(TypeSpec inter) {
+        final var interDesc = interfaceDescription(inter);
+        if (!(interDesc.parserInfo() instanceof ParserInfo.Full full) || full.implicitVar().isPresent()) {
+            return Optional.empty();
+        }
+        final var options = inter.superinterfaces.stream().map(this::getFluentInterface).toList();
+        final var shapes = options.stream()
+                .flatMap(option -> {
+                    final var optionDesc = interfaceDescription(option);
+                    return optionDesc.parserInfo() instanceof ParserInfo.Full optionInfo
+                           && optionInfo.implicitVar().isEmpty()
+                           && optionDesc.rule() instanceof Derivation derivation
+                           && derivation.rhs().size() == 2
+                           && derivation.rhs().getFirst() instanceof Variable element
+                           && interfaceDescription(interfaceForVariable(element)).parserInfo() instanceof ParserInfo.Full
+                           && derivation.rhs().getLast().equals(interDesc.rule().lhs())
+                            ? Stream.of(new ListShape(option, interfaceForVariable(element), requireAstNodeFor(option).equals(requireAstNodeFor(inter))))
+                            : Stream.empty();
+                })
+                .toList();
+        return shapes.size() == 1 && options.size() > 1 ? Optional.of(shapes.getFirst()) : Optional.empty();
+    }
+
+    private MethodSpec buildListMethod(final MethodSpec apiMethod, final TypeSpec list, final ListShape shape, final TypeSpec option) {
+        final var builder = methodBuilder(apiMethod.name)
+                .addModifiers(PUBLIC)
+                .addParameters(apiMethod.parameters)
+                .returns(apiMethod.returnType);
+        final var args = apiMethod.parameters.stream().map(p -> p.name).collect(joining(", "));
+        if (option.equals(shape.cons())) {
+            // Parse an element, then continue with the same list extended by the element.
+            return builder.addStatement("return new $T<$T>(x0 -> new $T<>(k, new $T<>($L, x0))).$L($L)",
+                                        implClassName(shape.element()),
+                                        ParameterizedTypeName.get(namer.fluentInterfaceClassName(list.name), TypeVariableName.get("K")),
+                                        implClassName(list),
+                                        Snoc.class,
+                                        LIST_BUFFER,
+                                        apiMethod.name,
+                                        args)
+                    .build();
+        }
+        else {
+            // The end of the list: the continuation of the option is the closing of the list.
+            return builder.addStatement("final $T k = $L == null ? this.k : this::$L",
+                                        ParameterizedTypeName.get(ClassName.get(Function.class),
+                                                                  WildcardTypeName.supertypeOf(astNodeClassName(list)),
+                                                                  TypeVariableName.get("K")),
+                                        LIST_BUFFER,
+                                        CLOSE_LIST)
+                    .addStatement("return $L", delegationCode(apiMethod, List.of(), option))
+                    .build();
+        }
+    }
+
+    private MethodSpec buildCloseListMethod(final TypeSpec list, final ListShape shape) {
+        final var listNode = astNodeClassName(list);
+        final var builder = methodBuilder(CLOSE_LIST)
+                .addModifiers(PRIVATE)
+                .addParameter(listNode, "node")
+                .returns(TypeVariableName.get("K"));
+        if (shape.flat()) {
+            // The node produced by the other option is the rest of the list.
+            return builder.addStatement("final var elements = new $T<$T>()", ArrayList.class, astNodeClassName(shape.element()))
+                    .beginControlFlow("for (var cell = $L; cell != null; cell = cell.init())", LIST_BUFFER)
+                    .addStatement("elements.add(cell.last())")
+                    .endControlFlow()
+                    .addStatement("return k.apply($L)",
+                                  newAstNode(listNode, CodeBlock.of("$T.concat(elements.reversed().stream(), node.$L.stream()).toList()",
+                                                                    Stream.class, AstGenerator.LIST_ELEMENTS)))
+                    .build();
+        }
+        return builder
+                .addStatement("$T result = node", listNode)
+                .beginControlFlow("for (var cell = $L; cell != null; cell = cell.init())", LIST_BUFFER)
+                .addStatement("result = $L", newAstNode(astNodeClassName(shape.cons()), CodeBlock.of("cell.last(), result")))
+                .endControlFlow()
+                .addStatement("return k.apply(result)")
+                .build();
+    }
+
+    private ClassName astNodeClassName(TypeSpec inter) {
+        return namer.astNodeClassName(requireAstNodeFor(inter).name);
+    }
+
     private List<ParameterSpec> buildParameters(List<Parameter> parameters) {
         return parameters.stream()
                 .map(p -> ParameterSpec.builder(p.type(), p.name().toString()).build())
@@ -321,12 +492,20 @@ public class ApiImplGenerator {
      * @param localVars  local variables introduced in the parsing expression so far
      */
     private CodeBlock parserCode(InterfaceDescription interDesc, ClassName astNodeName, List<Symbol> rhs, List<String> parameters, List<String> localVars) {
+        return parserCode(interDesc, fieldsForParameters(interDesc).stream().map(fs -> fs.name).toList(), astNodeName, rhs, parameters, localVars);
+    }
+
+    /**
+     * @param fieldNames  names of variables that hold values of fields of the implementation
+     */
+    private CodeBlock parserCode(InterfaceDescription interDesc, List<String> fieldNames, ClassName astNodeName, List<Symbol> rhs,
+                                 List<String> parameters, List<String> localVars)
+    {
         var nextInterNames = rhs.stream()
                 .map(s -> (Variable) s).map(this::interfaceForVariable)
                 .map(inter -> namer.fluentInterfaceClassName(inter.name))
                 .toList();
-        var allParameters = concatList(fieldsForParameters(interDesc).stream().map(fs -> fs.name).toList(),
-                                       parameters);
+        var allParameters = concatList(fieldNames, parameters);
         return interDesc.parserInfo().implicitVar().map(implicitVar -> {
                     // Local variable for the implicitly parsed node needs to be prepended to the list of all local variables
                     // because the parsing order may be slightly reversed if this expression is inside super().
@@ -379,8 +558,7 @@ public class ApiImplGenerator {
     {
         // Encountered K
         if (nextInterNames.isEmpty()) {
-            return CodeBlock.of("k.apply(new $T(%s))".formatted(String.join(", ", concatList(parameters, localVars))),
-                                astNodeName);
+            return CodeBlock.of("k.apply($L)", newAstNode(astNodeName, CodeBlock.of(String.join(", ", concatList(parameters, localVars)))));
         }
         // Encountered partial parser
         // NOTE What about PartialD?
@@ -440,20 +618,62 @@ public class ApiImplGenerator {
                 : ParameterizedTypeName.get((ClassName) typeNames.getFirst(), parameterisedFold(subList(typeNames, 1)));
     }
 
-    private MethodSpec buildDelegatingMethod(final MethodSpec apiMethod, final List<String> argumentsToDelegateCtor, final ClassName delegateClassName) {
+    private MethodSpec buildDelegatingMethod(final MethodSpec apiMethod, final List<String> fieldNames, final TypeSpec delegate) {
         return methodBuilder(apiMethod.name)
                 .addModifiers(PUBLIC)
                 .addParameters(apiMethod.parameters)
-                .addStatement("return new $T<>($L).$L($L)",
-                              delegateClassName,
-                              String.join(", ", argumentsToDelegateCtor),
-                              apiMethod.name,
-                              apiMethod.parameters.stream().map(p -> p.name).collect(joining(", ")))
+                .addStatement("return $L", delegationCode(apiMethod, fieldNames, delegate))
                 .returns(apiMethod.returnType)
                 .build();
     }
 
-    private TypeSpec getFluentInterface(TypeName typeName) {
+    /**
+     * Constructs an expression that is equivalent to instantiating the delegate with the continuation and the fields of
+     * a selection implementation, and calling the API method.
+     * <p>
+     * Instead of allocating the delegate, its method is inlined if the delegate is stateless apart from the continuation and
+     * the fields, i.e., if its rule starts with a terminal or a bridge.
+     * A selection delegate is inlined by delegating to its own option.
+     * Only a derivation that starts with a full parser needs to be instantiated, since the continuation is built by its constructor.
+     */
+    private CodeBlock delegationCode(final MethodSpec apiMethod, final List<String> fieldNames, final TypeSpec delegate) {
+        final var interDesc = interfaceDescription(delegate);
+        return switch (interDesc.rule()) {
+            case Selection selection -> {
+                final var option = delegate.superinterfaces.stream()
+                        .map(this::getFluentInterface)
+                        .filter(superInter -> allApiMethods(superInter).anyMatch(m -> m.name.equals(apiMethod.name)))
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalStateException("No option of %s declares method %s".formatted(delegate.name, apiMethod.name)));
+                yield delegationCode(apiMethod, fieldNames, option);
+            }
+            case Derivation derivation when !(interDesc.parserInfo() instanceof Bridge) && derivation.rhs().getFirst() instanceof Terminal ->
+                    parserCode(interDesc,
+                               fieldNames,
+                               namer.astNodeClassName(requireAstNodeFor(delegate).name),
+                               subList(derivation.rhs(), 1),
+                               apiMethod.parameters.stream().map(p -> p.name).toList(),
+                               List.of());
+            // The method of a bridge returns its continuation, which is the argument of super().
+            // Parameters of the method have the same names as the parameters of the lambda in super().
+            case Derivation derivation when !(interDesc.parserInfo() instanceof Bridge)
+                                            && derivation.rhs().getFirst() instanceof Variable v1
+                                            && interfaceDescription(interfaceForVariable(v1)).parserInfo() instanceof Bridge ->
+                    parserCode(interDesc,
+                               fieldNames,
+                               namer.astNodeClassName(requireAstNodeFor(delegate).name),
+                               subList(derivation.rhs(), 1),
+                               List.of(),
+                               apiMethod.parameters.stream().map(p -> p.name).toList());
+            default -> CodeBlock.of("new $T<>($L).$L($L)",
+                                    implClassName(delegate),
+                                    String.join(", ", prepend("k", fieldNames)),
+                                    apiMethod.name,
+                                    apiMethod.parameters.stream().map(p -> p.name).collect(joining(", ")));
+        };
+    }
+
+    TypeSpec getFluentInterface(TypeName typeName) {
         final var inter = switch (typeName) {
             case ClassName it -> fluentInterfacesMap.get(it);
             case ParameterizedTypeName it -> fluentInterfacesMap.get(it.rawType);
@@ -467,7 +687,7 @@ public class ApiImplGenerator {
      * Returns all API methods reachable from the specified interface.
      * All type variables in returned methods are substituted accordingly.
      */
-    private Stream<MethodSpec> allApiMethods(TypeSpec fluentInterface) {
+    Stream<MethodSpec> allApiMethods(TypeSpec fluentInterface) {
         // TODO distinguish API methods (e.g., by annotation)
         return Stream.concat(Stream.of(T2.<TypeSpec, Map<String, TypeName>>t2(fluentInterface, Map.of())),
                              subsSuperInterfaces(fluentInterface, Map.of()))
@@ -498,7 +718,7 @@ public class ApiImplGenerator {
         return implClassName(interfaceName.simpleName());
     }
 
-    private ClassName implClassName(TypeSpec interfaceType) {
+    ClassName implClassName(TypeSpec interfaceType) {
         return implClassName(interfaceType.name);
     }
 
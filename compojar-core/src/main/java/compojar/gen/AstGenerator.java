@@ -1,13 +1,16 @@
 package compojar.gen;
 
-import com.squareup.javapoet.ClassName;
-import com.squareup.javapoet.FieldSpec;
-import com.squareup.javapoet.JavaFile;
-import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.*;
 import compojar.bnf.*;
+import compojar.util.InternTable;
 import compojar.util.JavaPoet;
 import compojar.util.T2;
 
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -15,18 +18,101 @@ import static compojar.util.JavaPoet.interfaceBuilder;
 import static compojar.util.T2.t2;
 import static compojar.util.Util.decapitalise;
 import static compojar.util.Util.enumeratedStream;
+import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toMap;
 import static javax.lang.model.element.Modifier.*;
 
 // TODO: inline intermediate nodes
 public class AstGenerator {
 
+    /**
+     * Shape of AST nodes for right-recursive list rules: {@code L ::= Cons | Nil}, where {@code Cons ::= E L}, and {@code Nil}
+     * consists of terminals without parameters.
+     */
+    public enum ListNodes {
+        /**
+         * Each rule has its own node, i.e., a list is a chain of {@code Cons} nodes that ends with a {@code Nil} node.
+         */
+        LINKED,
+        /**
+         * A list is a single node {@code L} that holds an immutable {@link List} of elements.
+         * Rules {@code Cons} and {@code Nil} have no nodes of their own, and their parsers produce {@code L}.
+         */
+        FLAT
+    }
+
+    /**
+     * A list rule that is represented by a single AST node.
+     */
+    record FlatList (Variable list, Variable cons, Variable nil, Variable element) {}
+
+    static final String LIST_ELEMENTS = "elements";
+    /** Name of the static factory of a hash-consed node. */
+    static final String FACTORY = "of";
+    static final String INTERN_TABLE = "INTERN_TABLE";
+    static final String VISITOR = "Visitor";
+
     private final Namer namer;
     private final BNF bnf;
+    private final Map<Variable, FlatList> flatLists;
+    private final boolean hashConsing;
 
     public AstGenerator(final Namer namer, final BNF bnf) {
+        this(namer, bnf, ListNodes.LINKED);
+    }
+
+    public AstGenerator(final Namer namer, final BNF bnf, final ListNodes listNodes) {
+        this(namer, bnf, listNodes, false);
+    }
+
+    /**
+     * @param hashConsing  whether equal nodes should be shared.
+     *                     Nodes are then constructed by static factories, which look up a canonical instance in an
+     *                     {@link InternTable} of the language, and nodes without fields are singletons.
+     */
+    public AstGenerator(final Namer namer, final BNF bnf, final ListNodes listNodes, final boolean hashConsing) {
         this.namer = namer;
         this.bnf = bnf;
+        this.hashConsing = hashConsing;
+        this.flatLists = flatLists(bnf, listNodes);
+    }
+
+    /**
+     * Returns list rules that are represented by a single AST node, keyed by variables of the list, its {@code Cons} and {@code Nil}.
+     */
+    static Map<Variable, FlatList> flatLists(final BNF bnf, final ListNodes listNodes) {
+        return switch (listNodes) {
+            case LINKED -> Map.of();
+            case FLAT -> bnf.rules().stream()
+                    .flatMap(rule -> rule instanceof Selection selection ? flatList(bnf, selection).stream() : Stream.empty())
+                    .flatMap(flatList -> Stream.of(flatList.list(), flatList.cons(), flatList.nil()).map(v -> t2(v, flatList)))
+                    .collect(toMap(T2::fst, T2::snd));
+        };
+    }
+
+    private static Optional<FlatList> flatList(BNF bnf, Selection selection) {
+        if (selection.rhs().size() != 2) {
+            return Optional.empty();
+        }
+        final var list = selection.lhs();
+        return Stream.of(t2(selection.rhs().getFirst(), selection.rhs().getLast()), t2(selection.rhs().getLast(), selection.rhs().getFirst()))
+                .flatMap(pair -> pair.map((cons, nil) -> {
+                    final boolean isList = bnf.ruleFor(cons).orElse(null) instanceof Derivation consRule
+                                           && consRule.rhs().size() == 2
+                                           && consRule.rhs().getFirst() instanceof Variable element
+                                           && !element.equals(list)
+                                           && consRule.rhs().getLast().equals(list)
+                                           && bnf.ruleFor(nil).orElse(null) instanceof Derivation nilRule
+                                           && !nilRule.rhs().isEmpty()
+                                           && nilRule.rhs().stream().allMatch(s -> s instanceof Terminal t && !t.hasParameters())
+                                           // Cons and Nil must not be referenced outside of the list.
+                                           && bnf.rulesUsing(cons).count() == 1
+                                           && bnf.rulesUsing(nil).count() == 1;
+                    return isList
+                            ? Stream.of(new FlatList(list, cons, nil, (Variable) ((Derivation) bnf.requireRuleFor(cons)).rhs().getFirst()))
+                            : Stream.<FlatList>empty();
+                }))
+                .findFirst();
     }
 
     public String generateCode() {
@@ -35,11 +121,14 @@ public class AstGenerator {
 
     public T2<JavaFile, AstMetadata> generate() {
         final var astNodeTypeName = namer.enclosingAstTypeClassName();
-        var astNodeTypeBuilder = interfaceBuilder(astNodeTypeName);
+        var astNodeTypeBuilder = interfaceBuilder(astNodeTypeName).addModifiers(SEALED);
 
         var astMetadata = bnf.rules().stream()
+                // Cons and Nil of a flat list have no nodes of their own.
+                .filter(rule -> !flatLists.containsKey(rule.lhs()) || flatLists.get(rule.lhs()).list().equals(rule.lhs()))
                 .map(rule -> buildNode(rule, bnf, AstMetadata.empty()))
                 .map(pair -> pair.map1(b -> b.addSuperinterface(astNodeTypeName).addModifiers(PUBLIC, STATIC).build()))
+                .map(pair -> pair.map1(node -> hashConsing && node.kind == TypeSpec.Kind.CLASS ? hashConsed(node) : node))
                 .peek(pair -> astNodeTypeBuilder.addType(pair.fst()))
                 .map(T2::snd)
                 .reduce(AstMetadata.empty(), AstMetadata::merge);
@@ -48,10 +137,146 @@ public class AstGenerator {
                 astMetadata.astNodeMetadatas().stream()
                         .collect(toMap(AstNodeMetadata::variable,
                                        astNodeMetadata -> new ParserInfo.Full(astNodeMetadata.astNodeClassName()))));
+        astMetadata = astMetadata.addParserInfos(
+                flatLists.entrySet().stream()
+                        .filter(entry -> !entry.getKey().equals(entry.getValue().list()))
+                        .collect(toMap(Map.Entry::getKey, entry -> new ParserInfo.Full(classNameForNode(entry.getValue().list().name())))));
+
+        astNodeTypeBuilder.addType(buildVisitor(astNodeTypeBuilder.typeSpecs));
+
+        if (hashConsing) {
+            astNodeTypeBuilder.addField(FieldSpec.builder(InternTable.class, INTERN_TABLE, PUBLIC, STATIC, FINAL)
+                                                .initializer("new $T()", InternTable.class)
+                                                .build());
+        }
 
         return t2(JavaFile.builder(namer.pkgName(), astNodeTypeBuilder.build()).build(), astMetadata);
     }
 
+    /**
+     * Builds a visitor with a method for each node class, and a method that dispatches on the type of a node.
+     * Since the hierarchy of nodes is sealed, the dispatch is an exhaustive pattern-matching switch.
+     */
+    private TypeSpec buildVisitor(final List<TypeSpec> nodes) {
+        final var visitorClassName = namer.astNodeClassName(VISITOR);
+        nodes.stream().filter(node -> node.name.equals(VISITOR)).findAny().ifPresent(node -> {
+            throw new IllegalArgumentException("AST node name %s is reserved.".formatted(VISITOR));
+        });
+
+        final var classes = nodes.stream()
+                .filter(node -> node.kind == TypeSpec.Kind.CLASS)
+                .map(node -> classNameForNode(node.name))
+                .sorted(Comparator.comparing(ClassName::simpleName))
+                .toList();
+        final var resultType = TypeVariableName.get("R");
+        final var dispatch = CodeBlock.builder().beginControlFlow("return switch (node)");
+        classes.forEach(node -> dispatch.addStatement("case $T n -> $L(n)", node, visitMethodName(node)));
+        dispatch.unindent().addStatement("}");
+
+        return TypeSpec.interfaceBuilder(visitorClassName)
+                .addModifiers(PUBLIC, STATIC)
+                .addTypeVariable(resultType)
+                .addMethod(MethodSpec.methodBuilder("visit")
+                                   .addModifiers(PUBLIC, DEFAULT)
+                                   .addParameter(namer.enclosingAstTypeClassName(), "node", FINAL)
+                                   .returns(resultType)
+                                   .addCode(dispatch.build())
+                                   .build())
+                .addMethods(classes.stream()
+                                    .map(node -> MethodSpec.methodBuilder(visitMethodName(node))
+                                            .addModifiers(PUBLIC, ABSTRACT)
+                                            .addParameter(node, "node")
+                                            .returns(resultType)
+                                            .build())
+                                    .toList())
+                .build();
+    }
+
+    private static String visitMethodName(final ClassName node) {
+        return "visit" + node.simpleName();
+    }
+
+    /**
+     * Makes constructors of the node private and replaces them with static factories.
+     * A node without fields becomes a singleton.
+     * Otherwise, factories intern constructed nodes, which implement structural equality with a cached hash code.
+     * Since nodes are built bottom-up, their children are already canonical, and are usually compared by reference.
+     */
+    private TypeSpec hashConsed(final TypeSpec node) {
+        final var nodeClassName = classNameForNode(node.name);
+        final var fields = node.fieldSpecs.stream().filter(f -> !f.hasModifier(STATIC)).toList();
+        final var builder = node.toBuilder();
+        builder.methodSpecs.clear();
+        node.methodSpecs.forEach(method -> {
+            if (!method.isConstructor()) {
+                builder.addMethod(method);
+                return;
+            }
+            final var args = method.parameters.stream().map(p -> p.name).collect(joining(", "));
+            final var ctor = method.toBuilder();
+            ctor.modifiers.remove(PUBLIC);
+            ctor.addModifiers(PRIVATE);
+            // The constructor that assigns fields also computes the hash code.
+            if (!fields.isEmpty() && method.parameters.stream().map(p -> p.name).toList().equals(fields.stream().map(f -> f.name).toList())) {
+                ctor.addStatement("this.hash = $L", fields.stream()
+                        .map(AstGenerator::hashOf)
+                        .reduce((h, f) -> CodeBlock.of("31 * ($L) + $L", h, f))
+                        .orElseThrow());
+            }
+            builder.addMethod(ctor.build());
+            builder.addMethod(MethodSpec.methodBuilder(FACTORY)
+                                      .addJavadoc(method.javadoc)
+                                      .addModifiers(PUBLIC, STATIC)
+                                      .addParameters(method.parameters)
+                                      .returns(nodeClassName)
+                                      .addStatement(fields.isEmpty()
+                                                            ? CodeBlock.of("return INSTANCE")
+                                                            : CodeBlock.of("return $L.intern(new $T($L))", INTERN_TABLE, nodeClassName, args))
+                                      .build());
+        });
+
+        if (fields.isEmpty()) {
+            return builder.addField(FieldSpec.builder(nodeClassName, "INSTANCE", PRIVATE, STATIC, FINAL)
+                                            .initializer("new $T()", nodeClassName)
+                                            .build())
+                    .build();
+        }
+
+        final var equalities = fields.stream()
+                .map(f -> f.type.equals(TypeName.DOUBLE) || f.type.equals(TypeName.FLOAT)
+                        // Consistent with the hash code, unlike ==, for -0.0 and NaN.
+                        ? CodeBlock.of("$T.compare($L, that.$L) == 0", f.type.box(), f.name, f.name)
+                        : f.type.isPrimitive()
+                        ? CodeBlock.of("$L == that.$L", f.name, f.name)
+                        : CodeBlock.of("$T.equals($L, that.$L)", Objects.class, f.name, f.name))
+                .collect(CodeBlock.joining(" && "));
+        return builder
+                .addField(FieldSpec.builder(int.class, "hash", PRIVATE, FINAL).build())
+                .addMethod(MethodSpec.methodBuilder("equals")
+                                   .addAnnotation(Override.class)
+                                   .addModifiers(PUBLIC)
+                                   .addParameter(Object.class, "obj")
+                                   .returns(boolean.class)
+                                   .addStatement("return this == obj || obj instanceof $T that && hash == that.hash && $L", nodeClassName, equalities)
+                                   .build())
+                .addMethod(MethodSpec.methodBuilder("hashCode")
+                                   .addAnnotation(Override.class)
+                                   .addModifiers(PUBLIC)
+                                   .returns(int.class)
+                                   .addStatement("return hash")
+                                   .build())
+                .build();
+    }
+
+    /**
+     * Hash code of a field without boxing, e.g., {@code Integer.hashCode(this.n)}.
+     */
+    private static CodeBlock hashOf(final FieldSpec field) {
+        return field.type.isPrimitive()
+                ? CodeBlock.of("$T.hashCode(this.$L)", field.type.box(), field.name)
+                : CodeBlock.of("$T.hashCode(this.$L)", Objects.class, field.name);
+    }
+
     @Deprecated
     public JavaFile generateJavaFile() {
         return generate().fst();
@@ -59,6 +284,8 @@ public class AstGenerator {
 
     private T2<TypeSpec.Builder, AstMetadata> buildNode(Rule rule, BNF bnf, AstMetadata astMetadata) {
         return switch (rule) {
+            case Selection selection when flatLists.containsKey(selection.lhs()) ->
+                    buildNodeForFlatList(flatLists.get(selection.lhs())).map2(astMetadata::addNodeMetadata);
             case Derivation derivation -> buildNodeForDerivation(derivation).map2(astMetadata::addNodeMetadata);
             case Selection selection -> buildNodeForSelection(astMetadata, selection);
         };
@@ -70,6 +297,7 @@ public class AstGenerator {
     {
         final var interfaceTypeName = classNameForNode(selection.lhs().name());
         return t2(interfaceBuilder(interfaceTypeName)
+                          .addModifiers(SEALED)
                           .addSuperinterfaces(selectorsFor(selection.lhs()).map(this::classNameForNode).toList()),
                   astMetadata.addNodeMetadata(new AstNodeMetadata(interfaceTypeName, selection.lhs())));
     }
@@ -90,15 +318,51 @@ public class AstGenerator {
                                          })
                                 .flatMap(Function.identity())
                                 .toList())
+                .addModifiers(FINAL)
                 .addSuperinterfaces(selectorsFor(derivation.lhs())
                                             .map(this::classNameForNode)
                                             .toList());
         return t2(builder, new AstNodeMetadata(nodeClassName, derivation.lhs()));
     }
 
+    /**
+     * Builds a node with a single field that holds an immutable list of elements.
+     * Besides the canonical constructor, the node declares constructors used by parsers of {@code Nil} and {@code Cons}.
+     */
+    private T2<TypeSpec.Builder, AstNodeMetadata> buildNodeForFlatList(final FlatList flatList) {
+        final var nodeClassName = classNameForNode(flatList.list().name());
+        final var elementClassName = classNameForNode(flatList.element());
+        final var builder = TypeSpec.classBuilder(nodeClassName)
+                .addModifiers(FINAL)
+                .addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(List.class), elementClassName),
+                                            LIST_ELEMENTS, PUBLIC, FINAL)
+                                  .build())
+                .addMethod(MethodSpec.constructorBuilder()
+                                   .addModifiers(PUBLIC)
+                                   .addParameter(ParameterizedTypeName.get(ClassName.get(List.class), WildcardTypeName.subtypeOf(elementClassName)),
+                                                 LIST_ELEMENTS, FINAL)
+                                   .addStatement("this.$L = $T.copyOf($L)", LIST_ELEMENTS, List.class, LIST_ELEMENTS)
+                                   .build())
+                .addMethod(MethodSpec.constructorBuilder()
+                                   .addModifiers(PUBLIC)
+                                   .addStatement("this($T.of())", List.class)
+                                   .build())
+                .addMethod(MethodSpec.constructorBuilder()
+                                   .addJavadoc("Prepends an element to a list, which takes time linear in the length of the list.\n")
+                                   .addModifiers(PUBLIC)
+                                   .addParameter(elementClassName, "head", FINAL)
+                                   .addParameter(nodeClassName, "tail", FINAL)
+                                   .addStatement("this($T.concat($T.of(head), tail.$L.stream()).toList())", Stream.class, Stream.class, LIST_ELEMENTS)
+                                   .build())
+                .addSuperinterfaces(selectorsFor(flatList.list())
+                                            .map(this::classNameForNode)
+                                            .toList());
+        return t2(builder, new AstNodeMetadata(nodeClassName, flatList.list()));
+    }
+
     private Stream<Variable> selectorsFor(Variable var) {
-        return bnf.rules().stream()
-                .filter(rule -> rule instanceof Selection s && s.rhs().contains(var))
+        return bnf.rulesUsing(var)
+                .filter(rule -> rule instanceof Selection)
                 .map(Rule::lhs);
     }
 
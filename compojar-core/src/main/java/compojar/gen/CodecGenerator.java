@@ -0,0 +1,272 @@
+package compojar.gen;
+
+import com.squareup.javapoet.*;
+import compojar.bnf.*;
+import compojar.util.BinaryFormat;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static com.squareup.javapoet.MethodSpec.methodBuilder;
+import static compojar.gen.NodeTraversal.NODE;
+import static compojar.gen.NodeTraversal.NODES;
+import static compojar.gen.NodeTraversal.SIZE;
+import static compojar.gen.NodeTraversal.children;
+import static compojar.util.Util.enumeratedStream;
+import static javax.lang.model.element.Modifier.*;
+
+/**
+ * Generates a codec, which writes ASTs to byte buffers in a compact binary format (see {@link BinaryFormat}), and reads them back.
+ * <p>
+ * Each node is identified by a tag, which is the index of its class among all node classes, sorted by name.
+ * A node is written as its tag, followed by its children, and then by values of its parameters, in the order of the grammar.
+ * The children of a flat list node are preceded by their number.
+ * Since parameters follow the children, a node is constructed as soon as its parameters are read, without boxing them.
+ * <p>
+ * Both directions are iterative (writing is based on {@link NodeTraversal}), so deep ASTs, such as long linked lists,
+ * can't overflow the call stack.
+ */
+public class CodecGenerator {
+
+    private static final String BUFFER = "buffer";
+    private static final String FRAMES = "frames";
+    private static final String FRAME_COUNT = "frameCount";
+
+    /**
+     * A node class and the rule, from which the node is parsed.
+     */
+    private record Node (ClassName className, Rule rule, int tag) {}
+
+    private final Namer namer;
+    private final BNF bnf;
+    private final Map<Variable, AstGenerator.FlatList> flatLists;
+    private final boolean hashConsing;
+    private final List<Node> nodes;
+
+    public CodecGenerator(final Namer namer, final BNF bnf, final AstGenerator.ListNodes listNodes, final boolean hashConsing) {
+        this.namer = namer;
+        this.bnf = bnf;
+        this.flatLists = AstGenerator.flatLists(bnf, listNodes);
+        this.hashConsing = hashConsing;
+        final var rules = bnf.rules().stream()
+                .filter(rule -> switch (rule) {
+                    // Cons and Nil of a flat list have no nodes of their own.
+                    case Derivation derivation -> !flatLists.containsKey(derivation.lhs());
+                    case Selection selection -> flatLists.containsKey(selection.lhs());
+                })
+                .sorted(Comparator.comparing(rule -> rule.lhs().name().toString()))
+                .toList();
+        this.nodes = enumeratedStream(rules.stream(), (rule, i) -> new Node(namer.astNodeClassName(rule.lhs().name()), rule, i)).toList();
+    }
+
+    public JavaFile generate() {
+        final var rootType = namer.enclosingAstTypeClassName();
+        final var codecType = namer.enclosingCodecTypeClassName();
+
+        final var type = TypeSpec.classBuilder(codecType)
+                .addModifiers(PUBLIC, FINAL)
+                .addField(ByteBuffer.class, BUFFER, PRIVATE, FINAL)
+                .addFields(NodeTraversal.fields(rootType))
+                .addField(FieldSpec.builder(int[].class, FRAMES, PRIVATE)
+                                  .addJavadoc("Nodes being read: triples of a tag, and the start and the end of the node's children in $L.\n", NODES)
+                                  .initializer("new int[48]")
+                                  .build())
+                .addField(int.class, FRAME_COUNT, PRIVATE)
+                .addMethod(MethodSpec.constructorBuilder()
+                                   .addModifiers(PRIVATE)
+                                   .addParameter(ByteBuffer.class, BUFFER, FINAL)
+                                   .addStatement("this.$L = $L", BUFFER, BUFFER)
+                                   .build())
+                .addMethod(methodBuilder("encode")
+                                   .addJavadoc("Writes the node to the buffer, and returns the buffer.\n")
+                                   .addModifiers(PUBLIC, STATIC)
+                                   .addParameter(rootType, "node", FINAL)
+                                   .addParameter(ByteBuffer.class, BUFFER, FINAL)
+                                   .returns(ByteBuffer.class)
+                                   .addStatement("new $T($L).write(node)", codecType, BUFFER)
+                                   .addStatement("return $L", BUFFER)
+                                   .build())
+                .addMethod(methodBuilder("decode")
+                                   .addJavadoc("Reads a node from the buffer, starting at its position.\n")
+                                   .addModifiers(PUBLIC, STATIC)
+                                   .addParameter(ByteBuffer.class, BUFFER, FINAL)
+                                   .returns(rootType)
+                                   .addStatement("return new $T($L).read()", codecType, BUFFER)
+                                   .build())
+                .addMethod(write())
+                .addMethod(read())
+                .addMethod(NodeTraversal.push(rootType))
+                .addMethod(open())
+                .build();
+
+        return JavaFile.builder(namer.pkgName(), type).skipJavaLangImports(true).build();
+    }
+
+    private MethodSpec write() {
+        final var rootType = namer.enclosingAstTypeClassName();
+        final var dispatch = CodeBlock.builder().beginControlFlow("switch (node)");
+        nodes.forEach(node -> dispatch.add(switch (node.rule()) {
+            case Derivation derivation -> writeDerivation(node, derivation);
+            case Selection selection -> writeFlatList(node, flatLists.get(selection.lhs()));
+        }));
+        dispatch.endControlFlow();
+
+        return NodeTraversal.write(rootType, dispatch.build());
+    }
+
+    /**
+     * Position {@code k} of a node corresponds to its {@code k}-th child, and the position after the last child to its parameters.
+     */
+    private CodeBlock writeDerivation(final Node node, final Derivation derivation) {
+        final var children = children(derivation.rhs());
+        final var segments = new ArrayList<CodeBlock>();
+        segments.add(writeTag(node));
+        children.forEach($ -> segments.add(CodeBlock.of("")));
+        segments.set(children.size(), segments.getLast().toBuilder().add(writeParameters(parameters(derivation))).build());
+        return NodeTraversal.nodeCase(node.className(), children, segments);
+    }
+
+    private CodeBlock writeFlatList(final Node node, final AstGenerator.FlatList flatList) {
+        return CodeBlock.builder()
+                .beginControlFlow("case $T $L ->", node.className(), NODE)
+                .beginControlFlow("if (position == 0)")
+                .add(writeTag(node))
+                .addStatement("$T.writeVarint($L, $L.$L.size())", BinaryFormat.class, BUFFER, NODE, AstGenerator.LIST_ELEMENTS)
+                .endControlFlow()
+                .beginControlFlow("if (position < $L.$L.size())", NODE, AstGenerator.LIST_ELEMENTS)
+                .beginControlFlow("if (position + 1 < $L.$L.size())", NODE, AstGenerator.LIST_ELEMENTS)
+                .addStatement("push($L, position + 1)", NODE)
+                .endControlFlow()
+                .addStatement("push($L.$L.get(position), 0)", NODE, AstGenerator.LIST_ELEMENTS)
+                .endControlFlow()
+                .endControlFlow()
+                .build();
+    }
+
+    private CodeBlock writeTag(final Node node) {
+        return CodeBlock.of("$T.writeVarint($L, $L);\n", BinaryFormat.class, BUFFER, node.tag());
+    }
+
+    private CodeBlock writeParameters(final List<Parameter> parameters) {
+        return parameters.stream()
+                .map(p -> CodeBlock.of("$T.write$L($L, $L.$L);\n", BinaryFormat.class, ParameterTypes.suffix(p, "encoded"), BUFFER, NODE, p.name()))
+                .collect(CodeBlock.joining(""));
+    }
+
+    /**
+     * A node without children is constructed as soon as its tag is read.
+     * Otherwise, a frame is opened, and the node is constructed once all of its children have been read.
+     */
+    private MethodSpec read() {
+        final var rootType = namer.enclosingAstTypeClassName();
+
+        final var start = CodeBlock.builder().add("$T node = switch (tag) {\n$>", rootType);
+        nodes.forEach(node -> {
+            switch (node.rule()) {
+                case Derivation derivation when children(derivation.rhs()).isEmpty() ->
+                        start.addStatement("case $L -> $L", node.tag(), newNode(node.className(), derivation));
+                case Derivation derivation -> start.add("case $L -> {\n$>", node.tag())
+                        .addStatement("open($L, $L)", node.tag(), children(derivation.rhs()).size())
+                        .addStatement("yield null")
+                        .add("$<}\n");
+                case Selection $ -> start.add("case $L -> {\n$>", node.tag())
+                        .addStatement("final int count = $T.readVarint($L)", BinaryFormat.class, BUFFER)
+                        .beginControlFlow("if (count == 0)")
+                        .addStatement("yield $L", newNode(node.className(), CodeBlock.of("")))
+                        .endControlFlow()
+                        .addStatement("open($L, count)", node.tag())
+                        .addStatement("yield null")
+                        .add("$<}\n");
+            }
+        });
+        start.addStatement("default -> throw new $T($S.formatted(tag, $L.position()))",
+                           IllegalArgumentException.class, "Unknown tag %s before position %s.", BUFFER)
+                .add("$<};\n");
+
+        final var end = CodeBlock.builder().add("node = switch ($L[top]) {\n$>", FRAMES);
+        nodes.forEach(node -> {
+            switch (node.rule()) {
+                case Derivation derivation when children(derivation.rhs()).isEmpty() -> {}
+                case Derivation derivation -> end.addStatement("case $L -> $L", node.tag(), newNode(node.className(), derivation));
+                case Selection selection -> end.addStatement(
+                        "case $L -> $L", node.tag(),
+                        newNode(node.className(),
+                                CodeBlock.of("($T) ($T<?>) $T.asList($L).subList(start, $L)",
+                                             ParameterizedTypeName.get(ClassName.get(List.class), namer.astNodeClassName(flatLists.get(selection.lhs()).element())),
+                                             List.class, Arrays.class, NODES, SIZE)));
+            }
+        });
+        end.addStatement("default -> throw new $T()", IllegalStateException.class)
+                .add("$<};\n");
+
+        return methodBuilder("read")
+                .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unchecked").build())
+                .addModifiers(PRIVATE)
+                .returns(rootType)
+                .beginControlFlow("while (true)")
+                .addStatement("final int tag = $T.readVarint($L)", BinaryFormat.class, BUFFER)
+                .addCode(start.build())
+                .beginControlFlow("while (node != null)")
+                .beginControlFlow("if ($L == 0)", FRAME_COUNT)
+                .addStatement("return node")
+                .endControlFlow()
+                .addStatement("push(node, 0)")
+                .addStatement("final int top = ($L - 1) * 3", FRAME_COUNT)
+                .beginControlFlow("if ($L < $L[top + 2])", SIZE, FRAMES)
+                .addStatement("break")
+                .endControlFlow()
+                .addStatement("$L--", FRAME_COUNT)
+                .addStatement("final int start = $L[top + 1]", FRAMES)
+                .addCode(end.build())
+                .addStatement("$T.fill($L, start, $L, null)", Arrays.class, NODES, SIZE)
+                .addStatement("$L = start", SIZE)
+                .endControlFlow()
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * Constructs a node from its parameters, which are read from the buffer, and its children, which are on the stack of nodes.
+     */
+    private CodeBlock newNode(final ClassName className, final Derivation derivation) {
+        final var args = new ArrayList<CodeBlock>();
+        int k = 0;
+        for (final var symbol : derivation.rhs()) {
+            switch (symbol) {
+                case Terminal terminal -> terminal.getParameters().forEach(
+                        p -> args.add(CodeBlock.of("$T.read$L($L)", BinaryFormat.class, ParameterTypes.suffix(p, "encoded"), BUFFER)));
+                case Variable variable -> args.add(CodeBlock.of("($T) $L[start + $L]", namer.astNodeClassName(variable.name()), NODES, k++));
+            }
+        }
+        return newNode(className, CodeBlock.join(args, ", "));
+    }
+
+    private CodeBlock newNode(final ClassName className, final CodeBlock args) {
+        return hashConsing
+                ? CodeBlock.of("$T.$L($L)", className, AstGenerator.FACTORY, args)
+                : CodeBlock.of("new $T($L)", className, args);
+    }
+
+    private MethodSpec open() {
+        return methodBuilder("open")
+                .addModifiers(PRIVATE)
+                .addParameter(int.class, "tag", FINAL)
+                .addParameter(int.class, "childCount", FINAL)
+                .beginControlFlow("if ($L * 3 == $L.length)", FRAME_COUNT, FRAMES)
+                .addStatement("$L = $T.copyOf($L, $L.length * 2)", FRAMES, Arrays.class, FRAMES, FRAMES)
+                .endControlFlow()
+                .addStatement("$L[$L * 3] = tag", FRAMES, FRAME_COUNT)
+                .addStatement("$L[$L * 3 + 1] = $L", FRAMES, FRAME_COUNT, SIZE)
+                .addStatement("$L[$L * 3 + 2] = $L + childCount", FRAMES, FRAME_COUNT, SIZE)
+                .addStatement("$L++", FRAME_COUNT)
+                .build();
+    }
+
+    private static List<Parameter> parameters(final Derivation derivation) {
+        return derivation.rhs().stream()
+                .flatMap(s -> s instanceof Terminal terminal ? terminal.getParameters().stream() : Stream.empty())
+                .toList();
+    }
+
+}
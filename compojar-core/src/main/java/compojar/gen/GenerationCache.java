@@ -0,0 +1,109 @@
+package compojar.gen;
+
+import compojar.bnf.BNF;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * An on-disk cache of generated sources, keyed by {@link GrammarFingerprint}.
+ * <p>
+ * Each entry is a directory named after a fingerprint, that contains the sources produced by {@link Generator}.
+ * Entries are created by an atomic rename, so a partially written entry is never observed.
+ * <p>
+ * Generation advances the counter of the {@link Namer}, which is part of the fingerprint. To make the next fingerprint
+ * independent of whether there was a hit, each entry also records the final value of the counter, and a hit restores it.
+ */
+public final class GenerationCache {
+
+    /** Name of the file in an entry that contains the value of the namer counter after generation; not copied to the output. */
+    static final String COUNTER_FILE = ".namer-counter";
+
+    private final Path directory;
+
+    public GenerationCache(final Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param report  present only if the sources were generated, i.e., if there was a cache miss
+     */
+    public record Result (String fingerprint, Optional<PassReport> report) {
+
+        public boolean hit() {
+            return report.isEmpty();
+        }
+
+    }
+
+    /**
+     * Writes the sources generated from the grammar to the output directory, copying them from the cache if possible.
+     */
+    public Result generate(final Namer namer, final BNF bnf, final Path outputDirectory) {
+        return generate(namer, bnf, GeneratorOptions.DEFAULT, outputDirectory);
+    }
+
+    public Result generate(final Namer namer, final BNF bnf, final ApiImplGenerator.Backend backend, final Path outputDirectory) {
+        return generate(namer, bnf, GeneratorOptions.DEFAULT.setBackend(backend), outputDirectory);
+    }
+
+    public Result generate(final Namer namer, final BNF bnf, final GeneratorOptions options, final Path outputDirectory) {
+        final var fingerprint = GrammarFingerprint.of(bnf, namer, options);
+        final var entry = directory.resolve(fingerprint);
+        try {
+            Optional<PassReport> report = Optional.empty();
+            if (!Files.isDirectory(entry)) {
+                Files.createDirectories(directory);
+                final var tmp = Files.createTempDirectory(directory, fingerprint + ".tmp");
+                report = Optional.of(new Generator(namer, bnf, options).generate(tmp));
+                Files.writeString(tmp.resolve(COUNTER_FILE), Long.toString(namer.counter()));
+                try {
+                    Files.move(tmp, entry, ATOMIC_MOVE);
+                } catch (FileSystemException e) {
+                    if (!Files.isDirectory(entry)) {
+                        throw e;
+                    }
+                    // Another process has created the same entry.
+                    deleteRecursively(tmp);
+                }
+            }
+            else {
+                namer.setCounter(Long.parseLong(Files.readString(entry.resolve(COUNTER_FILE)).strip()));
+            }
+            copyRecursively(entry, outputDirectory);
+            return new Result(fingerprint, report);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void copyRecursively(final Path source, final Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (final Path path : (Iterable<Path>) paths.filter(p -> !p.equals(source.resolve(COUNTER_FILE)))::iterator) {
+                final var dest = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(dest);
+                }
+                else {
+                    Files.copy(path, dest, REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    private static void deleteRecursively(final Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (final Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+}
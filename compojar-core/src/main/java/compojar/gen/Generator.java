@@ -1,16 +1,22 @@
 package compojar.gen;
 
 import com.squareup.javapoet.JavaFile;
+import compojar.bnf.AstMetadata;
 import compojar.bnf.BNF;
 import compojar.bnf.EmptyProductionElimination;
 import compojar.bnf.LeftFactoring;
+import compojar.bnf.StackSymbolMinimisation;
 import compojar.bnf.TerminalNormalisation;
+import compojar.gen.PassReport.GrammarSize;
 import compojar.stack.StackMachine;
 import compojar.util.T2;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
@@ -23,12 +29,27 @@ import static java.util.stream.Collectors.toMap;
 
 public class Generator {
 
+    // Counts of the LeftFactoring pass (see LeftFactoring.Result).
+    public static final String LEFT_FACTORING_REWRITES = "rewrites";
+    public static final String LEFT_FACTORING_CHECKS = "checks";
+    public static final String LEFT_FACTORING_SKIPPED_CHECKS = "skippedChecks";
+
     private final Namer namer;
     private final BNF bnf;
+    private final GeneratorOptions options;
 
     public Generator(final Namer namer, final BNF bnf) {
+        this(namer, bnf, GeneratorOptions.DEFAULT);
+    }
+
+    public Generator(final Namer namer, final BNF bnf, final ApiImplGenerator.Backend backend) {
+        this(namer, bnf, GeneratorOptions.DEFAULT.setBackend(backend));
+    }
+
+    public Generator(final Namer namer, final BNF bnf, final GeneratorOptions options) {
         this.namer = namer;
         this.bnf = validateBnf(bnf);
+        this.options = options;
     }
 
     private static BNF validateBnf(BNF bnf) {
@@ -50,97 +71,160 @@ public class Generator {
         }
     }
 
-    public void generate(Path outputDirectory) {
-        new AstGenerator(namer, bnf).generate()
-                .run((astJavaFile, _astMetadata) -> {
-                    var _canonicalBnf = bnf;
-                    {
-                        var termNormResult = new TerminalNormalisation(namer).apply(_canonicalBnf, _astMetadata);
-                        _canonicalBnf = termNormResult.fst();
-                        _astMetadata = termNormResult.snd();
-                    }
+    /**
+     * Generates the AST, API and API implementation, and writes them to the specified directory.
+     *
+     * @return  the cost of each performed pass
+     */
+    public PassReport generate(Path outputDirectory) {
+        final var passes = new PassManager();
+        final var inputSize = GrammarSize.of(bnf);
+
+        final var astResult = passes.run("AstGenerator", inputSize, () -> new AstGenerator(namer, bnf, options.listNodes(), options.hashConsing()).generate(), $ -> inputSize);
+        final var astJavaFile = astResult.fst();
+
+        final var canonicalGrammar = canonicalise(passes, astResult.snd());
+        // Each removed variable is a fluent interface and an implementation class less.
+        final var grammar = options.minimiseStackSymbols()
+                ? passes.run("StackSymbolMinimisation", sizeOf(canonicalGrammar),
+                             () -> new StackSymbolMinimisation().apply(canonicalGrammar.fst(), canonicalGrammar.snd()),
+                             Generator::sizeOf)
+                : canonicalGrammar;
+        final var canonicalBNF = grammar.fst();
+        final var astMetadata = grammar.snd();
+        final var canonicalSize = sizeOf(grammar);
+
+        final var stackMachine = passes.run("StackMachine", canonicalSize, () -> StackMachine.fromBNF(canonicalBNF), GrammarSize::of);
+        final var stackMachineSize = GrammarSize.of(stackMachine);
+
+        final var apiResult = passes.run("ApiGenerator", stackMachineSize, () -> new ApiGenerator(namer, stackMachine, options.backend()).generate(), $ -> stackMachineSize);
+        final var apiJavaFile = apiResult.fst();
+        final var symbolInterfaceMap = apiResult.snd();
+
+        final JavaFile apiImplJavaFile = passes.run("ApiImplGenerator", canonicalSize, () -> {
+            var interfaceAstNodeMap = symbolInterfaceMap.entrySet().stream()
+                    .map(stackSym_inter -> {
+                        return astMetadata.getParserInfo(canonicalBNF.getVariable(stackSym_inter.getKey()))
+                                .flatMap(ParserInfo::maybeAstNodeName)
+                                .map(astNodeName -> T2.t2(stackSym_inter.getValue(),
+                                                          getInnerTypeRecursively(astJavaFile.typeSpec, astNodeName.simpleName())));
+                    })
+                    .flatMap(Optional::stream)
+                    .collect(toMap(T2::fst, T2::snd));
+            var interfaceDescriptionMap = symbolInterfaceMap.keySet().stream()
+                    .filter(stackSym -> stackSym != ApiGenerator.END_SYMBOL)
+                    .collect(toMap(symbolInterfaceMap::get,
+                                   stackSym -> new InterfaceDescription(canonicalBNF.requireRuleFor(canonicalBNF.getVariable(stackSym)),
+                                                                        astMetadata.requireParserInfo(canonicalBNF.getVariable(stackSym)))));
+            final var fluentInterfaces = apiJavaFile.typeSpec.typeSpecs;
+            final var astNodeTypes = astJavaFile.typeSpec.typeSpecs.stream()
+                    .collect(toMap(ty -> namer.astNodeClassName(ty.name), Function.identity()));
+            return new ApiImplGenerator(namer, options.backend(), Optional.of(canonicalBNF.start()),
+                                        fluentInterfaces, interfaceAstNodeMap, interfaceDescriptionMap, astNodeTypes)
+                    .generateJavaFile();
+        }, $ -> canonicalSize);
+
+        // Optional files, labelled for printing.
+        final var extraJavaFiles = new ArrayList<T2<String, JavaFile>>();
+        if (options.textParser()) {
+            extraJavaFiles.add(T2.t2("Text Parser", passes.run("TextParserGenerator", stackMachineSize, () -> new TextParserGenerator(namer, stackMachine).generate(), $ -> stackMachineSize)));
+        }
+        if (options.unparser()) {
+            extraJavaFiles.add(T2.t2("Unparser", passes.run("UnparserGenerator", inputSize, () -> new UnparserGenerator(namer, bnf, options.listNodes()).generate(), $ -> inputSize)));
+        }
+        if (options.codec()) {
+            extraJavaFiles.add(T2.t2("Codec", passes.run("CodecGenerator", inputSize, () -> new CodecGenerator(namer, bnf, options.listNodes(), options.hashConsing()).generate(), $ -> inputSize)));
+        }
 
-                    {
-                        var result = new EmptyProductionElimination(namer).apply(_canonicalBnf, _astMetadata);
-                        _canonicalBnf = result.map(T2::fst).orElse(_canonicalBnf);
-                        _astMetadata = result.map(T2::snd).orElse(_astMetadata);
-                    }
+        passes.run("Write", canonicalSize, () -> {
+            write(outputDirectory, astJavaFile, apiJavaFile, apiImplJavaFile, extraJavaFiles);
+            return outputDirectory;
+        }, $ -> canonicalSize);
 
-                    // If the transformed grammar still contains empty rules, then they can't be handled by EmptyProductionElimination,
-                    // thus the input grammar is illegal.
+        return passes.report();
+    }
 
-                    assertNoEmptyRhs(_canonicalBnf, "Grammar contains ambiguous rules (even after rewriting).");
+    /**
+     * Transforms the input grammar into the canonical form, from which the API and its implementation are derived.
+     *
+     * @param astMetadata  metadata produced by {@link AstGenerator} for the input grammar
+     */
+    T2<BNF, AstMetadata> canonicalise(final PassManager passes, final AstMetadata astMetadata) {
+        var grammar = passes.run("TerminalNormalisation", GrammarSize.of(bnf),
+                                 () -> new TerminalNormalisation(namer).apply(bnf, astMetadata),
+                                 Generator::sizeOf);
+        grammar = runEmptyProductionElimination(passes, grammar);
+
+        // If the transformed grammar still contains empty rules, then they can't be handled by EmptyProductionElimination,
+        // thus the input grammar is illegal.
+
+        assertNoEmptyRhs(grammar.fst(), "Grammar contains ambiguous rules (even after rewriting).");
+
+        {
+            final var data = new LeftFactoring.Data(grammar.fst(), grammar.snd());
+            final var leftFactorResult = passes.run("LeftFactoring", sizeOf(grammar),
+                                                    () -> new LeftFactoring(namer).applyIncrementally(data),
+                                                    result -> GrammarSize.of(result.data().bnf()),
+                                                    result -> Map.of(LEFT_FACTORING_REWRITES, result.rewrites(),
+                                                                     LEFT_FACTORING_CHECKS, result.checks(),
+                                                                     LEFT_FACTORING_SKIPPED_CHECKS, result.skippedChecks()));
+            grammar = T2.t2(leftFactorResult.data().bnf(), leftFactorResult.data().astMetadata());
+        }
 
-                    {
-                        var leftFactorResult = new LeftFactoring(namer).apply(new LeftFactoring.Data(_canonicalBnf, _astMetadata));
-                        _canonicalBnf = leftFactorResult.bnf();
-                        _astMetadata = leftFactorResult.astMetadata();
-                    }
+        grammar = runEmptyProductionElimination(passes, grammar);
 
-                    {
-                        var result = new EmptyProductionElimination(namer).apply(_canonicalBnf, _astMetadata);
-                        _canonicalBnf = result.map(T2::fst).orElse(_canonicalBnf);
-                        _astMetadata = result.map(T2::snd).orElse(_astMetadata);
-                    }
+        assertNoEmptyRhs(grammar.fst(), "Grammar contains ambiguous rules (even after rewriting).");
+
+        return grammar;
+    }
+
+    private T2<BNF, AstMetadata> runEmptyProductionElimination(final PassManager passes, final T2<BNF, AstMetadata> grammar) {
+        return passes.run("EmptyProductionElimination", sizeOf(grammar),
+                          () -> new EmptyProductionElimination(namer).apply(grammar.fst(), grammar.snd()).orElse(grammar),
+                          Generator::sizeOf);
+    }
 
-                    final var canonicalBNF = _canonicalBnf;
-                    final var astMetadata = _astMetadata;
-
-                    assertNoEmptyRhs(canonicalBNF, "Grammar contains ambiguous rules (even after rewriting).");
-
-                    var stackMachine = StackMachine.fromBNF(canonicalBNF);
-                    new ApiGenerator(namer, stackMachine).generate().run((apiJavaFile, symbolInterfaceMap) -> {
-                        var interfaceAstNodeMap = symbolInterfaceMap.entrySet().stream()
-                                .map(stackSym_inter -> {
-                                    return astMetadata.getParserInfo(canonicalBNF.getVariable(stackSym_inter.getKey()))
-                                            .flatMap(ParserInfo::maybeAstNodeName)
-                                            .map(astNodeName -> T2.t2(stackSym_inter.getValue(),
-                                                                      getInnerTypeRecursively(astJavaFile.typeSpec, astNodeName.simpleName())));
-                                })
-                                .flatMap(Optional::stream)
-                                .collect(toMap(T2::fst, T2::snd));
-                        var interfaceDescriptionMap = symbolInterfaceMap.keySet().stream()
-                                .filter(stackSym -> stackSym != ApiGenerator.END_SYMBOL)
-                                .collect(toMap(symbolInterfaceMap::get,
-                                                          stackSym -> new InterfaceDescription(canonicalBNF.requireRuleFor(canonicalBNF.getVariable(stackSym)),
-                                                                                               astMetadata.requireParserInfo(canonicalBNF.getVariable(stackSym)))));
-                        final var fluentInterfaces = apiJavaFile.typeSpec.typeSpecs;
-                        final var astNodeTypes = astJavaFile.typeSpec.typeSpecs.stream()
-                                .collect(toMap(ty -> namer.astNodeClassName(ty.name), Function.identity()));
-                        JavaFile apiImplJavaFile = new ApiImplGenerator(namer, fluentInterfaces, interfaceAstNodeMap, interfaceDescriptionMap, astNodeTypes)
-                                .generateJavaFile();
-
-                        String astCode = astJavaFile.toString();
-                        String apiCode = apiJavaFile.toString();
-                        String apiImplCode = apiImplJavaFile.toString();
-
-                        System.out.println("// AST");
-                        System.out.println();
-                        System.out.println(astCode);
-                        System.out.println();
-                        System.out.println("// API");
-                        System.out.println(apiCode);
-                        System.out.println();
-                        System.out.println("// API Implementation");
-                        System.out.println(apiImplCode);
-
-                        Path destPath = outputDirectory.toAbsolutePath();
-
-                        try {
-                            Files.createDirectories(destPath);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-
-                        Stream.of(astJavaFile, apiJavaFile, apiImplJavaFile)
-                                .forEach(jf -> {
-                                    try {
-                                        jf.writeTo(destPath);
-                                    } catch (IOException e) {
-                                        throw new RuntimeException(e);
-                                    }
-                                });
-                    });
+    private static GrammarSize sizeOf(T2<BNF, ?> grammar) {
+        return GrammarSize.of(grammar.fst());
+    }
+
+    private static void write(final Path outputDirectory, final JavaFile astJavaFile, final JavaFile apiJavaFile, final JavaFile apiImplJavaFile,
+                              final List<T2<String, JavaFile>> extraJavaFiles)
+    {
+        String astCode = astJavaFile.toString();
+        String apiCode = apiJavaFile.toString();
+        String apiImplCode = apiImplJavaFile.toString();
+
+        System.out.println("// AST");
+        System.out.println();
+        System.out.println(astCode);
+        System.out.println();
+        System.out.println("// API");
+        System.out.println(apiCode);
+        System.out.println();
+        System.out.println("// API Implementation");
+        System.out.println(apiImplCode);
+        extraJavaFiles.forEach(pair -> pair.run((label, jf) -> {
+            System.out.println();
+            System.out.println("// " + label);
+            System.out.println(jf);
+        }));
+
+        Path destPath = outputDirectory.toAbsolutePath();
+
+        try {
+            Files.createDirectories(destPath);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        Stream.concat(Stream.of(astJavaFile, apiJavaFile, apiImplJavaFile), extraJavaFiles.stream().map(T2::snd))
+                .forEach(jf -> {
+                    try {
+                        jf.writeTo(destPath);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
                 });
     }
 
@@ -0,0 +1,48 @@
+package compojar.gen;
+
+/**
+ * Settings of {@link Generator} that affect the generated code, but not the generated API.
+ *
+ * @param backend  strategy of the API implementation
+ * @param listNodes  shape of AST nodes for list rules
+ * @param hashConsing  whether equal AST nodes are shared
+ * @param textParser  whether to generate a parser of sentences in textual form (see {@link TextParserGenerator})
+ * @param unparser  whether to generate a writer of ASTs in textual form (see {@link UnparserGenerator})
+ * @param codec  whether to generate an encoder and a decoder of ASTs in binary form (see {@link CodecGenerator})
+ * @param minimiseStackSymbols  whether to merge equivalent stack symbols, and thus fluent interfaces, which doesn't change
+ *                              the sentences of the API (see {@link compojar.bnf.StackSymbolMinimisation})
+ */
+public record GeneratorOptions (ApiImplGenerator.Backend backend, AstGenerator.ListNodes listNodes, boolean hashConsing, boolean textParser, boolean unparser, boolean codec,
+                                boolean minimiseStackSymbols) {
+
+    public static final GeneratorOptions DEFAULT = new GeneratorOptions(ApiImplGenerator.Backend.CONTINUATIONS, AstGenerator.ListNodes.LINKED, false, false, false, false, false);
+
+    public GeneratorOptions setBackend(ApiImplGenerator.Backend value) {
+        return new GeneratorOptions(value, listNodes, hashConsing, textParser, unparser, codec, minimiseStackSymbols);
+    }
+
+    public GeneratorOptions setListNodes(AstGenerator.ListNodes value) {
+        return new GeneratorOptions(backend, value, hashConsing, textParser, unparser, codec, minimiseStackSymbols);
+    }
+
+    public GeneratorOptions setHashConsing(boolean value) {
+        return new GeneratorOptions(backend, listNodes, value, textParser, unparser, codec, minimiseStackSymbols);
+    }
+
+    public GeneratorOptions setTextParser(boolean value) {
+        return new GeneratorOptions(backend, listNodes, hashConsing, value, unparser, codec, minimiseStackSymbols);
+    }
+
+    public GeneratorOptions setUnparser(boolean value) {
+        return new GeneratorOptions(backend, listNodes, hashConsing, textParser, value, codec, minimiseStackSymbols);
+    }
+
+    public GeneratorOptions setCodec(boolean value) {
+        return new GeneratorOptions(backend, listNodes, hashConsing, textParser, unparser, value, minimiseStackSymbols);
+    }
+
+    public GeneratorOptions setMinimiseStackSymbols(boolean value) {
+        return new GeneratorOptions(backend, listNodes, hashConsing, textParser, unparser, codec, value);
+    }
+
+}
@@ -0,0 +1,72 @@
+package compojar.gen;
+
+import compojar.bnf.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * A stable fingerprint of the input to {@link Generator}: a BNF, the settings of a {@link Namer} and {@link GeneratorOptions}.
+ * <p>
+ * The fingerprint is a SHA-256 digest of a canonical text, in which rules are sorted by their LHS names.
+ * Therefore, it does not depend on the order of rules, on the identity of symbols, or on the JVM that computes it.
+ * Metadata of symbols is not part of the fingerprint, since it is not used for generation.
+ */
+public final class GrammarFingerprint {
+
+    /**
+     * Version of the generated code.
+     * Must be incremented whenever the generator starts producing different code for the same grammar.
+     */
+    static final int FORMAT_VERSION = 4;
+
+    public static String of(BNF bnf, Namer namer) {
+        return of(bnf, namer, GeneratorOptions.DEFAULT);
+    }
+
+    public static String of(BNF bnf, Namer namer, ApiImplGenerator.Backend backend) {
+        return of(bnf, namer, GeneratorOptions.DEFAULT.setBackend(backend));
+    }
+
+    public static String of(BNF bnf, Namer namer, GeneratorOptions options) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(canonicalText(bnf, namer, options).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String canonicalText(BNF bnf, Namer namer, GeneratorOptions options) {
+        var header = "format %d\nbackend %s\nlists %s\nhash-consing %s\ntext-parser %s\nunparser %s\ncodec %s\nminimise-stack-symbols %s\nlang %s\npkg %s\ncounter %d\nstart %s\n".formatted(
+                FORMAT_VERSION, options.backend(), options.listNodes(), options.hashConsing(), options.textParser(), options.unparser(), options.codec(), options.minimiseStackSymbols(),
+                namer.langName(), namer.pkgName(), namer.counter(), bnf.start().name());
+        return bnf.rules().stream()
+                .sorted(Rule.compareByLhs)
+                .map(GrammarFingerprint::canonicalText)
+                .collect(joining("\n", header, "\n"));
+    }
+
+    private static String canonicalText(Rule rule) {
+        return switch (rule) {
+            case Derivation d -> d.rhs().stream().map(GrammarFingerprint::canonicalText).collect(joining(" ", "D %s ::=".formatted(d.lhs().name()), ""));
+            case Selection s -> s.rhs().stream().map(GrammarFingerprint::canonicalText).collect(joining(" | ", "S %s ::=".formatted(s.lhs().name()), ""));
+        };
+    }
+
+    private static String canonicalText(Symbol symbol) {
+        return switch (symbol) {
+            case Terminal t -> t.getParameters().stream()
+                    .map(p -> "%s %s".formatted(p.type().getTypeName(), p.name()))
+                    .collect(joining(", ", " t:%s(".formatted(t.name()), ")"));
+            case Variable v -> " v:%s".formatted(v.name());
+        };
+    }
+
+    private GrammarFingerprint() {}
+
+}
@@ -11,6 +11,9 @@ public class Namer {
     private final String enclosingApiTypeSimpleName;
     private final String enclosingAstTypeSimpleName;
     private final String enclosingApiImplTypeSimpleName;
+    private final String enclosingParserTypeSimpleName;
+    private final String enclosingUnparserTypeSimpleName;
+    private final String enclosingCodecTypeSimpleName;
 
     private long counter = 71;
 
@@ -20,6 +23,9 @@ public class Namer {
         enclosingApiTypeSimpleName = "%s_Api".formatted(langName);
         enclosingAstTypeSimpleName = "%s_AstNode".formatted(langName);
         enclosingApiImplTypeSimpleName = "%s_ApiImpl".formatted(langName);
+        enclosingParserTypeSimpleName = "%s_Parser".formatted(langName);
+        enclosingUnparserTypeSimpleName = "%s_Unparser".formatted(langName);
+        enclosingCodecTypeSimpleName = "%s_Codec".formatted(langName);
     }
 
     public String langName() {
@@ -66,10 +72,36 @@ public class Namer {
         return ClassName.get(pkgName, enclosingApiImplTypeSimpleName);
     }
 
+    public ClassName enclosingParserTypeClassName() {
+        return ClassName.get(pkgName, enclosingParserTypeSimpleName);
+    }
+
+    public ClassName enclosingUnparserTypeClassName() {
+        return ClassName.get(pkgName, enclosingUnparserTypeSimpleName);
+    }
+
+    public ClassName enclosingCodecTypeClassName() {
+        return ClassName.get(pkgName, enclosingCodecTypeSimpleName);
+    }
+
     public String implSimpleName(CharSequence interfaceSimpleName) {
         return interfaceSimpleName + "_Impl";
     }
 
+    /**
+     * The next number to be used by {@link #randomName()}, which determines names of generated variables.
+     */
+    long counter() {
+        return counter;
+    }
+
+    /**
+     * Restores the counter to the value it had after a generation, whose result was taken from {@link GenerationCache}.
+     */
+    void setCounter(final long counter) {
+        this.counter = counter;
+    }
+
     public String randomName() {
         return "G" + (counter++);
     }
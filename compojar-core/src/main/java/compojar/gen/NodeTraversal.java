@@ -0,0 +1,137 @@
+package compojar.gen;
+
+import com.squareup.javapoet.*;
+import compojar.bnf.Symbol;
+import compojar.bnf.Terminal;
+import compojar.bnf.Variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.squareup.javapoet.MethodSpec.methodBuilder;
+import static compojar.util.Util.decapitalise;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+
+/**
+ * Skeleton of generated code that writes an AST out (see {@link UnparserGenerator} and {@link CodecGenerator}).
+ * <p>
+ * The AST is traversed iteratively, with an explicit stack of pairs of a node and a position among its children,
+ * so deep ASTs, such as long linked lists, can't overflow the call stack.
+ * The generated {@code write} method pops a pair and dispatches on the node, which is named {@value #NODE} in each case.
+ */
+final class NodeTraversal {
+
+    static final String NODES = "nodes";
+    static final String POSITIONS = "positions";
+    static final String SIZE = "size";
+    static final String NODE = "n";
+
+    private NodeTraversal() {}
+
+    static List<FieldSpec> fields(final TypeName rootType) {
+        return List.of(FieldSpec.builder(ArrayTypeName.of(rootType), NODES, PRIVATE)
+                               .initializer("new $T[16]", rootType)
+                               .build(),
+                       FieldSpec.builder(int[].class, POSITIONS, PRIVATE)
+                               .initializer("new int[16]")
+                               .build(),
+                       FieldSpec.builder(int.class, SIZE, PRIVATE).build());
+    }
+
+    /**
+     * @param dispatch  a switch over {@code node}, whose cases may refer to its {@code position}
+     */
+    static MethodSpec write(final TypeName rootType, final CodeBlock dispatch) {
+        return methodBuilder("write")
+                .addModifiers(PRIVATE)
+                .addParameter(rootType, "root", FINAL)
+                .addStatement("push(root, 0)")
+                .beginControlFlow("while ($L > 0)", SIZE)
+                .addStatement("$L--", SIZE)
+                .addStatement("final $T node = $L[$L]", rootType, NODES, SIZE)
+                .addStatement("final int position = $L[$L]", POSITIONS, SIZE)
+                .addStatement("$L[$L] = null", NODES, SIZE)
+                .addCode(dispatch)
+                .endControlFlow()
+                .build();
+    }
+
+    static MethodSpec push(final TypeName rootType) {
+        return methodBuilder("push")
+                .addModifiers(PRIVATE)
+                .addParameter(rootType, "node", FINAL)
+                .addParameter(int.class, "position", FINAL)
+                .beginControlFlow("if ($L == $L.length)", SIZE, NODES)
+                .addStatement("$L = $T.copyOf($L, $L * 2)", NODES, Arrays.class, NODES, SIZE)
+                .addStatement("$L = $T.copyOf($L, $L * 2)", POSITIONS, Arrays.class, POSITIONS, SIZE)
+                .endControlFlow()
+                .addStatement("$L[$L] = node", NODES, SIZE)
+                .addStatement("$L[$L++] = position", POSITIONS, SIZE)
+                .build();
+    }
+
+    /**
+     * A case of the dispatch for a node with the children, where position {@code k} corresponds to segment {@code k},
+     * after which the {@code k}-th child is written.
+     * If the last segment, which follows the last child, is empty, the node is not revisited, so right-recursive lists
+     * are written in constant stack space.
+     *
+     * @param segments  code that is run at each position, one more than there are children
+     */
+    static CodeBlock nodeCase(final ClassName nodeClassName, final List<Variable> children, final List<CodeBlock> segments) {
+        final var code = CodeBlock.builder().beginControlFlow("case $T $L ->", nodeClassName, NODE);
+        final boolean revisit = !segments.getLast().isEmpty();
+        if (children.isEmpty()) {
+            code.add(segments.getFirst());
+        }
+        else if (children.size() == 1 && !revisit) {
+            // The node is visited only once.
+            code.add(segments.getFirst())
+                    .addStatement("push($L.$L, 0)", NODE, decapitalise(children.getFirst().name()));
+        }
+        else {
+            code.beginControlFlow("switch (position)");
+            for (int k = 0; k < children.size(); k++) {
+                code.beginControlFlow("case $L ->", k).add(segments.get(k));
+                if (k < children.size() - 1 || revisit) {
+                    code.addStatement("push($L, $L)", NODE, k + 1);
+                }
+                code.addStatement("push($L.$L, 0)", NODE, decapitalise(children.get(k).name()))
+                        .endControlFlow();
+            }
+            if (revisit) {
+                code.beginControlFlow("case $L ->", children.size())
+                        .add(segments.getLast())
+                        .endControlFlow();
+            }
+            code.endControlFlow();
+        }
+        return code.endControlFlow().build();
+    }
+
+    static List<Variable> children(final List<Symbol> symbols) {
+        return symbols.stream().filter(s -> s instanceof Variable).map(s -> (Variable) s).toList();
+    }
+
+    /**
+     * Splits the symbols into {@code n + 1} lists of terminals, where {@code n} is the number of variables among the symbols.
+     */
+    static List<List<Terminal>> segments(final List<Symbol> symbols) {
+        final var segments = new ArrayList<List<Terminal>>();
+        var segment = new ArrayList<Terminal>();
+        for (final var symbol : symbols) {
+            if (symbol instanceof Terminal terminal) {
+                segment.add(terminal);
+            }
+            else {
+                segments.add(List.copyOf(segment));
+                segment = new ArrayList<>();
+            }
+        }
+        segments.add(List.copyOf(segment));
+        return segments;
+    }
+
+}
@@ -0,0 +1,452 @@
+package compojar.gen;
+
+import com.squareup.javapoet.*;
+import compojar.bnf.*;
+import compojar.gen.ParserInfo.Bridge;
+import compojar.util.JavaPoet;
+import compojar.util.OperandStack;
+import compojar.util.T2;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static com.squareup.javapoet.MethodSpec.methodBuilder;
+import static com.squareup.javapoet.TypeSpec.classBuilder;
+import static com.squareup.javapoet.TypeSpec.interfaceBuilder;
+import static compojar.util.T2.t2;
+import static compojar.util.Util.*;
+import static java.util.stream.Collectors.joining;
+import static javax.lang.model.element.Modifier.*;
+
+/**
+ * Generates the {@link ApiImplGenerator.Backend#OPERAND_STACK} implementation of fluent interfaces.
+ * <p>
+ * This is a defunctionalised version of the continuation-based implementation.
+ * Every lambda in the continuation-based implementation becomes a numbered continuation, and every value captured by
+ * a lambda or stored in a field of an implementation is kept on the {@link OperandStack} that is owned by the sentence.
+ * All continuations are interpreted by a single generated method, {@code resume}.
+ * Fluent interface implementations are stateless views of the stack.
+ * <p>
+ * Each continuation owns a frame, i.e., a segment on top of the stack that contains its inputs.
+ * A frame is described by a list of slot names, which are the names of variables in the continuation-based implementation.
+ */
+final class OperandStackImplGenerator {
+
+    private static final String STACK = "stack";
+    private static final String RESUME = "resume";
+
+    private final ApiImplGenerator gen;
+    private final Namer namer;
+    private final Variable start;
+    private final List<TypeSpec> interfaces;
+    private final Map<String, Integer> viewIds;
+    private final List<CodeBlock> continuations = new ArrayList<>();
+    private final Map<String, Integer> superContinuations = new HashMap<>();
+
+    OperandStackImplGenerator(final ApiImplGenerator gen, final Namer namer, final Variable start) {
+        this.gen = gen;
+        this.namer = namer;
+        this.start = start;
+        this.interfaces = gen.fluentInterfaces().stream()
+                .sorted(Comparator.comparing(inter -> inter.name))
+                .toList();
+        this.viewIds = new HashMap<>();
+        enumeratedStream(interfaces.stream(), (inter, i) -> t2(inter.name, i)).forEach(pair -> viewIds.put(pair.fst(), pair.snd()));
+    }
+
+    /**
+     * @param inContinuation  whether the code is a part of a continuation, or of a method called by the user
+     * @param slots  names of values in the current frame, from the bottom to the top
+     */
+    private record Frame (boolean inContinuation, List<String> slots) {
+
+        int depth(String slot) {
+            final int i = slots.indexOf(slot);
+            if (i < 0) {
+                throw new IllegalStateException("No slot %s in frame %s".formatted(slot, slots));
+            }
+            return slots.size() - 1 - i;
+        }
+
+        Frame continuation(List<String> newSlots) {
+            return new Frame(true, concatList(slots, newSlots));
+        }
+
+    }
+
+    public JavaFile generateJavaFile() {
+        var views = interfaces.stream().map(this::genView).toList();
+        var steps = interfaces.stream()
+                .filter(this::isStep)
+                .flatMap(inter -> inter.methodSpecs.stream().map(m -> genStep(inter, m)))
+                .toList();
+        var startMethod = genStart();
+
+        // Continuations are registered while the code above is generated, so the interpreter goes last.
+        var resumeBuilder = methodBuilder(RESUME)
+                .addModifiers(PRIVATE, STATIC)
+                .addParameter(OperandStack.class, STACK)
+                .addParameter(int.class, "continuation")
+                .returns(Object.class)
+                .beginControlFlow("switch (continuation)");
+        enumeratedStream(continuations.stream(), (code, i) -> t2(i, code))
+                .forEach(pair -> resumeBuilder.beginControlFlow("case $L ->", pair.fst()).addCode(pair.snd()).endControlFlow());
+        resumeBuilder.addStatement("default -> throw new $T($S + continuation)", IllegalStateException.class, "Unknown continuation: ")
+                .endControlFlow();
+
+        var topLevelType = interfaceBuilder(namer.enclosingApiImplTypeClassName())
+                .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unchecked").build())
+                .addMethod(startMethod)
+                .addMethods(steps)
+                .addMethod(resumeBuilder.build())
+                .addTypes(views)
+                .build();
+
+        return JavaFile.builder(namer.pkgName(), topLevelType).skipJavaLangImports(true).build();
+    }
+
+    private MethodSpec genStart() {
+        var inter = gen.interfaceForVariable(start);
+        return methodBuilder("start")
+                .addModifiers(PUBLIC, STATIC)
+                .returns(ParameterizedTypeName.get(namer.fluentInterfaceClassName(inter.name), namer.astNodeClassName(start)))
+                .addStatement("final $T $L = new $T($L, $T::$L)", OperandStack.class, STACK, OperandStack.class, interfaces.size(),
+                              namer.enclosingApiImplTypeClassName(), RESUME)
+                .addCode(enterCode(inter, STACK))
+                .addStatement("return ($T) $L", ParameterizedTypeName.get(namer.fluentInterfaceClassName(inter.name), namer.astNodeClassName(start)),
+                              view(inter, STACK))
+                .build();
+    }
+
+    // ::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // : Views
+    // ::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    private TypeSpec genView(TypeSpec inter) {
+        var typeVar = TypeVariableName.get("K");
+        var builder = classBuilder(gen.implClassName(inter))
+                .addModifiers(PUBLIC, STATIC, FINAL)
+                .addTypeVariable(typeVar)
+                .addSuperinterface(ParameterizedTypeName.get(namer.fluentInterfaceClassName(inter.name), typeVar))
+                .addField(OperandStack.class, STACK, PRIVATE, FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                                   .addParameter(OperandStack.class, STACK)
+                                   .addStatement("this.$L = $L", STACK, STACK)
+                                   .build());
+
+        var seen = new HashSet<String>();
+        gen.allApiMethods(inter)
+                .filter(m -> seen.add(m.name))
+                .map(m -> {
+                    var route = route(inter, m.name, "this." + STACK);
+                    return JavaPoet.methodBuilder(m)
+                            .addModifiers(PUBLIC)
+                            .addCode(route.fst())
+                            .addStatement("return ($T) $L(this.$L$L)",
+                                          m.returnType,
+                                          stepName(route.snd(), m.name),
+                                          STACK,
+                                          m.parameters.stream().map(p -> ", " + p.name).collect(joining()))
+                            .build();
+                })
+                .forEach(builder::addMethod);
+
+        return builder.build();
+    }
+
+    /**
+     * Finds the step that implements a method of a fluent interface.
+     *
+     * @return  code that must be executed before the step, and the interface that declares the step
+     */
+    private T2<CodeBlock, TypeSpec> route(TypeSpec inter, String methodName, String stack) {
+        var interDesc = gen.interfaceDescription(inter);
+        return switch (interDesc.rule()) {
+            case Selection selection -> {
+                // Same as delegation to an option with the same continuation and fields, which remain on the stack.
+                var option = inter.superinterfaces.stream()
+                        .map(gen::getFluentInterface)
+                        .filter(superInter -> gen.allApiMethods(superInter).anyMatch(m -> m.name.equals(methodName)))
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalStateException("No option of %s declares method %s".formatted(inter.name, methodName)));
+                var route = route(option, methodName, stack);
+                yield t2(CodeBlock.builder().add(enterCode(option, stack)).add(route.fst()).build(), route.snd());
+            }
+            case Derivation derivation when !(interDesc.parserInfo() instanceof Bridge) && derivation.rhs().getFirst() instanceof Variable v1 ->
+                    // The first variable was entered together with this interface.
+                    route(gen.interfaceForVariable(v1), methodName, stack);
+            default -> t2(CodeBlock.of(""), inter);
+        };
+    }
+
+    /**
+     * Code that corresponds to instantiation of an implementation in the continuation-based implementation.
+     * Only derivations that start with a variable need to do something: push the continuation of their super() call.
+     */
+    private CodeBlock enterCode(TypeSpec inter, String stack) {
+        var interDesc = gen.interfaceDescription(inter);
+        return switch (interDesc.rule()) {
+            case Derivation derivation when !(interDesc.parserInfo() instanceof Bridge) && derivation.rhs().getFirst() instanceof Variable v1 ->
+                    CodeBlock.builder()
+                            .addStatement("$L.pushContinuation($L)", stack, superContinuation(inter, derivation, v1))
+                            .add(enterCode(gen.interfaceForVariable(v1), stack))
+                            .build();
+            default -> CodeBlock.of("");
+        };
+    }
+
+    private CodeBlock view(TypeSpec inter, String stack) {
+        return CodeBlock.of("$L.view($L, $T::new)", stack, requireKey(viewIds, inter.name), gen.implClassName(inter));
+    }
+
+    // ::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // : Steps
+    // ::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    /**
+     * A step is a method that reads a terminal: a method of a bridge or of a derivation that starts with a terminal.
+     */
+    private boolean isStep(TypeSpec inter) {
+        var interDesc = gen.interfaceDescription(inter);
+        return interDesc.parserInfo() instanceof Bridge
+               || interDesc.rule() instanceof Derivation derivation && derivation.rhs().getFirst() instanceof Terminal;
+    }
+
+    private String stepName(TypeSpec inter, String methodName) {
+        return inter.name + "_" + methodName;
+    }
+
+    private MethodSpec genStep(TypeSpec inter, MethodSpec method) {
+        // Parameters are renamed, so that they don't clash with the stack.
+        var args = IntStream.range(0, method.parameters.size()).mapToObj(i -> "arg" + i).toList();
+        var builder = methodBuilder(stepName(inter, method.name))
+                .addModifiers(PRIVATE, STATIC)
+                .addParameter(OperandStack.class, STACK)
+                .returns(Object.class);
+        enumeratedStream(method.parameters.stream(), (p, i) -> ParameterSpec.builder(p.type, args.get(i)).build())
+                .forEach(builder::addParameter);
+        args.forEach(arg -> builder.addStatement("$L.push($L)", STACK, arg));
+        return builder.addCode(stepCode(inter, false)).build();
+    }
+
+    /**
+     * Code of a step that runs after its arguments have been pushed onto the stack.
+     */
+    private CodeBlock stepCode(TypeSpec inter, boolean inContinuation) {
+        var interDesc = gen.interfaceDescription(inter);
+        if (interDesc.parserInfo() instanceof Bridge) {
+            return applyK(inContinuation);
+        }
+        var derivation = (Derivation) interDesc.rule();
+        var terminal = (Terminal) derivation.rhs().getFirst();
+        var parameters = terminal.getParameters().stream().map(p -> p.name().toString()).toList();
+        var frame = new Frame(inContinuation, concatList(fieldNames(interDesc), parameters));
+        return parserCode(frame, interDesc, astNodeName(inter), subList(derivation.rhs(), 1), parameters, List.of());
+    }
+
+    private int superContinuation(TypeSpec inter, Derivation derivation, Variable v1) {
+        var id = superContinuations.get(inter.name);
+        if (id != null) {
+            return id;
+        }
+        final int newId = reserveContinuation();
+        superContinuations.put(inter.name, newId);
+
+        var flatList = flatListOfCons(inter, derivation);
+        if (flatList.isPresent()) {
+            var list = flatList.get();
+            final int closeId = reserveContinuation();
+            continuations.set(closeId, closeFlatListCode(closeId, list));
+            continuations.set(newId, CodeBlock.builder()
+                    .addStatement("$L.pushContinuation($L)", STACK, closeId)
+                    .add(enterCode(list, STACK))
+                    .addStatement("return $L", view(list, STACK))
+                    .build());
+            return newId;
+        }
+
+        var interDesc = gen.interfaceDescription(inter);
+        var localVars = gen.interfaceDescription(gen.interfaceForVariable(v1)).parserInfo() instanceof Bridge bridge
+                ? bridge.terminal().getParameters().stream().map(p -> p.name().toString()).toList()
+                : List.of("x0");
+        var frame = new Frame(true, concatList(fieldNames(interDesc), localVars));
+        continuations.set(newId, parserCode(frame, interDesc, astNodeName(inter), subList(derivation.rhs(), 1), List.of(), localVars));
+        return newId;
+    }
+
+    /**
+     * Returns the list, if the derivation is the cons option of a list that is a single AST node.
+     */
+    private Optional<TypeSpec> flatListOfCons(TypeSpec inter, Derivation derivation) {
+        return derivation.rhs().getLast() instanceof Variable last
+                ? Optional.of(gen.interfaceForVariable(last))
+                        .filter(list -> gen.listShape(list).filter(shape -> shape.flat() && shape.cons().equals(inter)).isPresent())
+                : Optional.empty();
+    }
+
+    /**
+     * Code of the continuation that runs after the tail of a flat list has been parsed.
+     * <p>
+     * Consecutive occurrences of this continuation belong to the same list, and their elements lie on the stack right below
+     * the tail, so all of them are closed at once.
+     * Otherwise, each element would be prepended to a copy of the tail.
+     */
+    private CodeBlock closeFlatListCode(int id, TypeSpec list) {
+        var listNode = astNodeName(list);
+        var elementNode = astNodeName(gen.listShape(list).orElseThrow().element());
+        return CodeBlock.builder()
+                .addStatement("final int n = 1 + $L.popContinuations($L)", STACK, id)
+                .addStatement("final var elements = new $T<$T>()", ArrayList.class, elementNode)
+                .beginControlFlow("for (int i = n; i > 0; i--)")
+                .addStatement("elements.add(($T) $L.peek(i))", elementNode, STACK)
+                .endControlFlow()
+                .addStatement("elements.addAll((($T) $L.peek(0)).$L)", listNode, STACK, AstGenerator.LIST_ELEMENTS)
+                .addStatement("$L.reduce(n + 1, $L)", STACK, gen.newAstNode(listNode, CodeBlock.of("elements")))
+                .add(applyK(true))
+                .build();
+    }
+
+    private int reserveContinuation() {
+        continuations.add(null);
+        return continuations.size() - 1;
+    }
+
+    private int continuation(Frame frame, List<String> newSlots, Function<Frame, CodeBlock> body) {
+        final int id = reserveContinuation();
+        continuations.set(id, body.apply(frame.continuation(newSlots)));
+        return id;
+    }
+
+    private ClassName astNodeName(TypeSpec inter) {
+        return namer.astNodeClassName(gen.requireAstNodeFor(inter).name);
+    }
+
+    private List<String> fieldNames(InterfaceDescription interDesc) {
+        return gen.fieldsForParameters(interDesc).stream().map(f -> f.name).toList();
+    }
+
+    private CodeBlock applyK(boolean inContinuation) {
+        return inContinuation
+                ? CodeBlock.builder().addStatement("return null").build()
+                : CodeBlock.builder().addStatement("return $L.resume()", STACK).build();
+    }
+
+    /**
+     * Counterpart of {@link ApiImplGenerator}'s parserCode.
+     */
+    private CodeBlock parserCode(
+            Frame frame,
+            InterfaceDescription interDesc,
+            ClassName astNodeName,
+            List<Symbol> rhs,
+            List<String> parameters,
+            List<String> localVars)
+    {
+        var nextInters = rhs.stream().map(s -> gen.interfaceForVariable((Variable) s)).toList();
+        var allParameters = concatList(fieldNames(interDesc), parameters);
+        return interDesc.parserInfo().implicitVar().map(implicitVar -> {
+                    var implicitInter = gen.interfaceForVariable(implicitVar);
+                    var newLocalVar = "x" + localVars.size();
+                    var cont = continuation(frame, List.of(newLocalVar),
+                                            f -> parserCode_(f, astNodeName, nextInters, List.of(), prepend(newLocalVar, localVars)));
+                    // The implicitly parsed node consumes all parameters collected so far, which become fields of its parser.
+                    var builder = CodeBlock.builder();
+                    enumeratedStream(allParameters.stream(), (p, i) -> CodeBlock.of("$L.push($L.peek($L));\n", STACK, STACK, frame.depth(p) + i))
+                            .forEach(builder::add);
+                    builder.addStatement("$L.pushContinuation($L)", STACK, cont)
+                            .add(enterCode(implicitInter, STACK));
+                    var route = route(implicitInter, namer.specialEmptyMethodName(), STACK);
+                    builder.add(route.fst());
+                    // Inside a continuation the step is inlined, so that it doesn't resume continuations recursively.
+                    return frame.inContinuation()
+                            ? builder.add(stepCode(route.snd(), true)).build()
+                            : builder.addStatement("return $L($L)", stepName(route.snd(), namer.specialEmptyMethodName()), STACK).build();
+                })
+                .orElseGet(() -> parserCode_(frame, astNodeName, nextInters, allParameters, localVars));
+    }
+
+    /**
+     * Counterpart of {@link ApiImplGenerator}'s parserCode_.
+     */
+    private CodeBlock parserCode_(
+            Frame frame,
+            ClassName astNodeName,
+            List<TypeSpec> nextInters,
+            List<String> parameters,
+            List<String> localVars)
+    {
+        // Encountered K
+        if (nextInters.isEmpty()) {
+            var args = concatList(parameters, localVars);
+            var ctorParams = gen.requireAstNode(astNodeName).methodSpecs.stream()
+                    .filter(MethodSpec::isConstructor)
+                    .map(ctor -> ctor.parameters)
+                    .filter(params -> params.size() == args.size())
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("Cannot construct AST node %s from %s.".formatted(astNodeName, args)));
+            var ctorArgs = enumeratedStream(args.stream(), (arg, i) -> CodeBlock.of("($T) $L.peek($L)", ctorParams.get(i).type, STACK, frame.depth(arg)))
+                    .collect(CodeBlock.joining(", "));
+            return CodeBlock.builder()
+                    .addStatement("$L.reduce($L, $L)", STACK, frame.slots().size(), gen.newAstNode(astNodeName, ctorArgs))
+                    .add(applyK(frame.inContinuation()))
+                    .build();
+        }
+
+        var next = nextInters.getFirst();
+        return switch (gen.interfaceDescription(next).parserInfo()) {
+            // Encountered partial parser
+            case ParserInfo.PartialS $ -> {
+                if (nextInters.size() != 1) {
+                    throw new IllegalStateException("Illegal next interfaces: %s. Partial parser %s must be the last one."
+                                                            .formatted(nextInters.stream().map(inter -> inter.name).toList(), next.name));
+                }
+                // The frame becomes the fields of the partial parser.
+                yield CodeBlock.builder()
+                        .add(reshape(frame, concatList(parameters, localVars)))
+                        .add(enterCode(next, STACK))
+                        .addStatement("return $L", view(next, STACK))
+                        .build();
+            }
+            // Encountered full parser
+            case ParserInfo.Full $ -> {
+                var newLocalVar = "x" + localVars.size();
+                var cont = continuation(frame, List.of(newLocalVar),
+                                        f -> parserCode_(f, astNodeName, subList(nextInters, 1), parameters, append(localVars, newLocalVar)));
+                yield CodeBlock.builder()
+                        .addStatement("$L.pushContinuation($L)", STACK, cont)
+                        .add(enterCode(next, STACK))
+                        .addStatement("return $L", view(next, STACK))
+                        .build();
+            }
+            // Encountered bridge
+            case Bridge bridge -> {
+                // Slots are created for each parameter of the terminal associated with the bridge.
+                var newLocalVars = bridge.terminal().getParameters().stream().map(Parameter::name).map(CharSequence::toString).toList();
+                var cont = continuation(frame, newLocalVars,
+                                        f -> parserCode_(f, astNodeName, subList(nextInters, 1), parameters, concatList(localVars, newLocalVars)));
+                yield CodeBlock.builder()
+                        .addStatement("$L.pushContinuation($L)", STACK, cont)
+                        .addStatement("return $L", view(next, STACK))
+                        .build();
+            }
+            default -> throw new IllegalStateException("Illegal parser continuation: %s.".formatted(next.name));
+        };
+    }
+
+    /**
+     * Rearranges the frame so that it contains exactly the specified slots.
+     */
+    private CodeBlock reshape(Frame frame, List<String> slots) {
+        if (frame.slots().equals(slots)) {
+            return CodeBlock.of("");
+        }
+        var builder = CodeBlock.builder();
+        enumeratedStream(slots.stream(), (slot, i) -> CodeBlock.of("final Object t$L = $L.peek($L);\n", i, STACK, frame.depth(slot)))
+                .forEach(builder::add);
+        builder.addStatement("$L.drop($L)", STACK, frame.slots().size());
+        IntStream.range(0, slots.size()).forEach(i -> builder.addStatement("$L.push(t$L)", STACK, i));
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,44 @@
+package compojar.gen;
+
+import compojar.bnf.Parameter;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Types of terminal parameters that are supported by generated parsers, unparsers and codecs.
+ * <p>
+ * Each type is mapped to a suffix, which completes the names of methods that read and write its values, e.g.,
+ * {@code nextInt} of {@link compojar.util.TextScanner} and {@code writeInt} of {@link compojar.util.TextWriter}.
+ */
+final class ParameterTypes {
+
+    private static final Map<Type, String> SUFFIXES = Stream.of(
+                    Map.entry(int.class, "Int"), Map.entry(Integer.class, "Int"),
+                    Map.entry(long.class, "Long"), Map.entry(Long.class, "Long"),
+                    Map.entry(short.class, "Short"), Map.entry(Short.class, "Short"),
+                    Map.entry(byte.class, "Byte"), Map.entry(Byte.class, "Byte"),
+                    Map.entry(double.class, "Double"), Map.entry(Double.class, "Double"),
+                    Map.entry(float.class, "Float"), Map.entry(Float.class, "Float"),
+                    Map.entry(boolean.class, "Boolean"), Map.entry(Boolean.class, "Boolean"),
+                    Map.entry(char.class, "Char"), Map.entry(Character.class, "Char"),
+                    Map.entry(String.class, "String"))
+            .collect(toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+    private ParameterTypes() {}
+
+    /**
+     * @param action  what is done with values of the parameter, for the error message, e.g., "encoded"
+     */
+    static String suffix(final Parameter parameter, final String action) {
+        final var suffix = SUFFIXES.get(parameter.type());
+        if (suffix == null) {
+            throw new IllegalArgumentException("Parameter %s of type %s cannot be %s.".formatted(parameter.name(), parameter.type(), action));
+        }
+        return suffix;
+    }
+
+}
@@ -0,0 +1,39 @@
+package compojar.gen;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event that is committed for each pass performed by {@link Generator}.
+ */
+@Name("compojar.Pass")
+@Label("Generator Pass")
+@Category("compojar")
+@StackTrace(false)
+class PassEvent extends Event {
+
+    @Label("Pass")
+    String pass;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+
+    @Label("Rules In")
+    int rulesIn;
+
+    @Label("Rules Out")
+    int rulesOut;
+
+    @Label("Variables In")
+    int variablesIn;
+
+    @Label("Variables Out")
+    int variablesOut;
+
+    @Label("Terminals In")
+    int terminalsIn;
+
+    @Label("Terminals Out")
+    int terminalsOut;
+
+}
@@ -0,0 +1,75 @@
+package compojar.gen;
+
+import compojar.gen.PassReport.GrammarSize;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs passes of {@link Generator} and records their cost in a {@link PassReport} and as {@link PassEvent}s.
+ */
+final class PassManager {
+
+    private static final com.sun.management.ThreadMXBean threadMXBean =
+            ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemorySupported()
+                    ? bean
+                    : null;
+
+    private final List<PassReport.Pass> passes = new ArrayList<>();
+
+    /**
+     * @param input  size of the grammar that the pass starts with
+     * @param outputSize  computes the size of the grammar produced by the pass (excluded from measurements)
+     */
+    <T> T run(String name, GrammarSize input, Supplier<T> pass, Function<? super T, GrammarSize> outputSize) {
+        return run(name, input, pass, outputSize, $ -> Map.of());
+    }
+
+    /**
+     * @param counts  computes pass-specific counts from the result of the pass (see {@link PassReport.Pass#counts()})
+     */
+    <T> T run(String name, GrammarSize input, Supplier<T> pass, Function<? super T, GrammarSize> outputSize,
+              Function<? super T, Map<String, Integer>> counts)
+    {
+        final var event = new PassEvent();
+        event.begin();
+        final long allocatedBefore = allocatedBytes();
+        final long startTime = System.nanoTime();
+
+        final T result = pass.get();
+
+        final long wallTime = System.nanoTime() - startTime;
+        final long allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+        event.end();
+
+        final var output = outputSize.apply(result);
+        if (event.shouldCommit()) {
+            event.pass = name;
+            event.allocatedBytes = allocated;
+            event.rulesIn = input.rules();
+            event.rulesOut = output.rules();
+            event.variablesIn = input.variables();
+            event.variablesOut = output.variables();
+            event.terminalsIn = input.terminals();
+            event.terminalsOut = output.terminals();
+            event.commit();
+        }
+
+        passes.add(new PassReport.Pass(name, Duration.ofNanos(wallTime), allocated, input, output, counts.apply(result)));
+        return result;
+    }
+
+    PassReport report() {
+        return new PassReport(List.copyOf(passes));
+    }
+
+    private static long allocatedBytes() {
+        return threadMXBean == null ? -1 : threadMXBean.getCurrentThreadAllocatedBytes();
+    }
+
+}
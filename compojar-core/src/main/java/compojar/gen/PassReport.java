@@ -0,0 +1,82 @@
+package compojar.gen;
+
+import compojar.bnf.BNF;
+import compojar.stack.StackMachine;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Cost of each pass performed by {@link Generator}, in the order of execution.
+ */
+public record PassReport (List<Pass> passes) {
+
+    /**
+     * @param allocatedBytes  bytes allocated by the generating thread during the pass, or -1 if the JVM cannot measure that
+     * @param input  size of the grammar that the pass started with
+     * @param output  size of the grammar that the pass produced (for passes that emit code, equal to {@code input})
+     * @param counts  pass-specific counts, e.g., the number of rewrites and of avoided checks performed by {@code LeftFactoring}
+     */
+    public record Pass (String name, Duration wallTime, long allocatedBytes, GrammarSize input, GrammarSize output,
+                        Map<String, Integer> counts)
+    {
+
+        public Pass {
+            counts = Map.copyOf(counts);
+        }
+
+        /**
+         * @return  the count reported by the pass under the name, or 0 if there is no such count
+         */
+        public int count(String name) {
+            return counts.getOrDefault(name, 0);
+        }
+
+        /**
+         * Number of variables removed by the pass.
+         * For {@code StackSymbolMinimisation}, it is the number of removed fluent interfaces, and of their implementations.
+         */
+        public int removedVariables() {
+            return input.variables() - output.variables();
+        }
+
+        @Override
+        public String toString() {
+            return "%-28s %8.2f ms %12s B  %s -> %s%s".formatted(
+                    name, wallTime.toNanos() / 1e6, allocatedBytes < 0 ? "?" : allocatedBytes, input, output,
+                    new TreeMap<>(counts).entrySet().stream().map(e -> "  %s=%d".formatted(e.getKey(), e.getValue())).collect(joining()));
+        }
+
+    }
+
+    public record GrammarSize (int rules, int variables, int terminals) {
+
+        public static GrammarSize of(BNF bnf) {
+            return new GrammarSize(bnf.rules().size(), bnf.variables().size(), bnf.terminals().size());
+        }
+
+        public static GrammarSize of(StackMachine stackMachine) {
+            return new GrammarSize(stackMachine.rules().size(), stackMachine.stackSymbols().size(), stackMachine.inputSymbols().size());
+        }
+
+        @Override
+        public String toString() {
+            return "(%d rules, %d variables, %d terminals)".formatted(rules, variables, terminals);
+        }
+
+    }
+
+    public Duration totalWallTime() {
+        return passes.stream().map(Pass::wallTime).reduce(Duration.ZERO, Duration::plus);
+    }
+
+    @Override
+    public String toString() {
+        return passes.stream().map(Pass::toString).collect(joining("\n"));
+    }
+
+}
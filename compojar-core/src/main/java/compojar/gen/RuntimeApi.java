@@ -0,0 +1,457 @@
+package compojar.gen;
+
+import com.squareup.javapoet.ClassName;
+import compojar.bnf.*;
+import compojar.gen.ParserInfo.Bridge;
+import compojar.gen.ParserInfo.Full;
+import compojar.gen.ParserInfo.PartialD;
+import compojar.gen.ParserInfo.PartialS;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static compojar.util.Util.*;
+import static java.lang.String.format;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * A fluent API that is instantiated at run time, without generating and compiling code.
+ * <p>
+ * The grammar is transformed in memory, as by {@link Generator}, and sentences are interpreted according to the
+ * {@link InterfaceDescription}s of the canonical grammar, with the semantics of implementations generated by {@link ApiImplGenerator}.
+ * Continuations are represented by immutable frames, which are resumed in a loop, so long sentences can't overflow the call stack,
+ * and a partial sentence can be continued more than once.
+ * <p>
+ * Sentences are built either by calling methods by name (see {@link Sentence}), or through dynamic proxies of the generated
+ * fluent interfaces, if they are available at run time (see {@link #startProxy()}).
+ * AST nodes are either generic {@link Node}s, or instances of the generated AST node classes, which are constructed by method handles.
+ */
+public final class RuntimeApi {
+
+    private final Namer namer;
+    private final Variable start;
+    private final Map<Variable, InterfaceDescription> descriptions;
+    /** Names of methods that are applicable in the state of each variable. */
+    private final Map<Variable, Set<String>> firsts;
+    private final Optional<ClassLoader> loader;
+    private final Map<ClassName, List<MethodHandle>> constructors = new ConcurrentHashMap<>();
+
+    private RuntimeApi(final Namer namer, final BNF bnf, final GeneratorOptions options, final Optional<ClassLoader> loader) {
+        final var passes = new PassManager();
+        final var astMetadata = new AstGenerator(namer, bnf, options.listNodes(), options.hashConsing()).generate().snd();
+        final var grammar = new Generator(namer, bnf, options).canonicalise(passes, astMetadata);
+        this.namer = namer;
+        this.start = grammar.fst().start();
+        this.descriptions = grammar.fst().rules().stream()
+                .collect(toMap(Rule::lhs, rule -> new InterfaceDescription(rule, grammar.snd().requireParserInfo(rule.lhs()))));
+        this.firsts = new HashMap<>();
+        descriptions.keySet().forEach(this::first);
+        this.loader = loader;
+    }
+
+    /**
+     * Instantiates the API with generic {@link Node}s.
+     */
+    public static RuntimeApi of(final Namer namer, final BNF bnf) {
+        return new RuntimeApi(namer, bnf, GeneratorOptions.DEFAULT, Optional.empty());
+    }
+
+    /**
+     * Instantiates the API with AST nodes and fluent interfaces that were generated with the same options and loaded by the class loader.
+     */
+    public static RuntimeApi of(final Namer namer, final BNF bnf, final GeneratorOptions options, final ClassLoader loader) {
+        return new RuntimeApi(namer, bnf, options, Optional.of(loader));
+    }
+
+    public Sentence start() {
+        return new Sentence(enter(start, List.of(), new Done()));
+    }
+
+    /**
+     * Starts a sentence through a dynamic proxy of the generated start interface, like {@code <Lang>_Api.start()}.
+     */
+    public Object startProxy() {
+        final var apiClass = loadClass(namer.enclosingApiTypeClassName());
+        final Type type;
+        try {
+            type = apiClass.getMethod("start").getGenericReturnType();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(format("Class %s has no start method.", apiClass.getName()), e);
+        }
+        return proxy(type, enter(start, List.of(), new Done()));
+    }
+
+    /**
+     * A generic AST node.
+     *
+     * @param name  simple name of the AST node type
+     * @param fields  values of the AST node fields, in the order of the generated constructor
+     */
+    public record Node (String name, List<Object> fields) {
+        @Override
+        public String toString() {
+            return fields.stream().map(String::valueOf).collect(joining(", ", name + "(", ")"));
+        }
+    }
+
+    /**
+     * An immutable sentence: either a partial one, which is continued by calling methods, or a complete one, which has a result.
+     */
+    public final class Sentence {
+
+        private final Step step;
+
+        private Sentence(final Step step) {
+            this.step = step;
+        }
+
+        public Sentence call(final String method, final Object... args) {
+            if (!(step instanceof State state)) {
+                throw new IllegalStateException(format("Method %s cannot be called on a complete sentence.", method));
+            }
+            return new Sentence(RuntimeApi.this.call(state, method, Arrays.asList(args)));
+        }
+
+        public boolean isComplete() {
+            return step instanceof Result;
+        }
+
+        /**
+         * Names of methods that can be called next.
+         */
+        public Set<String> expected() {
+            return step instanceof State state ? firsts.get(state.variable()) : Set.of();
+        }
+
+        public Object result() {
+            if (!(step instanceof Result result)) {
+                throw new IllegalStateException(format("The sentence is incomplete. Expected one of: %s", expected()));
+            }
+            return result.value();
+        }
+    }
+
+    // ::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // Interpretation
+
+    private sealed interface Step {}
+
+    /**
+     * The state of a partial sentence, which corresponds to an instance of an implementation of a fluent interface.
+     *
+     * @param fields  values of fields for parameters that are supplied externally (see {@link PartialS} and {@link PartialD})
+     */
+    private record State (Variable variable, List<Object> fields, Cont k) implements Step {}
+
+    private record Result (Object value) implements Step {}
+
+    private sealed interface Cont {}
+
+    /** The continuation of the whole sentence. */
+    private record Done () implements Cont {}
+
+    /**
+     * The continuation of a parser: it receives values for local variables, then parses the rest of the right-hand side,
+     * and finally constructs the AST node.
+     *
+     * @param prepend  whether the received values precede the local variables, which is the case for an implicitly parsed node
+     */
+    private record Frame (InterfaceDescription desc, List<Variable> rest, List<Object> parameters, List<Object> locals,
+                          boolean prepend, Cont parent)
+            implements Cont {}
+
+    /**
+     * The continuation of the first variable of a derivation, i.e., the argument of {@code super()} in generated code.
+     */
+    private record Super (InterfaceDescription desc, List<Object> fields, List<Variable> rest, Cont parent) implements Cont {}
+
+    private Step call(final State state, final String method, final List<Object> args) {
+        final var desc = descriptions.get(state.variable());
+        if (desc.parserInfo() instanceof Bridge bridge) {
+            checkCall(state, bridge.terminal(), method, args);
+            return resume(state.k(), args);
+        }
+        return switch (desc.rule()) {
+            // Delegate to the option that declares the method.
+            case Selection selection -> {
+                final var option = selection.rhs().stream()
+                        .filter(v -> firsts.get(v).contains(method))
+                        .findFirst()
+                        .orElseThrow(() -> unexpectedMethod(state, method));
+                yield call(enter(option, state.fields(), state.k()), method, args);
+            }
+            // Only derivations that start with a terminal are entered.
+            case Derivation derivation -> {
+                checkCall(state, (Terminal) derivation.rhs().getFirst(), method, args);
+                yield parse(desc, state.fields(), variables(subList(derivation.rhs(), 1)), args, List.of(), state.k());
+            }
+        };
+    }
+
+    /**
+     * Enters the parser for the variable.
+     * A derivation that starts with a variable (other than a bridge) is entered through that variable.
+     */
+    private State enter(final Variable variable, final List<Object> fields, final Cont k) {
+        final var desc = descriptions.get(variable);
+        if (!(desc.parserInfo() instanceof Bridge) && desc.rule() instanceof Derivation derivation && derivation.rhs().getFirst() instanceof Variable v1) {
+            return enter(v1, List.of(), new Super(desc, fields, variables(subList(derivation.rhs(), 1)), k));
+        }
+        return new State(variable, fields, k);
+    }
+
+    /**
+     * Corresponds to {@code ApiImplGenerator.parserCode}.
+     */
+    private Step parse(final InterfaceDescription desc, final List<Object> fields, final List<Variable> rest,
+                       final List<Object> parameters, final List<Object> locals, final Cont k)
+    {
+        final var allParameters = concatList(fields, parameters);
+        return desc.parserInfo().implicitVar()
+                // The implicitly parsed node consumes all parameters collected so far.
+                .map(implicitVar -> call(enter(implicitVar, allParameters, new Frame(desc, rest, List.of(), locals, true, k)),
+                                         namer.specialEmptyMethodName(),
+                                         List.of()))
+                .orElseGet(() -> resume(new Frame(desc, rest, allParameters, locals, false, k), List.of()));
+    }
+
+    /**
+     * Applies the continuation to the values, and proceeds until a parser that expects a method call, or the end of the sentence.
+     */
+    private Step resume(Cont k, List<Object> values) {
+        while (true) {
+            switch (k) {
+                case Done $ -> {
+                    return new Result(values.getFirst());
+                }
+                case Super s when s.desc().parserInfo().implicitVar().isPresent() -> {
+                    return parse(s.desc(), s.fields(), s.rest(), List.of(), values, s.parent());
+                }
+                case Super s -> {
+                    k = new Frame(s.desc(), s.rest(), s.fields(), values, false, s.parent());
+                    values = List.of();
+                }
+                case Frame f -> {
+                    final var locals = f.prepend() ? concatList(values, f.locals()) : concatList(f.locals(), values);
+                    if (f.rest().isEmpty()) {
+                        values = List.of(newAstNode(f.desc().parserInfo().requireAstNodeName(), concatList(f.parameters(), locals)));
+                        k = f.parent();
+                    }
+                    else {
+                        final var next = f.rest().getFirst();
+                        return switch (descriptions.get(next).parserInfo()) {
+                            case PartialS $ -> {
+                                if (f.rest().size() != 1) {
+                                    throw new IllegalStateException(format("Illegal parser continuation: %s. Partial parser %s must be the last one.",
+                                                                           f.rest(), next));
+                                }
+                                yield enter(next, concatList(f.parameters(), locals), f.parent());
+                            }
+                            case Full $ -> enter(next, List.of(), new Frame(f.desc(), subList(f.rest(), 1), f.parameters(), locals, false, f.parent()));
+                            case Bridge $ -> enter(next, List.of(), new Frame(f.desc(), subList(f.rest(), 1), f.parameters(), locals, false, f.parent()));
+                            case PartialD $ -> throw new IllegalStateException(format("Illegal parser continuation: %s.", f.rest()));
+                        };
+                    }
+                }
+            }
+        }
+    }
+
+    private Set<String> first(final Variable variable) {
+        final var cached = firsts.get(variable);
+        if (cached != null) {
+            return cached;
+        }
+        final var desc = descriptions.get(variable);
+        final Set<String> first = switch (desc.rule()) {
+            case Selection selection -> selection.rhs().stream()
+                    .flatMap(v -> first(v).stream())
+                    .collect(toCollection(LinkedHashSet::new));
+            case Derivation derivation -> switch (derivation.rhs().getFirst()) {
+                case Terminal terminal -> Set.of(terminal.name().toString());
+                case Variable v1 -> first(v1);
+            };
+        };
+        firsts.put(variable, first);
+        return first;
+    }
+
+    private void checkCall(final State state, final Terminal terminal, final String method, final List<Object> args) {
+        if (!terminal.name().toString().equals(method)) {
+            throw unexpectedMethod(state, method);
+        }
+        final var parameters = terminal.getParameters();
+        if (parameters.size() != args.size()) {
+            throw new IllegalArgumentException(format("Method %s expects %s arguments, but got %s.", method, parameters.size(), args.size()));
+        }
+        for (int i = 0; i < args.size(); i++) {
+            if (parameters.get(i).type() instanceof Class<?> type
+                && !(args.get(i) == null ? !type.isPrimitive() : box(type).isInstance(args.get(i))))
+            {
+                throw new IllegalArgumentException(format("Argument %s of method %s must be of type %s, but was: %s",
+                                                          parameters.get(i).name(), method, type.getTypeName(), args.get(i)));
+            }
+        }
+    }
+
+    private IllegalArgumentException unexpectedMethod(final State state, final String method) {
+        return new IllegalArgumentException(format("Unexpected method %s. Expected one of: %s", method, firsts.get(state.variable())));
+    }
+
+    private static List<Variable> variables(final List<Symbol> symbols) {
+        return symbols.stream().map(s -> (Variable) s).toList();
+    }
+
+    // ::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // AST nodes
+
+    private Object newAstNode(final ClassName astNode, final List<Object> args) {
+        if (loader.isEmpty()) {
+            return new Node(astNode.simpleName(), args);
+        }
+        final var handle = constructors.computeIfAbsent(astNode, this::findConstructors).stream()
+                .filter(h -> isApplicable(h, args))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException(format("No constructor of %s is applicable to %s.", astNode, args)));
+        try {
+            return handle.invokeWithArguments(args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Public constructors of the AST node class, or its factory methods if nodes are hash-consed.
+     */
+    private List<MethodHandle> findConstructors(final ClassName astNode) {
+        final var type = loadClass(astNode);
+        final var lookup = MethodHandles.publicLookup();
+        final var factories = Arrays.stream(type.getMethods())
+                .filter(m -> m.getName().equals(AstGenerator.FACTORY) && Modifier.isStatic(m.getModifiers()))
+                .toList();
+        final Stream<? extends Executable> executables = factories.isEmpty() ? Arrays.stream(type.getConstructors()) : factories.stream();
+        return executables
+                .map(e -> {
+                    try {
+                        return e instanceof Method m ? lookup.unreflect(m) : lookup.unreflectConstructor((Constructor<?>) e);
+                    } catch (IllegalAccessException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                })
+                .toList();
+    }
+
+    private static boolean isApplicable(final MethodHandle handle, final List<Object> args) {
+        final var parameterTypes = handle.type().parameterList();
+        if (parameterTypes.size() != args.size()) {
+            return false;
+        }
+        for (int i = 0; i < args.size(); i++) {
+            if (args.get(i) == null ? parameterTypes.get(i).isPrimitive() : !box(parameterTypes.get(i)).isInstance(args.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Class<?> box(final Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    private Class<?> loadClass(final ClassName className) {
+        final var classLoader = loader.orElseThrow(() -> new IllegalStateException("Generated classes are not available: no class loader was specified."));
+        try {
+            return Class.forName(className.reflectionName(), true, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(format("Generated class %s is not available.", className.reflectionName()), e);
+        }
+    }
+
+    // ::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // Proxies
+
+    /**
+     * Creates a proxy of the fluent interface type, such as {@code A<B<K>>}, whose methods are interpreted in the state.
+     * The return type of each method is resolved against the type, to determine the type of the next proxy.
+     */
+    private Object proxy(final Type type, final State state) {
+        final var rawType = rawType(type);
+        final var bindings = new HashMap<TypeVariable<?>, Type>();
+        bind(type, bindings);
+        return Proxy.newProxyInstance(rawType.getClassLoader(), new Class<?>[] {rawType}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> format("%s%s", rawType.getSimpleName(), firsts.get(state.variable()));
+                };
+            }
+            return switch (call(state, method.getName(), args == null ? List.of() : Arrays.asList(args))) {
+                case State next -> proxy(substitute(method.getGenericReturnType(), bindings), next);
+                case Result result -> result.value();
+            };
+        });
+    }
+
+    /**
+     * Binds type variables of the type's class and all of its superinterfaces to their actual types.
+     */
+    private static void bind(final Type type, final Map<TypeVariable<?>, Type> bindings) {
+        final var rawType = rawType(type);
+        if (type instanceof ParameterizedType parameterizedType) {
+            final var typeParameters = rawType.getTypeParameters();
+            final var typeArguments = parameterizedType.getActualTypeArguments();
+            for (int i = 0; i < typeParameters.length; i++) {
+                bindings.put(typeParameters[i], substitute(typeArguments[i], bindings));
+            }
+        }
+        for (final var superinterface : rawType.getGenericInterfaces()) {
+            bind(substitute(superinterface, bindings), bindings);
+        }
+    }
+
+    private static Type substitute(final Type type, final Map<TypeVariable<?>, Type> bindings) {
+        return switch (type) {
+            case TypeVariable<?> typeVariable -> bindings.getOrDefault(typeVariable, typeVariable);
+            case ParameterizedType parameterizedType -> new ParameterizedTypeImpl(
+                    rawType(parameterizedType),
+                    Arrays.stream(parameterizedType.getActualTypeArguments()).map(t -> substitute(t, bindings)).toArray(Type[]::new));
+            default -> type;
+        };
+    }
+
+    private static Class<?> rawType(final Type type) {
+        return switch (type) {
+            case Class<?> klass -> klass;
+            case ParameterizedType parameterizedType -> (Class<?>) parameterizedType.getRawType();
+            default -> throw new IllegalArgumentException(format("Unexpected type of a fluent interface: %s", type));
+        };
+    }
+
+    private record ParameterizedTypeImpl (Class<?> rawType, Type[] typeArguments) implements ParameterizedType {
+        @Override
+        public Type[] getActualTypeArguments() {
+            return typeArguments.clone();
+        }
+
+        @Override
+        public Type getRawType() {
+            return rawType;
+        }
+
+        @Override
+        public Type getOwnerType() {
+            return rawType.getDeclaringClass();
+        }
+    }
+
+}
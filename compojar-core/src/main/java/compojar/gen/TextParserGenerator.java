@@ -0,0 +1,182 @@
+package compojar.gen;
+
+import com.squareup.javapoet.*;
+import compojar.stack.Rule;
+import compojar.stack.StackMachine;
+import compojar.stack.StackTable;
+import compojar.stack.Symbol;
+import compojar.util.TextScanner;
+
+import java.util.*;
+
+import static com.squareup.javapoet.MethodSpec.methodBuilder;
+import static compojar.stack.Symbol.empty;
+import static java.util.stream.Collectors.*;
+import static javax.lang.model.element.Modifier.*;
+
+/**
+ * Generates a table-driven LL(1) parser of sentences in textual form (see {@link TextScanner}).
+ * <p>
+ * The parser simulates the stack machine, from which the fluent API was generated, on a stack of integers.
+ * A dense table, indexed by the top stack symbol and the next terminal, determines the API method that reads the terminal
+ * (after a sequence of steps that don't read anything, which correspond to inheritance of fluent interfaces), and the
+ * stack symbols that replace the top one.
+ * The parser calls that method on the current fluent interface, so AST nodes are built by the generated API implementation,
+ * and a textual sentence results in the same AST as the corresponding chain of method calls.
+ */
+public class TextParserGenerator {
+
+    private static final String SCANNER = "scanner";
+    private static final String STATE = "state";
+    private static final String STACK = "stack";
+    private static final String SIZE = "size";
+    private static final String WORDS = "WORDS";
+    private static final String ACTIONS = "ACTIONS";
+    private static final String PUSHES = "PUSHES";
+
+    /**
+     * A parsing decision for a pair of a stack symbol and a terminal.
+     *
+     * @param rule  the rule that reads the terminal
+     * @param pushes  stack symbols that replace the top one, from the bottom to the top
+     */
+    private record Transition (Rule rule, List<String> pushes) {}
+
+    private final Namer namer;
+    private final StackMachine machine;
+    private final List<String> stackSymbols;
+    private final List<String> words;
+    private final Map<String, Symbol> stackSymbolsByName;
+    /** Input symbols named after each word, where {@link Symbol#empty} is named after {@link ApiGenerator#END_SYMBOL}. */
+    private final Map<String, List<Symbol>> inputSymbolsByName;
+
+    public TextParserGenerator(final Namer namer, final StackMachine machine) {
+        this.namer = namer;
+        this.machine = machine;
+        this.stackSymbols = machine.stackSymbols().stream().map(s -> s.name().toString()).distinct().sorted().toList();
+        // The natural order is required by TextScanner.nextWord.
+        this.words = machine.rules().stream()
+                .map(TextParserGenerator::reads)
+                .filter(reads -> reads != empty)
+                .map(reads -> reads.name().toString())
+                .distinct()
+                .sorted()
+                .toList();
+        this.stackSymbolsByName = machine.stackSymbols().stream().collect(toMap(s -> s.name().toString(), s -> s, (s1, s2) -> s1));
+        this.inputSymbolsByName = machine.inputSymbols().stream()
+                .collect(groupingBy(s -> (s == empty ? ApiGenerator.END_SYMBOL : s).name().toString()));
+    }
+
+    public JavaFile generate() {
+        // Decisions are indexed by symbol * |words| + word.
+        final var ll1 = machine.table().ll1Transitions();
+        final var transitions = stackSymbols.stream()
+                .flatMap(symbol -> words.stream().map(word -> transition(ll1, symbol, word)))
+                .toList();
+        // An action is a call of an API method, which is identified by the interface that declares it and its name.
+        final var actions = new LinkedHashMap<Rule, Integer>();
+        transitions.stream().flatMap(Optional::stream).map(Transition::rule).forEach(rule -> actions.putIfAbsent(rule, actions.size()));
+
+        final var resultType = namer.astNodeClassName(machine.start().name());
+        final var builder = TypeSpec.classBuilder(namer.enclosingParserTypeClassName())
+                .addModifiers(PUBLIC, FINAL)
+                .addField(FieldSpec.builder(String[].class, WORDS, PRIVATE, STATIC, FINAL)
+                                  .initializer("{$L}", words.stream().map(w -> CodeBlock.of("$S", w)).collect(CodeBlock.joining(", ")))
+                                  .build())
+                .addField(FieldSpec.builder(int[].class, ACTIONS, PRIVATE, STATIC, FINAL)
+                                  .initializer("{$L}", transitions.stream()
+                                          .map(t -> t.map(tr -> actions.get(tr.rule())).orElse(-1).toString())
+                                          .collect(joining(", ")))
+                                  .build())
+                .addField(FieldSpec.builder(int[][].class, PUSHES, PRIVATE, STATIC, FINAL)
+                                  .initializer("{$L}", transitions.stream()
+                                          .map(t -> t.map(tr -> tr.pushes().stream().map(s -> String.valueOf(stackSymbols.indexOf(s)))
+                                                          .collect(joining(", ", "{", "}")))
+                                                  .orElse("null"))
+                                          .collect(joining(", ")))
+                                  .build())
+                .addMethod(MethodSpec.constructorBuilder().addModifiers(PRIVATE).build());
+
+        final var parse = methodBuilder("parse")
+                .addModifiers(PUBLIC, STATIC)
+                .addParameter(CharSequence.class, "input", FINAL)
+                .returns(resultType)
+                .addStatement("final var $L = new $T(input)", SCANNER, TextScanner.class)
+                .addStatement("int[] $L = new int[16]", STACK)
+                .addStatement("int $L = 0", SIZE)
+                .addStatement("$L[$L++] = $L", STACK, SIZE, stackSymbols.indexOf(machine.start().name().toString()))
+                .addStatement("$T $L = $T.start()", Object.class, STATE, namer.enclosingApiTypeClassName())
+                .beginControlFlow("while ($L > 0)", SIZE)
+                .addStatement("final int symbol = $L[--$L]", STACK, SIZE)
+                .addStatement("final int word = $L.nextWord($L)", SCANNER, WORDS)
+                .addStatement("final int decision = symbol * $L.length + word", WORDS)
+                .beginControlFlow("if (word < 0 || $L[decision] < 0)", ACTIONS)
+                .addStatement("throw $L.error(\"Unexpected \" + (word < 0 ? \"end of input\" : \"'\" + $L[word] + \"'\") + \", expected one of \" + expected(symbol))",
+                              SCANNER, WORDS)
+                .endControlFlow()
+                .addCode(switchCode(actions))
+                .addStatement("final int[] pushes = $L[decision]", PUSHES)
+                .beginControlFlow("if ($L + pushes.length > $L.length)", SIZE, STACK)
+                .addStatement("$L = $T.copyOf($L, $T.max($L.length * 2, $L + pushes.length))", STACK, Arrays.class, STACK, Math.class, STACK, SIZE)
+                .endControlFlow()
+                .addStatement("$T.arraycopy(pushes, 0, $L, $L, pushes.length)", System.class, STACK, SIZE)
+                .addStatement("$L += pushes.length", SIZE)
+                .endControlFlow()
+                .addStatement("$L.expectEnd()", SCANNER)
+                .addStatement("return ($T) $L", resultType, STATE);
+
+        final var expected = methodBuilder("expected")
+                .addModifiers(PRIVATE, STATIC)
+                .addParameter(int.class, "symbol", FINAL)
+                .returns(String.class)
+                .addStatement("final var joiner = new $T(\", \")", StringJoiner.class)
+                .beginControlFlow("for (int word = 0; word < $L.length; word++)", WORDS)
+                .beginControlFlow("if ($L[symbol * $L.length + word] >= 0)", ACTIONS, WORDS)
+                .addStatement("joiner.add(\"'\" + $L[word] + \"'\")", WORDS)
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return joiner.toString()");
+
+        builder.addMethod(parse.build()).addMethod(expected.build());
+        return JavaFile.builder(namer.pkgName(), builder.build()).skipJavaLangImports(true).build();
+    }
+
+    /**
+     * Rules that neither read nor push are modelled by the API as methods named after {@link ApiGenerator#END_SYMBOL}.
+     */
+    private static Symbol reads(Rule rule) {
+        return rule.reads() == empty && rule.pushes().isEmpty() ? ApiGenerator.END_SYMBOL : rule.reads();
+    }
+
+    private Optional<Transition> transition(StackTable.LL1Transitions ll1, String symbol, String word) {
+        final var table = machine.table();
+        final int stack = table.stackId(stackSymbolsByName.get(symbol));
+        final var transitions = inputSymbolsByName.get(word).stream()
+                .map(input -> stack * table.inputCount() + table.inputId(input))
+                .filter(cell -> ll1.rules()[cell] != StackTable.NONE)
+                .map(cell -> new Transition(table.rule(ll1.rules()[cell]),
+                                            Arrays.stream(ll1.pushes()[cell]).mapToObj(s -> table.stackSymbol(s).name().toString()).toList()))
+                .toList();
+        if (transitions.size() > 1) {
+            throw new IllegalStateException("The grammar is not LL(1): symbol %s has %s transitions on %s.".formatted(symbol, transitions.size(), word));
+        }
+        return transitions.stream().findFirst();
+    }
+
+    private CodeBlock switchCode(Map<Rule, Integer> actions) {
+        final var code = CodeBlock.builder().add("$L = switch ($L[decision]) {\n$>", STATE, ACTIONS);
+        actions.forEach((rule, id) -> code.addStatement("case $L -> $L", id, callCode(rule)));
+        return code.addStatement("default -> throw new $T()", IllegalStateException.class)
+                .add("$<};\n")
+                .build();
+    }
+
+    private CodeBlock callCode(Rule rule) {
+        final var inter = ParameterizedTypeName.get(namer.fluentInterfaceClassName(rule.pops().name()), WildcardTypeName.subtypeOf(Object.class));
+        final var args = reads(rule).parameters().stream()
+                .map(p -> CodeBlock.of("$L.next$L()", SCANNER, ParameterTypes.suffix(p, "parsed from text")))
+                .collect(CodeBlock.joining(", "));
+        return CodeBlock.of("(($T) $L).$L($L)", inter, STATE, reads(rule).name(), args);
+    }
+
+}
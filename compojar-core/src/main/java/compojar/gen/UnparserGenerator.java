@@ -0,0 +1,128 @@
+package compojar.gen;
+
+import com.squareup.javapoet.*;
+import compojar.bnf.*;
+import compojar.util.TextWriter;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static com.squareup.javapoet.MethodSpec.methodBuilder;
+import static compojar.gen.NodeTraversal.NODE;
+import static compojar.gen.NodeTraversal.children;
+import static compojar.gen.NodeTraversal.segments;
+import static javax.lang.model.element.Modifier.*;
+
+/**
+ * Generates an unparser, which writes an AST back to text: terminals and values of their parameters in the order of the grammar,
+ * in the form that is read by the text parser (see {@link TextParserGenerator}).
+ * <p>
+ * The AST is traversed iteratively (see {@link NodeTraversal}), so deep ASTs, such as long linked lists, can't overflow
+ * the call stack.
+ * If the last child of a node is followed by no terminals, the node is not revisited, so right-recursive lists are
+ * written in constant stack space.
+ */
+public class UnparserGenerator {
+
+    private static final String WRITER = "writer";
+
+    private final Namer namer;
+    private final BNF bnf;
+    private final Map<Variable, AstGenerator.FlatList> flatLists;
+
+    public UnparserGenerator(final Namer namer, final BNF bnf, final AstGenerator.ListNodes listNodes) {
+        this.namer = namer;
+        this.bnf = bnf;
+        this.flatLists = AstGenerator.flatLists(bnf, listNodes);
+    }
+
+    public JavaFile generate() {
+        final var rootType = namer.enclosingAstTypeClassName();
+        final var typeVar = TypeVariableName.get("A", Appendable.class);
+
+        final var dispatch = CodeBlock.builder().beginControlFlow("switch (node)");
+        bnf.rules().stream()
+                .sorted(Comparator.comparing(rule -> rule.lhs().name().toString()))
+                .forEach(rule -> {
+                    switch (rule) {
+                        case Selection selection when flatLists.containsKey(selection.lhs()) ->
+                                dispatch.add(flatListCase(flatLists.get(selection.lhs())));
+                        // Cons and Nil of a flat list have no nodes of their own.
+                        case Derivation derivation when flatLists.containsKey(derivation.lhs()) -> {}
+                        case Derivation derivation -> dispatch.add(derivationCase(derivation));
+                        case Selection $ -> {}
+                    }
+                });
+        dispatch.endControlFlow();
+
+        final var type = TypeSpec.classBuilder(namer.enclosingUnparserTypeClassName())
+                .addModifiers(PUBLIC, FINAL)
+                .addField(TextWriter.class, WRITER, PRIVATE, FINAL)
+                .addFields(NodeTraversal.fields(rootType))
+                .addMethod(MethodSpec.constructorBuilder()
+                                   .addModifiers(PRIVATE)
+                                   .addParameter(TextWriter.class, WRITER, FINAL)
+                                   .addStatement("this.$L = $L", WRITER, WRITER)
+                                   .build())
+                .addMethod(methodBuilder("unparse")
+                                   .addJavadoc("Writes the node to the output, and returns the output.\n")
+                                   .addModifiers(PUBLIC, STATIC)
+                                   .addTypeVariable(typeVar)
+                                   .addParameter(rootType, "node", FINAL)
+                                   .addParameter(typeVar, "out", FINAL)
+                                   .returns(typeVar)
+                                   .addStatement("new $T(new $T(out)).write(node)", namer.enclosingUnparserTypeClassName(), TextWriter.class)
+                                   .addStatement("return out")
+                                   .build())
+                .addMethod(methodBuilder("unparse")
+                                   .addJavadoc("Writes the node to the buffer in UTF-8, and returns the buffer.\n")
+                                   .addModifiers(PUBLIC, STATIC)
+                                   .addParameter(rootType, "node", FINAL)
+                                   .addParameter(ByteBuffer.class, "buffer", FINAL)
+                                   .returns(ByteBuffer.class)
+                                   .addStatement("new $T(new $T(buffer)).write(node)", namer.enclosingUnparserTypeClassName(), TextWriter.class)
+                                   .addStatement("return buffer")
+                                   .build())
+                .addMethod(NodeTraversal.write(rootType, dispatch.build()))
+                .addMethod(NodeTraversal.push(rootType))
+                .build();
+
+        return JavaFile.builder(namer.pkgName(), type).skipJavaLangImports(true).build();
+    }
+
+    /**
+     * The right-hand side of a derivation is split into segments of terminals, which are separated by variables.
+     */
+    private CodeBlock derivationCase(final Derivation derivation) {
+        return NodeTraversal.nodeCase(namer.astNodeClassName(derivation.lhs().name()),
+                                      children(derivation.rhs()),
+                                      segments(derivation.rhs()).stream().map(this::segmentCode).toList());
+    }
+
+    private CodeBlock flatListCase(final AstGenerator.FlatList flatList) {
+        final var nil = (Derivation) bnf.requireRuleFor(flatList.nil());
+        return CodeBlock.builder()
+                .beginControlFlow("case $T $L ->", namer.astNodeClassName(flatList.list().name()), NODE)
+                .beginControlFlow("if (position < $L.$L.size())", NODE, AstGenerator.LIST_ELEMENTS)
+                .addStatement("push($L, position + 1)", NODE)
+                .addStatement("push($L.$L.get(position), 0)", NODE, AstGenerator.LIST_ELEMENTS)
+                .nextControlFlow("else")
+                .add(segmentCode(segments(nil.rhs()).getFirst()))
+                .endControlFlow()
+                .endControlFlow()
+                .build();
+    }
+
+    private CodeBlock segmentCode(final List<Terminal> terminals) {
+        final var code = CodeBlock.builder();
+        terminals.forEach(terminal -> {
+            code.addStatement("$L.word($S)", WRITER, terminal.name().toString());
+            terminal.getParameters().forEach(
+                    p -> code.addStatement("$L.write$L($L.$L)", WRITER, ParameterTypes.suffix(p, "written as text"), NODE, p.name()));
+        });
+        return code.build();
+    }
+
+}
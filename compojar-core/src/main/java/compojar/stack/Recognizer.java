@@ -0,0 +1,120 @@
+package compojar.stack;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static compojar.stack.Symbol.empty;
+
+/**
+ * Recognizes sequences of input symbols by running a {@link StackMachine} on a stack of integers, without generating any code.
+ * <p>
+ * Input symbols are identified by their indices in the {@link StackTable} of the machine (see {@link #encode(List)}).
+ * Like the generated text parser, the recognizer is LL(1): a dense table, indexed by the top stack symbol and the next
+ * input symbol, determines the stack symbols that replace the top one, after a sequence of rules that don't read anything.
+ * If no rule reads the next input symbol, a stack symbol that derives the empty sequence is popped.
+ * The input is accepted when it ends with an empty stack.
+ * <p>
+ * Recognition doesn't allocate anything per input symbol, and an instance can be used by many threads at once.
+ */
+public final class Recognizer {
+
+    /** Returned by {@link #recognize(int[])} for an accepted input. */
+    public static final int ACCEPTED = -1;
+
+    private final StackTable table;
+    private final int start;
+    /** Stack symbols that replace the top one, from the bottom to the top, indexed by stack symbol * input count + input symbol. */
+    private final int[][] transitions;
+    /** Stack symbols that derive the empty sequence. */
+    private final boolean[] nullable;
+
+    public Recognizer(final StackMachine machine) {
+        this.table = machine.table();
+        this.start = table.stackId(machine.start());
+        final int emptyId = table.inputId(empty);
+
+        this.transitions = table.ll1Transitions().pushes();
+        if (emptyId != StackTable.NONE) {
+            // Rules that read nothing and push nothing are handled by popping nullable symbols.
+            for (int stack = 0; stack < table.stackCount(); stack++) {
+                transitions[stack * table.inputCount() + emptyId] = null;
+            }
+        }
+
+        this.nullable = new boolean[table.stackCount()];
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int rule = 0; rule < table.ruleCount(); rule++) {
+                final int r = rule;
+                if (table.reads(rule) == emptyId && !nullable[table.pops(rule)]
+                    && IntStream.range(0, table.pushCount(rule)).allMatch(i -> nullable[table.push(r, i)]))
+                {
+                    nullable[table.pops(rule)] = true;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Indices of the input symbols, or {@link StackTable#NONE} for symbols unknown to the machine.
+     */
+    public int[] encode(final List<? extends Symbol> symbols) {
+        return symbols.stream().mapToInt(table::inputId).toArray();
+    }
+
+    /**
+     * @return  {@link #ACCEPTED}, or the position of the first input symbol that can't be read, which is equal to the length
+     *          of the input if the input ends prematurely
+     */
+    public int recognize(final int[] input) {
+        return recognize(input, 0, input.length);
+    }
+
+    /**
+     * Recognizes the input symbols in the range {@code [from, to)}.
+     *
+     * @return  {@link #ACCEPTED}, or the position of the first input symbol that can't be read, which is equal to {@code to}
+     *          if the input ends prematurely
+     */
+    public int recognize(final int[] input, final int from, final int to) {
+        final int inputCount = table.inputCount();
+        int[] stack = new int[16];
+        int size = 0;
+        stack[size++] = start;
+        int position = from;
+        while (size > 0) {
+            final int top = stack[size - 1];
+            if (position < to) {
+                final int symbol = input[position];
+                final int[] pushes = symbol >= 0 && symbol < inputCount ? transitions[top * inputCount + symbol] : null;
+                if (pushes != null) {
+                    size--;
+                    if (size + pushes.length > stack.length) {
+                        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size + pushes.length));
+                    }
+                    System.arraycopy(pushes, 0, stack, size, pushes.length);
+                    size += pushes.length;
+                    position++;
+                    continue;
+                }
+            }
+            if (!nullable[top]) {
+                return position;
+            }
+            size--;
+        }
+        return position == to ? ACCEPTED : position;
+    }
+
+    /**
+     * Recognizes independent inputs in parallel.
+     *
+     * @return  results of {@link #recognize(int[])}, in the order of the inputs
+     */
+    public int[] recognizeAll(final List<int[]> inputs) {
+        return IntStream.range(0, inputs.size()).parallel().map(i -> recognize(inputs.get(i))).toArray();
+    }
+
+}
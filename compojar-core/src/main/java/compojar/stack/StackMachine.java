@@ -5,32 +5,78 @@ import compojar.bnf.Derivation;
 import compojar.bnf.Selection;
 import compojar.bnf.Terminal;
 
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static compojar.bnf.Derivation.derivation;
-import static java.util.stream.Collectors.toSet;
+import static java.util.Collections.unmodifiableSet;
+import static java.util.stream.Collectors.toCollection;
 
-public record StackMachine (Set<Symbol> inputSymbols, Set<Symbol> stackSymbols, Set<Rule> rules, Symbol start) {
+/**
+ * A stack machine, together with its compiled form, a {@link StackTable}, which is built from the rules on construction.
+ * <p>
+ * Equality and the string representation are those of a record of the input symbols, stack symbols, rules and the start symbol.
+ */
+public final class StackMachine {
+
+    private final Set<Symbol> inputSymbols;
+    private final Set<Symbol> stackSymbols;
+    private final Set<Rule> rules;
+    private final Symbol start;
+    private final StackTable table;
+
+    public StackMachine(Set<Symbol> inputSymbols, Set<Symbol> stackSymbols, Set<Rule> rules, Symbol start) {
+        this.inputSymbols = inputSymbols;
+        this.stackSymbols = stackSymbols;
+        this.rules = rules;
+        this.start = start;
+        this.table = new StackTable(inputSymbols, stackSymbols, rules);
+    }
 
     public StackMachine(Set<? extends Rule> rules, Symbol start) {
-        this(getInputSymbols(rules), getStackSymbols(rules), Set.copyOf(rules), start);
+        this(getInputSymbols(rules), getStackSymbols(rules), unmodifiableSet(new LinkedHashSet<>(rules)), start);
+    }
+
+    public Set<Symbol> inputSymbols() {
+        return inputSymbols;
+    }
+
+    public Set<Symbol> stackSymbols() {
+        return stackSymbols;
+    }
+
+    public Set<Rule> rules() {
+        return rules;
+    }
+
+    public Symbol start() {
+        return start;
+    }
+
+    /**
+     * The compiled form of this machine.
+     */
+    public StackTable table() {
+        return table;
     }
 
     public Set<Rule> rulesThatPop(Symbol symbol) {
-        return rules.stream().filter(rule -> rule.pops().equals(symbol)).collect(toSet());
+        final int stack = table.stackId(symbol);
+        return stack == StackTable.NONE ? Set.of() : table.rulesThatPop(stack);
     }
 
     private static Set<Symbol> getInputSymbols(final Set<? extends Rule> rules) {
-        return rules.stream().map(Rule::reads).collect(toSet());
+        return rules.stream().map(Rule::reads).collect(toCollection(LinkedHashSet::new));
     }
 
     private static Set<Symbol> getStackSymbols(final Set<? extends Rule> rules) {
         return rules.stream()
                 .flatMap(rule -> Stream.concat(Stream.of(rule.pops()), rule.pushes().stream()))
-                .collect(toSet());
+                .collect(toCollection(LinkedHashSet::new));
     }
 
     public static StackMachine fromBNF(final BNF bnf) {
@@ -57,10 +103,24 @@ public record StackMachine (Set<Symbol> inputSymbols, Set<Symbol> stackSymbols,
                     var pops = Symbol.symbol(rule.lhs());
                     return new Rule(reads, pops, pushes);
                 })
-                .collect(toSet());
+                .collect(toCollection(LinkedHashSet::new));
         return new StackMachine(rules, Symbol.symbol(bnf.start()));
     }
 
+    @Override
+    public boolean equals(final Object obj) {
+        return this == obj || obj instanceof StackMachine that
+                              && inputSymbols.equals(that.inputSymbols)
+                              && stackSymbols.equals(that.stackSymbols)
+                              && rules.equals(that.rules)
+                              && start.equals(that.start);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(inputSymbols, stackSymbols, rules, start);
+    }
+
     @Override
     public String toString() {
         return """
@@ -0,0 +1,220 @@
+package compojar.stack;
+
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static compojar.util.Util.insert;
+
+/**
+ * The compiled form of a {@link StackMachine}, in which input and stack symbols are numbered in the order of the machine,
+ * and rules are stored in dense arrays.
+ * <p>
+ * Rules are grouped by the stack symbol they pop, and each group is further split by the input symbol they read.
+ * The rules for a pair of a stack symbol {@code s} and an input symbol {@code i} occupy the range
+ * {@code [firstRule(s, i), endRule(s, i))} of rule indices, which is located through the cell {@code s * inputCount() + i}.
+ * All lookups are constant-time and don't allocate.
+ */
+public final class StackTable {
+
+    /** Returned by {@link #inputId(Symbol)} and {@link #stackId(Symbol)} for unknown symbols. */
+    public static final int NONE = -1;
+
+    private final Symbol[] inputSymbols;
+    private final Symbol[] stackSymbols;
+    private final Map<Symbol, Integer> inputIds;
+    private final Map<Symbol, Integer> stackIds;
+    /** Rules, sorted by the popped symbol, then by the read symbol. */
+    private final Rule[] rules;
+    private final int[] reads;
+    private final int[] pops;
+    private final int[][] pushes;
+    /** Offsets of cells in {@link #rules}, with an extra offset at the end. */
+    private final int[] offsets;
+    /** Rules that pop each stack symbol, in the order of the machine. */
+    private final List<Set<Rule>> rulesThatPop;
+
+    StackTable(final Set<Symbol> inputSymbols, final Set<Symbol> stackSymbols, final Set<Rule> rules) {
+        this.inputSymbols = inputSymbols.toArray(Symbol[]::new);
+        this.stackSymbols = stackSymbols.toArray(Symbol[]::new);
+        this.inputIds = ids(this.inputSymbols);
+        this.stackIds = ids(this.stackSymbols);
+
+        final int cellCount = this.stackSymbols.length * this.inputSymbols.length;
+        final var counts = new int[cellCount];
+        rules.forEach(rule -> counts[cell(rule)]++);
+        this.offsets = new int[cellCount + 1];
+        for (int cell = 0; cell < cellCount; cell++) {
+            offsets[cell + 1] = offsets[cell] + counts[cell];
+        }
+
+        this.rules = new Rule[rules.size()];
+        final var next = Arrays.copyOf(offsets, cellCount);
+        rules.forEach(rule -> this.rules[next[cell(rule)]++] = rule);
+
+        this.reads = Arrays.stream(this.rules).mapToInt(rule -> inputIds.get(rule.reads())).toArray();
+        this.pops = Arrays.stream(this.rules).mapToInt(rule -> stackIds.get(rule.pops())).toArray();
+        this.pushes = Arrays.stream(this.rules)
+                .map(rule -> rule.pushes().stream().mapToInt(stackIds::get).toArray())
+                .toArray(int[][]::new);
+
+        final var byPops = new ArrayList<Set<Rule>>(this.stackSymbols.length);
+        for (int s = 0; s < this.stackSymbols.length; s++) {
+            byPops.add(new LinkedHashSet<>());
+        }
+        rules.forEach(rule -> byPops.get(stackIds.get(rule.pops())).add(rule));
+        this.rulesThatPop = byPops.stream().map(Collections::unmodifiableSet).toList();
+    }
+
+    private int cell(final Rule rule) {
+        return stackIds.get(rule.pops()) * inputSymbols.length + inputIds.get(rule.reads());
+    }
+
+    private static Map<Symbol, Integer> ids(final Symbol[] symbols) {
+        final var ids = new HashMap<Symbol, Integer>(symbols.length * 2);
+        for (int i = 0; i < symbols.length; i++) {
+            ids.put(symbols[i], i);
+        }
+        return ids;
+    }
+
+    public int inputCount() {
+        return inputSymbols.length;
+    }
+
+    public int stackCount() {
+        return stackSymbols.length;
+    }
+
+    public int ruleCount() {
+        return rules.length;
+    }
+
+    public Symbol inputSymbol(final int input) {
+        return inputSymbols[input];
+    }
+
+    public Symbol stackSymbol(final int stack) {
+        return stackSymbols[stack];
+    }
+
+    public int inputId(final Symbol symbol) {
+        return inputIds.getOrDefault(symbol, NONE);
+    }
+
+    public int stackId(final Symbol symbol) {
+        return stackIds.getOrDefault(symbol, NONE);
+    }
+
+    public Rule rule(final int rule) {
+        return rules[rule];
+    }
+
+    public int reads(final int rule) {
+        return reads[rule];
+    }
+
+    public int pops(final int rule) {
+        return pops[rule];
+    }
+
+    public int pushCount(final int rule) {
+        return pushes[rule].length;
+    }
+
+    /**
+     * @param i  position among the pushed symbols, where 0 is the first one, which ends up on the top of the stack
+     */
+    public int push(final int rule, final int i) {
+        return pushes[rule][i];
+    }
+
+    public int firstRule(final int stack, final int input) {
+        return offsets[stack * inputSymbols.length + input];
+    }
+
+    public int endRule(final int stack, final int input) {
+        return offsets[stack * inputSymbols.length + input + 1];
+    }
+
+    public int firstRuleThatPops(final int stack) {
+        return offsets[stack * inputSymbols.length];
+    }
+
+    public int endRuleThatPops(final int stack) {
+        return offsets[(stack + 1) * inputSymbols.length];
+    }
+
+    /**
+     * Rules that pop the stack symbol, in the order of the machine.
+     */
+    public Set<Rule> rulesThatPop(final int stack) {
+        return rulesThatPop.get(stack);
+    }
+
+    /**
+     * LL(1) decisions of the machine, indexed by the cell {@code stack * inputCount() + input}.
+     * <p>
+     * The decision for a cell is the rule that reads the input symbol, possibly after a sequence of rules that read nothing,
+     * each of which is immediately followed by a rule that pops the first symbol it pushed.
+     * For the empty input symbol, the decision is a rule that reads nothing and pushes nothing, which ends a sentence.
+     *
+     * @param rules  decided rules, or {@link #NONE}
+     * @param pushes  stack symbols that replace the top one, from the bottom to the top, or {@code null} if there is no decision
+     */
+    public record LL1Transitions (int[] rules, int[][] pushes) {}
+
+    /**
+     * @throws IllegalStateException  if the machine is not LL(1) or is left-recursive
+     */
+    public LL1Transitions ll1Transitions() {
+        final var rules = new int[stackSymbols.length * inputSymbols.length];
+        final var pushes = new int[rules.length][];
+        Arrays.fill(rules, NONE);
+        for (int stack = 0; stack < stackSymbols.length; stack++) {
+            for (int input = 0; input < inputSymbols.length; input++) {
+                final var candidates = ll1Transitions(stack, input, Set.of()).limit(2).toList();
+                if (candidates.size() > 1) {
+                    throw new IllegalStateException("The machine is not LL(1): symbol %s has several transitions on %s."
+                                                            .formatted(stackSymbols[stack], inputSymbols[input]));
+                }
+                if (!candidates.isEmpty()) {
+                    rules[stack * inputSymbols.length + input] = candidates.getFirst().rule();
+                    pushes[stack * inputSymbols.length + input] = candidates.getFirst().pushes();
+                }
+            }
+        }
+        return new LL1Transitions(rules, pushes);
+    }
+
+    private record Candidate (int rule, int[] pushes) {}
+
+    private Stream<Candidate> ll1Transitions(final int stack, final int input, final Set<Integer> visited) {
+        if (visited.contains(stack)) {
+            throw new IllegalStateException("The machine is left-recursive: %s.".formatted(visited.stream().map(this::stackSymbol).toList()));
+        }
+        final var empty = inputIds.getOrDefault(Symbol.empty, NONE);
+        return IntStream.range(firstRuleThatPops(stack), endRuleThatPops(stack))
+                .boxed()
+                .flatMap(rule -> {
+                    final int[] bottomUp = IntStream.range(0, pushCount(rule)).map(i -> push(rule, pushCount(rule) - 1 - i)).toArray();
+                    if (reads(rule) == input && (input != empty || bottomUp.length == 0)) {
+                        return Stream.of(new Candidate(rule, bottomUp));
+                    }
+                    else if (reads(rule) == empty && bottomUp.length > 0) {
+                        // The first pushed symbol is immediately replaced.
+                        final int[] rest = Arrays.copyOf(bottomUp, bottomUp.length - 1);
+                        return ll1Transitions(bottomUp[bottomUp.length - 1], input, insert(visited, stack))
+                                .map(c -> {
+                                    final int[] result = Arrays.copyOf(rest, rest.length + c.pushes().length);
+                                    System.arraycopy(c.pushes(), 0, result, rest.length, c.pushes().length);
+                                    return new Candidate(c.rule(), result);
+                                });
+                    }
+                    else {
+                        return Stream.empty();
+                    }
+                });
+    }
+
+}
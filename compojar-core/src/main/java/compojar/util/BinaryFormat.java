@@ -0,0 +1,187 @@
+package compojar.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoding of values in the binary format of ASTs, used by generated codecs.
+ * <p>
+ * Integral values are written as variable-length integers (7 bits per byte, least significant group first),
+ * where signed values are zigzag-encoded, so that small negative values are short too.
+ * Strings are written as the length of their UTF-8 encoding followed by the encoding itself.
+ * <p>
+ * Strings are encoded directly into the buffer, without an intermediate array.
+ * If the buffer is backed by an array, strings are decoded directly from it, without copying their bytes.
+ */
+public final class BinaryFormat {
+
+    public static void writeVarint(final ByteBuffer buffer, final int value) {
+        writeVarlong(buffer, value & 0xFFFFFFFFL);
+    }
+
+    public static int readVarint(final ByteBuffer buffer) {
+        final long value = readVarlong(buffer);
+        if (value >>> 32 != 0) {
+            throw new IllegalArgumentException("Malformed varint at position %s.".formatted(buffer.position()));
+        }
+        return (int) value;
+    }
+
+    public static void writeVarlong(final ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static long readVarlong(final ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint at position %s.".formatted(buffer.position()));
+    }
+
+    public static void writeLong(final ByteBuffer buffer, final long value) {
+        writeVarlong(buffer, value << 1 ^ value >> 63);
+    }
+
+    public static long readLong(final ByteBuffer buffer) {
+        final long value = readVarlong(buffer);
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    public static void writeInt(final ByteBuffer buffer, final int value) {
+        writeLong(buffer, value);
+    }
+
+    public static int readInt(final ByteBuffer buffer) {
+        return (int) readLong(buffer);
+    }
+
+    public static void writeShort(final ByteBuffer buffer, final short value) {
+        writeLong(buffer, value);
+    }
+
+    public static short readShort(final ByteBuffer buffer) {
+        return (short) readLong(buffer);
+    }
+
+    public static void writeByte(final ByteBuffer buffer, final byte value) {
+        buffer.put(value);
+    }
+
+    public static byte readByte(final ByteBuffer buffer) {
+        return buffer.get();
+    }
+
+    public static void writeChar(final ByteBuffer buffer, final char value) {
+        writeVarint(buffer, value);
+    }
+
+    public static char readChar(final ByteBuffer buffer) {
+        return (char) readVarint(buffer);
+    }
+
+    public static void writeBoolean(final ByteBuffer buffer, final boolean value) {
+        buffer.put((byte) (value ? 1 : 0));
+    }
+
+    public static boolean readBoolean(final ByteBuffer buffer) {
+        return buffer.get() != 0;
+    }
+
+    public static void writeDouble(final ByteBuffer buffer, final double value) {
+        buffer.putDouble(value);
+    }
+
+    public static double readDouble(final ByteBuffer buffer) {
+        return buffer.getDouble();
+    }
+
+    public static void writeFloat(final ByteBuffer buffer, final float value) {
+        buffer.putFloat(value);
+    }
+
+    public static float readFloat(final ByteBuffer buffer) {
+        return buffer.getFloat();
+    }
+
+    public static void writeString(final ByteBuffer buffer, final String value) {
+        writeVarint(buffer, utf8Length(value));
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            }
+            else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6))
+                        .put((byte) (0x80 | c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | codePoint >> 18))
+                        .put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3F))
+                        .put((byte) (0x80 | codePoint & 0x3F));
+            }
+            else if (Character.isSurrogate(c)) {
+                // An unpaired surrogate is replaced, like in String.getBytes.
+                buffer.put((byte) '?');
+            }
+            else {
+                buffer.put((byte) (0xE0 | c >> 12))
+                        .put((byte) (0x80 | c >> 6 & 0x3F))
+                        .put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    public static String readString(final ByteBuffer buffer) {
+        final int length = readVarint(buffer);
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("String length %s exceeds the remaining %s bytes.".formatted(length, buffer.remaining()));
+        }
+        final int position = buffer.position();
+        final String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+        }
+        else {
+            final var bytes = new byte[length];
+            buffer.get(position, bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(position + length);
+        return value;
+    }
+
+    private static int utf8Length(final String value) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // 4 bytes for 2 chars
+                    length += 2;
+                    i++;
+                }
+                else if (!Character.isSurrogate(c)) {
+                    length += 2;
+                }
+            }
+            else if (c >= 0x80) {
+                length += 1;
+            }
+        }
+        return length;
+    }
+
+    private BinaryFormat() {}
+
+}
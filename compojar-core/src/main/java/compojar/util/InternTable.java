@@ -0,0 +1,60 @@
+package compojar.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A table of canonical instances of immutable values, i.e., hash-consing.
+ * Values must implement structural {@code equals} and {@code hashCode}.
+ * <p>
+ * The table does not keep its values alive: a value is removed once it is no longer referenced elsewhere.
+ * <p>
+ * The table is split into segments by hash code, each guarded by its own lock, so that threads interning different
+ * values rarely contend.
+ */
+public final class InternTable {
+
+    private static final int SEGMENT_COUNT = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4);
+
+    // Values are held weakly too, since a strong reference from a value would keep its own key alive.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Map<Object, WeakReference<Object>>[] segments = new Map[SEGMENT_COUNT];
+
+    public InternTable() {
+        Arrays.setAll(segments, $ -> new WeakHashMap<>());
+    }
+
+    /**
+     * Returns the canonical instance that is equal to the value, making the value canonical if there is no such instance.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T intern(final T value) {
+        final var segment = segmentFor(value.hashCode());
+        synchronized (segment) {
+            final var ref = segment.get(value);
+            final var existing = ref == null ? null : ref.get();
+            if (existing != null) {
+                return (T) existing;
+            }
+            segment.put(value, new WeakReference<>(value));
+            return value;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (final var segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Map<Object, WeakReference<Object>> segmentFor(final int hash) {
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+}
@@ -0,0 +1,120 @@
+package compojar.util;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * A growable stack of values that is shared by all fluent interface implementations taking part in a single sentence.
+ * <p>
+ * Implementations push parameters and parsed AST nodes onto the stack, and push continuations (integer identifiers)
+ * onto a separate continuation stack.
+ * A continuation is resumed once all of its inputs are on top of the stack, and it either replaces them with an AST node
+ * or returns the next fluent interface implementation.
+ * <p>
+ * Fluent interface implementations are stateless views of the stack, and are allocated at most once per stack.
+ * Therefore, a sentence may not be branched: each intermediate result may be used only once.
+ */
+public final class OperandStack {
+
+    @FunctionalInterface
+    public interface Continuations {
+
+        /**
+         * Runs the continuation.
+         *
+         * @return  the next fluent interface implementation, or {@code null} if the continuation has replaced its inputs
+         *          with a single value, which should be passed to the enclosing continuation
+         */
+        Object resume(OperandStack stack, int continuation);
+
+    }
+
+    private final Continuations continuations;
+    private final Object[] views;
+    private Object[] values = new Object[16];
+    private int size;
+    private int[] conts = new int[16];
+    private int contsSize;
+
+    public OperandStack(final int viewCount, final Continuations continuations) {
+        this.continuations = continuations;
+        this.views = new Object[viewCount];
+    }
+
+    public void push(final Object value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Returns the value at the specified depth, where depth 0 corresponds to the top of the stack.
+     */
+    public Object peek(final int depth) {
+        return values[size - 1 - depth];
+    }
+
+    public void drop(final int n) {
+        Arrays.fill(values, size - n, size, null);
+        size -= n;
+    }
+
+    /**
+     * Replaces {@code n} values on top of the stack with the specified value.
+     */
+    public void reduce(final int n, final Object value) {
+        drop(n);
+        push(value);
+    }
+
+    public void pushContinuation(final int continuation) {
+        if (contsSize == conts.length) {
+            conts = Arrays.copyOf(conts, contsSize * 2);
+        }
+        conts[contsSize++] = continuation;
+    }
+
+    /**
+     * Pops all consecutive occurrences of the continuation from the top of the continuation stack.
+     *
+     * @return  the number of popped continuations
+     */
+    public int popContinuations(final int continuation) {
+        int n = 0;
+        while (contsSize > 0 && conts[contsSize - 1] == continuation) {
+            contsSize--;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Resumes continuations, starting from the top one, until one of them returns the next fluent interface implementation.
+     * If the continuation stack is exhausted, the value on top of the stack is the result of the whole sentence.
+     */
+    public Object resume() {
+        while (contsSize > 0) {
+            final var next = continuations.resume(this, conts[--contsSize]);
+            if (next != null) {
+                return next;
+            }
+        }
+        final var result = values[--size];
+        values[size] = null;
+        return result;
+    }
+
+    /**
+     * Returns the view with the specified identifier, creating it if necessary.
+     */
+    public Object view(final int id, final Function<? super OperandStack, ?> factory) {
+        var view = views[id];
+        if (view == null) {
+            view = factory.apply(this);
+            views[id] = view;
+        }
+        return view;
+    }
+
+}
@@ -0,0 +1,259 @@
+package compojar.util;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * An immutable sorted map, implemented as an AVL tree with path copying.
+ * <p>
+ * Updates cost {@code O(log n)} and share all untouched subtrees with the original map.
+ * Iteration follows the order of keys.
+ *
+ * @param <K>  type of keys
+ * @param <V>  type of values
+ */
+public final class PersistentTreeMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final PersistentTreeMap<?, ?> EMPTY_NATURAL = new PersistentTreeMap<>(null, (Comparator) Comparator.naturalOrder());
+
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> PersistentTreeMap<K, V> empty() {
+        return (PersistentTreeMap<K, V>) EMPTY_NATURAL;
+    }
+
+    public static <K, V> PersistentTreeMap<K, V> empty(Comparator<? super K> comparator) {
+        return new PersistentTreeMap<>(null, comparator);
+    }
+
+    private final Node<K, V> root;
+    private final Comparator<? super K> comparator;
+
+    private PersistentTreeMap(final Node<K, V> root, final Comparator<? super K> comparator) {
+        this.root = root;
+        this.comparator = comparator;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public Optional<V> get(K key) {
+        var node = root;
+        while (node != null) {
+            final int cmp = comparator.compare(key, node.key);
+            if (cmp == 0) {
+                return Optional.of(node.value);
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return Optional.empty();
+    }
+
+    public boolean containsKey(K key) {
+        return get(key).isPresent();
+    }
+
+    public PersistentTreeMap<K, V> put(K key, V value) {
+        Objects.requireNonNull(value, "value must not be null");
+        final var newRoot = put(root, key, value);
+        return newRoot == root ? this : new PersistentTreeMap<>(newRoot, comparator);
+    }
+
+    /**
+     * Applies the function to the value associated with the key (or to an empty optional if there is no such value).
+     * If the function returns an empty optional, the key is removed.
+     */
+    public PersistentTreeMap<K, V> update(K key, Function<? super Optional<V>, Optional<V>> fn) {
+        return fn.apply(get(key))
+                .map(value -> put(key, value))
+                .orElseGet(() -> remove(key));
+    }
+
+    public PersistentTreeMap<K, V> remove(K key) {
+        final var newRoot = remove(root, key);
+        return newRoot == root ? this : new PersistentTreeMap<>(newRoot, comparator);
+    }
+
+    public Stream<V> values() {
+        return entries().map(Map.Entry::getValue);
+    }
+
+    public Stream<K> keys() {
+        return entries().map(Map.Entry::getKey);
+    }
+
+    public Stream<Map.Entry<K, V>> entries() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new Iterator<>() {
+            private final Deque<Node<K, V>> stack = new ArrayDeque<>();
+            {
+                pushLeft(root);
+            }
+
+            private void pushLeft(Node<K, V> node) {
+                for (; node != null; node = node.left) {
+                    stack.push(node);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                final var node = stack.pop();
+                pushLeft(node.right);
+                return Map.entry(node.key, node.value);
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return Spliterators.spliterator(iterator(), size(),
+                                        Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PersistentTreeMap<?, ?> that) || size() != that.size()) {
+            return false;
+        }
+        final var iter = that.iterator();
+        for (final var entry : this) {
+            if (!entry.equals(iter.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return entries().mapToInt(Map.Entry::hashCode).sum();
+    }
+
+    @Override
+    public String toString() {
+        return entries().map(e -> "%s=%s".formatted(e.getKey(), e.getValue())).collect(joining(", ", "{", "}"));
+    }
+
+    // ::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // : AVL tree
+    // ::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    private record Node<K, V> (K key, V value, Node<K, V> left, Node<K, V> right, int height, int size) {}
+
+    private static <K, V> Node<K, V> node(K key, V value, Node<K, V> left, Node<K, V> right) {
+        return new Node<>(key, value, left, right,
+                          1 + Math.max(height(left), height(right)),
+                          1 + size(left) + size(right));
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private Node<K, V> put(Node<K, V> node, K key, V value) {
+        if (node == null) {
+            return node(key, value, null, null);
+        }
+        final int cmp = comparator.compare(key, node.key);
+        if (cmp == 0) {
+            return node.value == value ? node : node(key, value, node.left, node.right);
+        }
+        else if (cmp < 0) {
+            final var left = put(node.left, key, value);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        else {
+            final var right = put(node.right, key, value);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        }
+    }
+
+    private Node<K, V> remove(Node<K, V> node, K key) {
+        if (node == null) {
+            return null;
+        }
+        final int cmp = comparator.compare(key, node.key);
+        if (cmp < 0) {
+            final var left = remove(node.left, key);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        else if (cmp > 0) {
+            final var right = remove(node.right, key);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        }
+        else if (node.left == null) {
+            return node.right;
+        }
+        else if (node.right == null) {
+            return node.left;
+        }
+        else {
+            var min = node.right;
+            while (min.left != null) {
+                min = min.left;
+            }
+            return balance(min.key, min.value, node.left, removeMin(node.right));
+        }
+    }
+
+    private static <K, V> Node<K, V> removeMin(Node<K, V> node) {
+        return node.left == null
+                ? node.right
+                : balance(node.key, node.value, removeMin(node.left), node.right);
+    }
+
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+        final int diff = height(left) - height(right);
+        if (diff > 1) {
+            return height(left.left) >= height(left.right)
+                    ? rotateRight(key, value, left, right)
+                    : rotateRight(key, value, rotateLeft(left.key, left.value, left.left, left.right), right);
+        }
+        else if (diff < -1) {
+            return height(right.right) >= height(right.left)
+                    ? rotateLeft(key, value, left, right)
+                    : rotateLeft(key, value, left, rotateRight(right.key, right.value, right.left, right.right));
+        }
+        else {
+            return node(key, value, left, right);
+        }
+    }
+
+    private static <K, V> Node<K, V> rotateRight(K key, V value, Node<K, V> left, Node<K, V> right) {
+        return node(left.key, left.value, left.left, node(key, value, left.right, right));
+    }
+
+    private static <K, V> Node<K, V> rotateLeft(K key, V value, Node<K, V> left, Node<K, V> right) {
+        return node(right.key, right.value, node(key, value, left, right.left), right.right);
+    }
+
+}
@@ -0,0 +1,12 @@
+package compojar.util;
+
+/**
+ * An immutable list that grows at its end, where {@code null} is the empty list.
+ * <p>
+ * Generated fluent API implementations use it to collect elements of right-recursive lists, so that the AST of a list can
+ * be built by a loop that starts from the last element.
+ *
+ * @param init  all elements but the last one
+ * @param last  the last element
+ */
+public record Snoc<E> (Snoc<E> init, E last) {}
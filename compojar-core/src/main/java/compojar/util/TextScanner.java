@@ -0,0 +1,266 @@
+package compojar.util;
+
+/**
+ * A scanner of tokens of a textual sentence, used by generated text parsers.
+ * <p>
+ * A sentence is a sequence of words, which are names of terminals, each followed by literals of its parameters.
+ * Tokens are separated by whitespace, and are recognised by looking at their first character, without backtracking.
+ * Literals are numbers, {@code true} and {@code false}, characters in single quotes, and strings in double quotes.
+ * Characters and strings support escape sequences {@code \\}, {@code \"}, {@code \'}, {@code \n}, {@code \r} and {@code \t}.
+ * <p>
+ * {@link java.nio.CharBuffer} is a {@link CharSequence}, so it can be scanned directly.
+ */
+public final class TextScanner {
+
+    private static final String[] BOOLEANS = {"false", "true"};
+
+    private final CharSequence input;
+    private int offset;
+
+    public TextScanner(final CharSequence input) {
+        this.input = input;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * Reads the next word and finds it among the specified words.
+     *
+     * @param words  sorted in the natural order of strings
+     * @return  index of the word, or -1 if the end of input has been reached
+     */
+    public int nextWord(final String[] words) {
+        skipWhitespace();
+        if (offset == input.length()) {
+            return -1;
+        }
+        final int start = offset;
+        if (!Character.isJavaIdentifierStart(input.charAt(offset))) {
+            throw error("Expected a word");
+        }
+        do {
+            offset++;
+        } while (offset < input.length() && Character.isJavaIdentifierPart(input.charAt(offset)));
+
+        int low = 0, high = words.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compare(words[mid], start, offset);
+            if (cmp < 0) {
+                low = mid + 1;
+            }
+            else if (cmp > 0) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        final var word = input.subSequence(start, offset);
+        offset = start;
+        throw error("Unknown word '%s'".formatted(word));
+    }
+
+    private int compare(final String word, final int start, final int end) {
+        final int n = Math.min(word.length(), end - start);
+        for (int i = 0; i < n; i++) {
+            final int diff = word.charAt(i) - input.charAt(start + i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return word.length() - (end - start);
+    }
+
+    public long nextLong() {
+        final int start = startNumber();
+        final boolean negative = input.charAt(offset) == '-';
+        if (negative) {
+            offset++;
+        }
+        if (offset == input.length() || !isDigit(input.charAt(offset))) {
+            offset = start;
+            throw error("Expected an integer");
+        }
+        long value = 0;
+        while (offset < input.length() && isDigit(input.charAt(offset))) {
+            // Accumulate negatively, so that the minimum value doesn't overflow.
+            final long next = value * 10 - (input.charAt(offset) - '0');
+            if (value < Long.MIN_VALUE / 10 || next > value) {
+                offset = start;
+                throw error("Integer is out of range");
+            }
+            value = next;
+            offset++;
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            offset = start;
+            throw error("Integer is out of range");
+        }
+        endToken(start);
+        return negative ? value : -value;
+    }
+
+    public int nextInt() {
+        final int start = offset;
+        final long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            offset = start;
+            throw error("Integer is out of range");
+        }
+        return (int) value;
+    }
+
+    public short nextShort() {
+        final int start = offset;
+        final long value = nextLong();
+        if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+            offset = start;
+            throw error("Integer is out of range");
+        }
+        return (short) value;
+    }
+
+    public byte nextByte() {
+        final int start = offset;
+        final long value = nextLong();
+        if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+            offset = start;
+            throw error("Integer is out of range");
+        }
+        return (byte) value;
+    }
+
+    public double nextDouble() {
+        final int start = startNumber();
+        while (offset < input.length() && !Character.isWhitespace(input.charAt(offset))) {
+            offset++;
+        }
+        try {
+            return Double.parseDouble(input.subSequence(start, offset).toString());
+        } catch (NumberFormatException e) {
+            offset = start;
+            throw error("Expected a number");
+        }
+    }
+
+    public float nextFloat() {
+        return (float) nextDouble();
+    }
+
+    public boolean nextBoolean() {
+        skipWhitespace();
+        final int start = offset;
+        final int i;
+        try {
+            i = nextWord(BOOLEANS);
+        } catch (IllegalArgumentException e) {
+            offset = start;
+            throw error("Expected a boolean");
+        }
+        if (i < 0) {
+            throw error("Expected a boolean");
+        }
+        return i == 1;
+    }
+
+    public char nextChar() {
+        skipWhitespace();
+        final int start = offset;
+        expect('\'');
+        final char c = nextCharInLiteral();
+        expect('\'');
+        endToken(start);
+        return c;
+    }
+
+    public String nextString() {
+        skipWhitespace();
+        final int start = offset;
+        expect('"');
+        final var builder = new StringBuilder();
+        while (offset < input.length() && input.charAt(offset) != '"') {
+            builder.append(nextCharInLiteral());
+        }
+        expect('"');
+        endToken(start);
+        return builder.toString();
+    }
+
+    /**
+     * Ensures that the whole input has been read.
+     */
+    public void expectEnd() {
+        skipWhitespace();
+        if (offset != input.length()) {
+            throw error("Expected the end of input");
+        }
+    }
+
+    public IllegalArgumentException error(final String message) {
+        return new IllegalArgumentException("%s at offset %s.".formatted(message, offset));
+    }
+
+    private char nextCharInLiteral() {
+        if (offset == input.length()) {
+            throw error("Unterminated literal");
+        }
+        final char c = input.charAt(offset++);
+        if (c != '\\') {
+            return c;
+        }
+        if (offset == input.length()) {
+            throw error("Unterminated literal");
+        }
+        return switch (input.charAt(offset++)) {
+            case '\\' -> '\\';
+            case '"' -> '"';
+            case '\'' -> '\'';
+            case 'n' -> '\n';
+            case 'r' -> '\r';
+            case 't' -> '\t';
+            default -> {
+                offset -= 2;
+                throw error("Illegal escape sequence");
+            }
+        };
+    }
+
+    private void expect(final char c) {
+        if (offset == input.length() || input.charAt(offset) != c) {
+            throw error("Expected '%s'".formatted(c));
+        }
+        offset++;
+    }
+
+    private int startNumber() {
+        skipWhitespace();
+        if (offset == input.length()) {
+            throw error("Expected a number");
+        }
+        return offset;
+    }
+
+    /**
+     * A token must be followed by whitespace or by the end of input.
+     */
+    private void endToken(final int start) {
+        if (offset < input.length() && !Character.isWhitespace(input.charAt(offset))) {
+            offset = start;
+            throw error("Malformed literal");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (offset < input.length() && Character.isWhitespace(input.charAt(offset))) {
+            offset++;
+        }
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+}
@@ -0,0 +1,184 @@
+package compojar.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A writer of tokens of a textual sentence, used by generated unparsers.
+ * It is the counterpart of {@link TextScanner}: written sentences can be read back by a generated text parser.
+ * <p>
+ * Tokens are separated by a single space and are written character by character, either to an {@link Appendable} or,
+ * encoded in UTF-8, to a {@link ByteBuffer}.
+ * No intermediate strings are built, except for floating-point numbers, whose shortest representation is computed by
+ * {@link Double#toString(double)}.
+ */
+public final class TextWriter {
+
+    private final Appendable out;
+    private final ByteBuffer buffer;
+    /** Whether a token has already been written, so the next one must be preceded by a separator. */
+    private boolean separate;
+    /** A high surrogate, written to the buffer, that awaits the low surrogate of its code point. */
+    private char highSurrogate;
+    private final char[] digits = new char[20];
+
+    public TextWriter(final Appendable out) {
+        this.out = out;
+        this.buffer = null;
+    }
+
+    public TextWriter(final ByteBuffer buffer) {
+        this.out = null;
+        this.buffer = buffer;
+    }
+
+    public void word(final String word) {
+        startToken();
+        putAll(word);
+    }
+
+    public void writeLong(final long value) {
+        startToken();
+        if (value < 0) {
+            put('-');
+        }
+        // Accumulate negatively, so that the minimum value doesn't overflow.
+        long rest = value < 0 ? value : -value;
+        int n = 0;
+        do {
+            digits[n++] = (char) ('0' - rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        while (n > 0) {
+            put(digits[--n]);
+        }
+    }
+
+    public void writeInt(final int value) {
+        writeLong(value);
+    }
+
+    public void writeShort(final short value) {
+        writeLong(value);
+    }
+
+    public void writeByte(final byte value) {
+        writeLong(value);
+    }
+
+    public void writeDouble(final double value) {
+        startToken();
+        putAll(Double.toString(value));
+    }
+
+    /**
+     * Floats are written as the doubles they convert to, so that they are read back exactly.
+     */
+    public void writeFloat(final float value) {
+        writeDouble(value);
+    }
+
+    public void writeBoolean(final boolean value) {
+        word(value ? "true" : "false");
+    }
+
+    public void writeChar(final char value) {
+        startToken();
+        put('\'');
+        putInLiteral(value);
+        put('\'');
+    }
+
+    public void writeString(final String value) {
+        startToken();
+        put('"');
+        for (int i = 0; i < value.length(); i++) {
+            putInLiteral(value.charAt(i));
+        }
+        put('"');
+    }
+
+    private void startToken() {
+        if (separate) {
+            put(' ');
+        }
+        separate = true;
+    }
+
+    private void putInLiteral(final char c) {
+        switch (c) {
+            case '\\' -> { put('\\'); put('\\'); }
+            case '"' -> { put('\\'); put('"'); }
+            case '\'' -> { put('\\'); put('\''); }
+            case '\n' -> { put('\\'); put('n'); }
+            case '\r' -> { put('\\'); put('r'); }
+            case '\t' -> { put('\\'); put('t'); }
+            default -> put(c);
+        }
+    }
+
+    private void putAll(final String s) {
+        if (out != null) {
+            try {
+                out.append(s);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        else {
+            for (int i = 0; i < s.length(); i++) {
+                put(s.charAt(i));
+            }
+        }
+    }
+
+    private void put(final char c) {
+        if (out != null) {
+            try {
+                out.append(c);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        else {
+            encode(c);
+        }
+    }
+
+    private void encode(final char c) {
+        if (highSurrogate != 0) {
+            final char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                final int codePoint = Character.toCodePoint(high, c);
+                buffer.put((byte) (0xF0 | codePoint >> 18))
+                        .put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3F))
+                        .put((byte) (0x80 | codePoint & 0x3F));
+                return;
+            }
+            // An unpaired surrogate is replaced, like in String.getBytes.
+            buffer.put((byte) '?');
+        }
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        }
+        else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | c >> 6))
+                    .put((byte) (0x80 | c & 0x3F));
+        }
+        else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        }
+        else if (Character.isLowSurrogate(c)) {
+            buffer.put((byte) '?');
+        }
+        else {
+            buffer.put((byte) (0xE0 | c >> 12))
+                    .put((byte) (0x80 | c >> 6 & 0x3F))
+                    .put((byte) (0x80 | c & 0x3F));
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package compojar.bnf;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static compojar.bnf.BnfBuilder.start;
+import static compojar.bnf.Symbol.variable;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BnfIndexTest {
+
+    @Test
+    public void rules_are_found_by_their_lhs() {
+        var g = new AbstractGrammar() {
+            Variable E, Add, N;
+            Terminal plus, one;
+
+            BNF bnf() {
+                return start(E)
+                        .select(E, Add, N)
+                        .derive(Add, N, plus, E)
+                        .derive(N, one)
+                        .$();
+            }
+        };
+        var bnf = g.bnf();
+
+        assertThat(bnf.requireRuleFor(g.Add)).isEqualTo(Rule.derivation(g.Add, g.N, g.plus, g.E));
+        assertThat(bnf.requireSelectionFor(g.E).rhs()).containsExactly(g.Add, g.N);
+        assertThat(bnf.ruleFor(variable("Missing"))).isEmpty();
+        assertThatThrownBy(() -> bnf.requireSelectionFor(g.N)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> bnf.requireRuleFor(variable("Missing"))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void variables_are_found_by_name() {
+        var g = new AbstractGrammar() {
+            Variable E, N;
+            Terminal one;
+
+            BNF bnf() {
+                return start(E)
+                        .select(E, N)
+                        .derive(N, one)
+                        .$();
+            }
+        };
+        var bnf = g.bnf();
+
+        assertThat(bnf.getVariable(new StringBuilder("N"))).isEqualTo(g.N);
+        assertThatThrownBy(() -> bnf.getVariable("one")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void rules_using_a_symbol_are_those_that_contain_it_in_their_rhs() {
+        var g = new AbstractGrammar() {
+            Variable E, Add, Neg, N;
+            Terminal plus, minus, one;
+
+            BNF bnf() {
+                return start(E)
+                        .select(E, Add, Neg, N)
+                        .derive(Add, N, plus, N)
+                        .derive(Neg, minus, E)
+                        .derive(N, one)
+                        .$();
+            }
+        };
+        var bnf = g.bnf();
+
+        assertThat(bnf.rulesUsing(g.N).map(Rule::lhs)).containsExactlyInAnyOrder(g.E, g.Add);
+        assertThat(bnf.rulesUsing(g.E).map(Rule::lhs)).containsExactly(g.Neg);
+        assertThat(bnf.rulesUsing(g.minus).map(Rule::lhs)).containsExactly(g.Neg);
+        assertThat(bnf.rulesUsing(Symbol.terminal("N"))).isEmpty();
+    }
+
+    @Test
+    public void updated_rules_are_visible_to_lookups_and_the_original_bnf_is_unchanged() {
+        var g = new AbstractGrammar() {
+            Variable E, Add, N;
+            Terminal plus, one, two;
+
+            BNF bnf() {
+                return start(E)
+                        .select(E, Add, N)
+                        .derive(Add, N, plus, E)
+                        .derive(N, one)
+                        .$();
+            }
+        };
+        var bnf = g.bnf();
+        var bnf2 = bnf.overrideRule(Rule.derivation(g.Add, g.N, g.plus, g.N, g.two));
+
+        assertThat(bnf2.rulesUsing(g.E)).isEmpty();
+        assertThat(bnf2.rulesUsing(g.two).map(Rule::lhs)).containsExactly(g.Add);
+        assertThat(bnf2.terminals()).contains(g.two);
+        assertThat(bnf.rulesUsing(g.E).map(Rule::lhs)).containsExactly(g.Add);
+        assertThat(bnf.terminals()).doesNotContain(g.two);
+        assertThat(bnf2.rules()).hasSize(3).doesNotContain(bnf.requireRuleFor(g.Add));
+        assertThatThrownBy(() -> bnf.addRules(List.of(Rule.derivation(g.N, g.two))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void removeUnused_removes_all_variables_unreachable_from_start() {
+        var g = new AbstractGrammar() {
+            Variable E, N, Dead, Loop1, Loop2;
+            Terminal one, x;
+
+            BNF bnf() {
+                return start(E)
+                        .select(E, N)
+                        .derive(N, one)
+                        .derive(Dead, Loop1, x)
+                        .derive(Loop1, x, Loop2)
+                        .derive(Loop2, x, Loop1)
+                        .$();
+            }
+        };
+        var result = g.bnf().removeUnused();
+
+        assertThat(result.snd()).containsExactly(g.Dead, g.Loop1, g.Loop2);
+        assertThat(result.fst().rules()).map(Rule::lhs).containsExactly(g.E, g.N);
+    }
+
+}
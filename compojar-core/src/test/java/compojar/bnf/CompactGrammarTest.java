@@ -0,0 +1,63 @@
+package compojar.bnf;
+
+import org.junit.Test;
+
+import static compojar.bnf.BnfBuilder.start;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompactGrammarTest {
+
+    static final Key<String> NOTE = new Key<>() {};
+
+    @Test
+    public void conversion_to_compact_form_and_back_preserves_parameters_and_metadata() {
+        var g = new AbstractGrammar() {
+            Variable E, Add, N;
+            Terminal plus, num;
+
+            BNF bnf() {
+                return start(E)
+                        .select(E, Add, N)
+                        .derive(Add, N.with(NOTE, "left"), plus, E)
+                        .derive(N, num.parameters(int.class, "n"))
+                        .$();
+            }
+        };
+        var bnf = g.bnf();
+        var compact = bnf.compact();
+        var restored = compact.toBNF();
+
+        assertThat(restored).isEqualTo(bnf);
+        assertThat(restored.requireRuleFor(g.Add).rhs().getFirst().getOpt(NOTE)).contains("left");
+        assertThat(((Terminal) restored.requireRuleFor(g.N).rhs().getFirst()).getParameters())
+                .containsExactly(new Parameter(int.class, "n"));
+    }
+
+    @Test
+    public void occurrences_of_a_symbol_share_one_id() {
+        var g = new AbstractGrammar() {
+            Variable E, Add, N;
+            Terminal plus, num;
+
+            BNF bnf() {
+                return start(E)
+                        .select(E, Add, N)
+                        .derive(Add, N.with(NOTE, "left"), plus, N)
+                        .derive(N, num)
+                        .$();
+            }
+        };
+        var compact = g.bnf().compact();
+        var symbols = compact.symbols();
+
+        int add = compact.ruleFor(symbols.id(g.Add));
+        assertThat(compact.rhsLength(add)).isEqualTo(3);
+        assertThat(compact.rhsSymbol(compact.rhsStart(add))).isEqualTo(compact.rhsSymbol(compact.rhsStart(add) + 2))
+                                                            .isEqualTo(symbols.id(g.N));
+        assertThat(symbols.isTerminal(compact.rhsSymbol(compact.rhsStart(add) + 1))).isTrue();
+        assertThat(compact.isSelection(compact.ruleFor(compact.start()))).isTrue();
+        assertThat(compact.ruleFor(symbols.id(g.plus))).isEqualTo(-1);
+        assertThat(compact.symbolCount()).isEqualTo(5);
+    }
+
+}
@@ -0,0 +1,65 @@
+package compojar.bnf;
+
+import org.junit.Test;
+
+import static compojar.bnf.BnfBuilder.start;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GrammarAnalysisTest {
+
+    @Test
+    public void nullable_first_follow_and_reachable_sets() {
+        var g = new AbstractGrammar() {
+            Variable S, A, Opt, B, Unused;
+            Terminal a, b, c, x;
+
+            BNF bnf() {
+                return start(S)
+                        .derive(S, Opt, A, c)
+                        .select(Opt, A, B)
+                        .derive(A, a)
+                        .derive(B)
+                        .derive(Unused, x)
+                        .$();
+            }
+        };
+        var analysis = g.bnf().analysis();
+
+        assertThat(analysis.nullableVariables()).containsExactly(g.B, g.Opt);
+        assertThat(analysis.isNullable(g.S)).isFalse();
+        assertThat(analysis.first(g.S)).containsExactlyInAnyOrder(g.a);
+        assertThat(analysis.first(g.Opt)).containsExactlyInAnyOrder(g.a);
+        assertThat(analysis.follow(g.Opt)).containsExactlyInAnyOrder(g.a);
+        assertThat(analysis.follow(g.A)).containsExactlyInAnyOrder(g.a, g.c);
+        assertThat(analysis.follow(g.B)).containsExactlyInAnyOrder(g.a);
+        assertThat(analysis.isReachable(g.B)).isTrue();
+        assertThat(analysis.isReachable(g.Unused)).isFalse();
+    }
+
+    @Test
+    public void first_conflicts_are_propagated_through_leading_positions() {
+        var g = new AbstractGrammar() {
+            Variable S, T, X, Y, Z, W;
+            Terminal x, y, w;
+
+            BNF bnf() {
+                return start(S)
+                        .select(S, T, W)
+                        .select(T, X, Y, Z)
+                        .derive(X, x)
+                        .derive(Y, y)
+                        .derive(Z, Y, x)
+                        .derive(W, w, T)
+                        .$();
+            }
+        };
+        var analysis = g.bnf().analysis();
+
+        assertThat(analysis.hasFirstConflict(g.T)).isTrue();
+        assertThat(analysis.hasFirstConflict(g.S)).isTrue();
+        // T occurs in W, but not in a leading position.
+        assertThat(analysis.hasFirstConflict(g.W)).isFalse();
+        assertThat(analysis.hasFirstConflict(g.Z)).isFalse();
+    }
+
+}
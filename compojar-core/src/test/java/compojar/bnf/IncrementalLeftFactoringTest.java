@@ -0,0 +1,60 @@
+package compojar.bnf;
+
+import compojar.gen.AstGenerator;
+import compojar.gen.Namer;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static compojar.bnf.BnfBuilder.start;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IncrementalLeftFactoringTest {
+
+    @Test
+    public void incremental_and_parallel_left_factoring_produce_the_same_result_as_the_sequential_one() {
+        var g = new AbstractGrammar() {
+            Variable S, A, B, C, D, P, Q, R, T, U, W;
+            Terminal x, y, z, k, m, n, q, r, u, w;
+
+            BNF bnf() {
+                return start(S)
+                        .select(S, A, B, C, D, P)
+                        .derive(A, x, y)
+                        .derive(B, x, z, T)
+                        .derive(C, k, m)
+                        .derive(D, k, n, T)
+                        .select(P, Q, R)
+                        .derive(Q, q, T)
+                        .derive(R, r)
+                        .select(T, U, W)
+                        .derive(U, u)
+                        .derive(W, w)
+                        .$();
+            }
+        };
+        var bnf = g.bnf();
+
+        var expected = new LeftFactoring(new Namer("LF", "lf"))
+                .apply(new LeftFactoring.Data(bnf, new AstGenerator(new Namer("LF", "lf"), bnf).generate().snd()));
+        var actual = new LeftFactoring(new Namer("LF", "lf"))
+                .applyIncrementally(new LeftFactoring.Data(bnf, new AstGenerator(new Namer("LF", "lf"), bnf).generate().snd()));
+
+        assertThat(actual.data()).isEqualTo(expected);
+        assertThat(actual.rewrites()).isEqualTo(2);
+        assertThat(actual.skippedChecks()).isPositive();
+
+        var pool = new ForkJoinPool(4);
+        try {
+            var parallel = new LeftFactoring(new Namer("LF", "lf"), pool)
+                    .applyIncrementally(new LeftFactoring.Data(bnf, new AstGenerator(new Namer("LF", "lf"), bnf).generate().snd()));
+            var parallelNonIncremental = new LeftFactoring(new Namer("LF", "lf"), pool)
+                    .apply(new LeftFactoring.Data(bnf, new AstGenerator(new Namer("LF", "lf"), bnf).generate().snd()));
+            assertThat(parallel.data()).isEqualTo(expected);
+            assertThat(parallelNonIncremental).isEqualTo(expected);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
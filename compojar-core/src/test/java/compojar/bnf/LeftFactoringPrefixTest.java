@@ -0,0 +1,40 @@
+package compojar.bnf;
+
+import compojar.gen.AstGenerator;
+import compojar.gen.Namer;
+import org.junit.Test;
+
+import static compojar.bnf.BnfBuilder.start;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LeftFactoringPrefixTest {
+
+    @Test
+    public void prefix_that_begins_the_earliest_chain_is_factored_first() {
+        var g = new AbstractGrammar() {
+            Variable S, A, B, C, D;
+            Terminal x, y, z, k, m, n;
+
+            BNF bnf() {
+                return start(S)
+                        .select(S, A, B, C, D)
+                        .derive(A, k, m)
+                        .derive(B, x, y)
+                        .derive(C, x, z)
+                        .derive(D, k, n)
+                        .$();
+            }
+        };
+        var bnf = g.bnf();
+        var namer = new Namer("LF", "lf");
+
+        var result = new LeftFactoring(namer).applyIncrementally(new LeftFactoring.Data(bnf, new AstGenerator(namer, bnf).generate().snd()));
+        var prefixRules = result.data().bnf().rules().stream()
+                .filter(r -> r.lhs().name().toString().startsWith("PREF") && !r.lhs().name().toString().endsWith("_K"))
+                .sorted(Rule.compareByLhs)
+                .toList();
+
+        assertThat(prefixRules).map(r -> (Symbol) r.rhs().getFirst()).containsExactly(g.k, g.x);
+    }
+
+}
@@ -0,0 +1,89 @@
+package compojar.bnf;
+
+import com.squareup.javapoet.ClassName;
+import compojar.gen.ApiGenerator;
+import compojar.gen.Namer;
+import compojar.gen.ParserInfo;
+import compojar.stack.StackMachine;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static compojar.bnf.Rule.derivation;
+import static compojar.bnf.Rule.selection;
+import static compojar.bnf.Symbol.terminal;
+import static compojar.bnf.Symbol.variable;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StackSymbolMinimisationTest {
+
+    static final Terminal t = terminal("t"), u = terminal("u"), v = terminal("v"), $ = terminal("$");
+    static final Variable S = variable("S"), L = variable("L"), R = variable("R"), U1 = variable("U1"), U2 = variable("U2"),
+            P1 = variable("P1"), P2 = variable("P2"), I1 = variable("I1"), I2 = variable("I2");
+    static final ClassName s = ClassName.get("p", "S"), p = ClassName.get("p", "P"), i = ClassName.get("p", "I");
+
+    // U1 and U2 are bridges of the same terminal, thus P1 and P2 become equivalent.
+    static final BNF bnf = new BNF(List.of(selection(S, L, R),
+                                           derivation(L, t, P1),
+                                           derivation(R, v, P2),
+                                           derivation(P1, u, U1),
+                                           derivation(P2, u, U2),
+                                           derivation(U1, u),
+                                           derivation(U2, u)),
+                                   S);
+    static final AstMetadata astMetadata = AstMetadata.of(Map.of(S, new ParserInfo.Full(s),
+                                                                 L, new ParserInfo.Full(s),
+                                                                 R, new ParserInfo.Full(s),
+                                                                 P1, new ParserInfo.Full(p),
+                                                                 P2, new ParserInfo.Full(p),
+                                                                 U1, new ParserInfo.Bridge(u),
+                                                                 U2, new ParserInfo.Bridge(u)),
+                                                          List.of());
+
+    @Test
+    public void equivalent_variables_are_merged_by_partition_refinement() {
+        var result = new StackSymbolMinimisation().apply(bnf, astMetadata);
+
+        assertThat(result.fst().rules()).containsExactlyInAnyOrder(selection(S, L, R),
+                                                                  derivation(L, t, P1),
+                                                                  derivation(R, v, P1),
+                                                                  derivation(P1, u, U1),
+                                                                  derivation(U1, u));
+        assertThat(result.snd().parserInfoMap()).containsOnlyKeys(S, L, R, P1, U1);
+    }
+
+    @Test
+    public void api_declares_an_interface_less_for_each_removed_variable() {
+        var result = new StackSymbolMinimisation().apply(bnf, astMetadata);
+
+        assertThat(bnf.variables().size() - result.fst().variables().size()).isEqualTo(2);
+        assertThat(interfaceCount(result.fst())).isEqualTo(interfaceCount(bnf) - 2);
+    }
+
+    private static int interfaceCount(BNF bnf) {
+        return new ApiGenerator(new Namer("L", "l"), StackMachine.fromBNF(bnf)).generate().fst().typeSpec.typeSpecs.size();
+    }
+
+    @Test
+    public void variables_with_different_parser_infos_or_implicit_variables_are_not_merged() {
+        var bnf = new BNF(List.of(selection(S, L, R),
+                                  derivation(L, t),
+                                  derivation(R, t),
+                                  derivation(I1, $),
+                                  derivation(I2, $)),
+                          S);
+        var astMetadata = AstMetadata.of(Map.of(S, new ParserInfo.Full(s),
+                                                L, new ParserInfo.Full(s, Optional.of(I1)),
+                                                R, new ParserInfo.Full(s, Optional.of(I2)),
+                                                I1, new ParserInfo.Full(i),
+                                                I2, new ParserInfo.Full(p)),
+                                         List.of());
+
+        var result = new StackSymbolMinimisation().apply(bnf, astMetadata);
+
+        assertThat(result.fst().rules()).hasSize(5);
+    }
+
+}
@@ -0,0 +1,75 @@
+package compojar.dfa;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.ToolProvider;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class GeneratorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // Any number of 'a' followed by one or more 'b'.
+    private final DFA ab = new DFA(Set.of("S", "A", "O"),
+                                   Set.of("a", "b"),
+                                   Set.of(new compojar.dfa.Rule("S", "b", "O"),
+                                          new compojar.dfa.Rule("O", "b", "O"),
+                                          new compojar.dfa.Rule("S", "a", "A"),
+                                          new compojar.dfa.Rule("A", "a", "A"),
+                                          new compojar.dfa.Rule("A", "b", "O")),
+                                   Set.of("O"),
+                                   "S");
+
+    @Test
+    public void method_chains_of_the_generated_api_return_the_same_singleton() throws Exception {
+        var dir = tmp.newFolder().toPath();
+        new Generator().generateJavaFile("ab", "AB", ab).writeTo(dir);
+        assertThat(ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", dir.toString(), dir.resolve("ab/AB.java").toString()))
+                .isZero();
+
+        try (var loader = new URLClassLoader(new URL[] {dir.toUri().toURL()})) {
+            var entry = loader.loadClass("ab.AB").getMethod("AB");
+            var instance = entry.invoke(null);
+            assertThat(instance).isInstanceOf(Enum.class).isSameAs(entry.invoke(null));
+
+            // Each method is looked up in the interface returned by the previous one.
+            Class<?> type = entry.getReturnType();
+            var result = instance;
+            for (var symbol : List.of("a", "a", "b", "b")) {
+                var method = type.getMethod(symbol);
+                result = method.invoke(result);
+                type = method.getReturnType();
+                assertThat(result).isSameAs(instance);
+            }
+            assertThat(type.getSimpleName()).isEqualTo("O");
+            type.getMethod("$").invoke(result);
+        }
+    }
+
+    @Test
+    public void symbols_that_clash_with_methods_of_enums_are_rejected() {
+        var dfa = new DFA(Set.of("S", "F"), Set.of("name"), Set.of(new compojar.dfa.Rule("S", "name", "F")), Set.of("F"), "S");
+
+        assertThatThrownBy(() -> new Generator().generateJavaFile("Names", dfa)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void states_that_clash_with_generated_types_are_rejected() {
+        for (var state : List.of("$Impl", "$End")) {
+            var dfa = new DFA(Set.of("S", state), Set.of("a"), Set.of(new compojar.dfa.Rule("S", "a", state)), Set.of(state), "S");
+
+            assertThatThrownBy(() -> new Generator().generateJavaFile("Clash", dfa)).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package compojar.dfa;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class HopcroftTest {
+
+    // Any number of 'a' followed by one or more 'b', where S and A are equivalent.
+    private final DFA ab = new DFA(Set.of("S", "A", "O"),
+                                   Set.of("a", "b"),
+                                   Set.of(new Rule("S", "b", "O"),
+                                          new Rule("O", "b", "O"),
+                                          new Rule("S", "a", "A"),
+                                          new Rule("A", "a", "A"),
+                                          new Rule("A", "b", "O")),
+                                   Set.of("O"),
+                                   "S");
+
+    @Test
+    public void equivalent_states_are_merged_into_the_start_state() {
+        assertThat(ab.minimise()).isEqualTo(new DFA(Set.of("S", "O"),
+                                                    Set.of("a", "b"),
+                                                    Set.of(new Rule("S", "a", "S"),
+                                                           new Rule("S", "b", "O"),
+                                                           new Rule("O", "b", "O")),
+                                                    Set.of("O"),
+                                                    "S"));
+    }
+
+    @Test
+    public void unreachable_states_and_states_that_cannot_reach_an_accepting_state_are_removed() {
+        // X is unreachable, D is a dead end, F1 and F2 are equivalent accepting states.
+        var dfa = new DFA(Set.of("S", "D", "X", "F1", "F2"),
+                          Set.of("a", "b", "c"),
+                          Set.of(new Rule("S", "a", "F1"),
+                                 new Rule("S", "b", "F2"),
+                                 new Rule("S", "c", "D"),
+                                 new Rule("D", "a", "D"),
+                                 new Rule("X", "a", "S"),
+                                 new Rule("F1", "c", "F2"),
+                                 new Rule("F2", "c", "F1")),
+                          Set.of("F1", "F2"),
+                          "S");
+
+        assertThat(dfa.minimise()).isEqualTo(new DFA(Set.of("S", "F1"),
+                                                     Set.of("a", "b", "c"),
+                                                     Set.of(new Rule("S", "a", "F1"),
+                                                            new Rule("S", "b", "F1"),
+                                                            new Rule("F1", "c", "F1")),
+                                                     Set.of("F1"),
+                                                     "S"));
+    }
+
+    @Test
+    public void automaton_of_the_empty_language_is_reduced_to_its_start_state() {
+        var dfa = new DFA(Set.of("S", "A"), Set.of("a"), Set.of(new Rule("S", "a", "A"), new Rule("A", "a", "S")), Set.of(), "S");
+
+        assertThat(dfa.minimise()).isEqualTo(new DFA(Set.of("S"), Set.of("a"), Set.of(), Set.of(), "S"));
+    }
+
+    @Test
+    public void minimal_automaton_accepts_the_same_sentences() {
+        var table = ab.table();
+        var minimal = table.minimise();
+        assertThat(minimal.stateCount()).isEqualTo(2);
+        Stream.of("", "a", "b", "ab", "aab", "abb", "ba", "aaabbb", "abab").forEach(sentence -> {
+            assertThat(minimal.accepts(encode(minimal, sentence)))
+                    .as(sentence)
+                    .isEqualTo(table.accepts(encode(table, sentence)))
+                    .isEqualTo(sentence.matches("a*b+"));
+        });
+    }
+
+    @Test
+    public void transition_table_rejects_nondeterministic_automata() {
+        var dfa = new DFA(Set.of("S", "A"), Set.of("a"), Set.of(new Rule("S", "a", "A"), new Rule("S", "a", "S")), Set.of("A"), "S");
+
+        assertThatThrownBy(dfa::table).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void generated_api_has_an_interface_per_state_of_the_minimal_automaton() {
+        var source = new Generator().generateJavaFile("AB", ab).toString();
+
+        assertThat(source).contains("interface S", "interface O extends $End", "S a();", "O b();")
+                .doesNotContain("interface A {");
+    }
+
+    private static int[] encode(TransitionTable table, String sentence) {
+        return sentence.chars().mapToObj(c -> String.valueOf((char) c)).mapToInt(table::symbolId).toArray();
+    }
+
+}
@@ -0,0 +1,75 @@
+package compojar.gen;
+
+import compojar.bnf.AbstractGrammar;
+import compojar.bnf.BNF;
+import compojar.bnf.Terminal;
+import compojar.bnf.Variable;
+import compojar.scratch.Regex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static compojar.bnf.BnfBuilder.start;
+import static compojar.gen.ApiImplGenerator.Backend.CONTINUATIONS;
+import static compojar.gen.GeneratedApi.call;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ApiImplGeneratorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void selections_inline_methods_of_options_that_start_with_a_terminal() throws Exception {
+        var api = GeneratedApi.compile(tmp.getRoot().toPath(), Regex.bnf, "Regex", CONTINUATIONS);
+
+        assertThat(api.source("Regex_ApiImpl"))
+                .doesNotContain("new Digit_Impl<>", "new QuantifiedTerm_Impl<>", "new ZeroOrMore_Impl<>")
+                .contains("return k.apply(new Regex_AstNode.Digit());");
+        assertThat(api.build(List.of(call("zeroOrMore"), call("digit"), call("$"))))
+                .isEqualTo("ExprCons(ZeroOrMore(Digit()), Nil())");
+    }
+
+    @Test
+    public void right_recursive_lists_are_built_iteratively_and_their_prefixes_can_be_reused() throws Exception {
+        var api = GeneratedApi.compile(tmp.getRoot().toPath(), Regex.bnf, "Regex", CONTINUATIONS);
+
+        var prefix = GeneratedApi.call(api.start(), call("digit"));
+        var longer = GeneratedApi.call(GeneratedApi.call(prefix, call("space")), call("$"));
+        var shorter = GeneratedApi.call(prefix, call("$"));
+        assertThat(GeneratedApi.render(longer)).isEqualTo("ExprCons(Digit(), ExprCons(Space(), Nil()))");
+        assertThat(GeneratedApi.render(shorter)).isEqualTo("ExprCons(Digit(), Nil())");
+
+        var result = api.start();
+        for (int i = 0; i < 100_000; i++) {
+            result = GeneratedApi.call(result, call("digit"));
+        }
+        result = GeneratedApi.call(result, call("$"));
+        assertThat(result.getClass().getSimpleName()).isEqualTo("ExprCons");
+    }
+
+    @Test
+    public void partial_selections_inline_methods_of_options_that_start_with_a_bridge() throws Exception {
+        var g = new AbstractGrammar() {
+            Variable S, A, B, C;
+            Terminal x, y, z;
+
+            BNF bnf() {
+                return start(S)
+                        .select(S, A, B)
+                        .derive(A, x.parameters(int.class, "n"), y)
+                        .derive(B, x.parameters(int.class, "n"), C)
+                        .derive(C, z.parameters(String.class, "s"))
+                        .$();
+            }
+        };
+        var api = GeneratedApi.compile(tmp.getRoot().toPath(), g.bnf(), "P", CONTINUATIONS);
+
+        assertThat(api.source("P_ApiImpl")).doesNotContain("new Partial_A_Impl<>");
+        assertThat(api.build(List.of(call("x", 1), call("y")))).isEqualTo("A(1)");
+        assertThat(api.build(List.of(call("x", 2), call("z", "s")))).isEqualTo("B(2, C(s))");
+    }
+
+}
@@ -0,0 +1,60 @@
+package compojar.gen;
+
+import compojar.scratch.Regex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+
+import static compojar.gen.ApiImplGenerator.Backend.CONTINUATIONS;
+import static compojar.gen.AstGenerator.ListNodes.FLAT;
+import static compojar.gen.GeneratedApi.call;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AstVisitorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void selections_are_sealed_and_nodes_are_final() throws Exception {
+        var api = GeneratedApi.compile(tmp.getRoot().toPath(), Regex.bnf, "Regex", CONTINUATIONS);
+
+        var term = astNodeClass(api, "Term");
+        assertThat(term.isSealed()).isTrue();
+        assertThat(Arrays.stream(term.getPermittedSubclasses()).map(Class::getSimpleName))
+                .containsExactlyInAnyOrder("Str", "Group", "QuantifiedTerm", "Digit", "Space", "Character");
+        assertThat(astNodeClass(api, "").isSealed()).isTrue();
+        assertThat(Modifier.isFinal(astNodeClass(api, "Digit").getModifiers())).isTrue();
+    }
+
+    @Test
+    public void visitor_dispatches_on_the_type_of_a_node() throws Exception {
+        for (var options : List.of(GeneratorOptions.DEFAULT, GeneratorOptions.DEFAULT.setListNodes(FLAT))) {
+            var api = GeneratedApi.compile(tmp.getRoot().toPath(), Regex.bnf, "Regex", options);
+            var visitorClass = astNodeClass(api, "Visitor");
+            // Abstract methods return their names, the default one dispatches.
+            InvocationHandler handler = (proxy, method, args) -> method.isDefault()
+                    ? InvocationHandler.invokeDefault(proxy, method, args)
+                    : method.getName();
+            var visitor = Proxy.newProxyInstance(api.loader(), new Class<?>[] {visitorClass}, handler);
+            var visit = visitorClass.getMethod("visit", astNodeClass(api, ""));
+
+            var node = api.start();
+            for (var c : List.of(call("digit"), call("$"))) {
+                node = GeneratedApi.call(node, c);
+            }
+            assertThat(visit.invoke(visitor, node)).isEqualTo(options.listNodes() == FLAT ? "visitExprList" : "visitExprCons");
+        }
+    }
+
+    private static Class<?> astNodeClass(GeneratedApi api, String simpleName) throws ClassNotFoundException {
+        return api.loadGenerated(simpleName.isEmpty() ? "AstNode" : "AstNode$" + simpleName);
+    }
+
+}
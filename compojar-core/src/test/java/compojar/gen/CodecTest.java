@@ -0,0 +1,94 @@
+package compojar.gen;
+
+import compojar.bnf.BNF;
+import compojar.scratch.Dot;
+import compojar.scratch.Regex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static compojar.gen.ApiImplGenerator.Backend.OPERAND_STACK;
+import static compojar.gen.GeneratedApi.call;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class CodecTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void decoded_ast_is_equal_to_the_encoded_one() throws Exception {
+        var sentence = List.of(call("str", "a€😀"), call("begin"), call("between", -1, 300), call("digit"), call("character", ""),
+                               call("$"), call("end"), call("optional"), call("space"), call("$"));
+        for (var listNodes : AstGenerator.ListNodes.values()) {
+            for (var hashConsing : List.of(false, true)) {
+                var api = compile(Regex.bnf, "Regex", GeneratorOptions.DEFAULT.setListNodes(listNodes).setHashConsing(hashConsing));
+                var ast = api.buildAst(sentence);
+                for (var buffer : List.of(ByteBuffer.allocate(256), ByteBuffer.allocateDirect(256))) {
+                    encode(api, ast, buffer);
+                    encode(api, ast, buffer);
+                    buffer.flip();
+                    var first = decode(api, buffer);
+                    var second = decode(api, buffer);
+                    assertThat(buffer.hasRemaining()).isFalse();
+                    assertThat(GeneratedApi.render(first)).isEqualTo(GeneratedApi.render(second)).isEqualTo(GeneratedApi.render(ast));
+                    if (hashConsing) {
+                        assertThat(first).isSameAs(ast);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void a_node_is_encoded_as_a_tag_followed_by_children_and_parameters() throws Exception {
+        var api = compile(Dot.bnf, "Dot", GeneratorOptions.DEFAULT);
+        var ast = api.buildAst(List.of(call("node", "a"), call("$"), call("$")));
+        var buffer = encode(api, ast, ByteBuffer.allocate(16)).flip();
+        // Tags: Edge 0, EdgesCons 1, EdgesNil 2, Graph 3, Node 4, NodesCons 5, NodesNil 6
+        assertThat(Arrays.copyOf(buffer.array(), buffer.limit())).containsExactly(3, 5, 4, 1, 'a', 6, 2);
+
+        var flat = compile(Dot.bnf, "Dot", GeneratorOptions.DEFAULT.setListNodes(AstGenerator.ListNodes.FLAT));
+        var flatBuffer = encode(flat, flat.buildAst(List.of(call("node", "a"), call("$"), call("$"))), ByteBuffer.allocate(16)).flip();
+        // Tags: Edge 0, Edges 1, Graph 2, Node 3, Nodes 4
+        assertThat(Arrays.copyOf(flatBuffer.array(), flatBuffer.limit())).containsExactly(2, 4, 1, 3, 1, 'a', 1, 0);
+    }
+
+    @Test
+    public void deep_linked_lists_are_encoded_and_decoded_iteratively() throws Exception {
+        var api = compile(Dot.bnf, "Dot", GeneratorOptions.DEFAULT.setBackend(OPERAND_STACK));
+        var ast = api.buildAst(Stream.concat(Stream.generate(() -> call("node", "n")).limit(100_000),
+                                             Stream.of(call("$"), call("$")))
+                .toList());
+        var buffer = encode(api, ast, ByteBuffer.allocate(1 << 20)).flip();
+        assertThat(buffer.limit()).isEqualTo(1 + 100_000 * 4 + 2);
+        assertThat(decode(api, buffer).getClass().getSimpleName()).isEqualTo("Graph");
+    }
+
+    @Test
+    public void unknown_tags_are_rejected() throws Exception {
+        var api = compile(Dot.bnf, "Dot", GeneratorOptions.DEFAULT);
+        assertThat(catchThrowable(() -> decode(api, ByteBuffer.wrap(new byte[] {42}))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unknown tag 42");
+    }
+
+    private GeneratedApi compile(BNF bnf, String lang, GeneratorOptions options) throws Exception {
+        return GeneratedApi.compile(tmp.newFolder().toPath(), bnf, lang, options.setCodec(true));
+    }
+
+    private static ByteBuffer encode(GeneratedApi api, Object ast, ByteBuffer buffer) throws Exception {
+        return (ByteBuffer) api.invokeGenerated("Codec", "encode", List.of(api.loadGenerated("AstNode"), ByteBuffer.class), ast, buffer);
+    }
+
+    private static Object decode(GeneratedApi api, ByteBuffer buffer) throws Exception {
+        return api.invokeGenerated("Codec", "decode", List.of(ByteBuffer.class), buffer);
+    }
+
+}
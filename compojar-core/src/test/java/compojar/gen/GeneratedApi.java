@@ -0,0 +1,129 @@
+package compojar.gen;
+
+import compojar.bnf.BNF;
+import compojar.util.OperandStack;
+
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * An API generated and compiled in-process, whose sentences are built reflectively.
+ *
+ * @param sources  directory with the generated sources of the API
+ */
+record GeneratedApi (ClassLoader loader, String apiClassName, Path sources) {
+
+    /** A method call in a sentence. */
+    record Call (String method, Object... args) {}
+
+    static Call call(String method, Object... args) {
+        return new Call(method, args);
+    }
+
+    static GeneratedApi compile(Path directory, BNF bnf, String lang, ApiImplGenerator.Backend backend) throws Exception {
+        return compile(directory, bnf, lang, GeneratorOptions.DEFAULT.setBackend(backend));
+    }
+
+    static GeneratedApi compile(Path directory, BNF bnf, String lang, GeneratorOptions options) throws Exception {
+        var pkg = (lang + "_" + options.backend() + "_" + options.listNodes()).toLowerCase();
+        var sources = directory.resolve("src");
+        var classes = Files.createDirectories(directory.resolve("classes"));
+        new Generator(new Namer(lang, pkg), bnf, options).generate(sources);
+
+        var runtime = Path.of(OperandStack.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        List<String> args;
+        try (var files = Files.walk(sources.resolve(pkg))) {
+            args = Stream.concat(Stream.of("-d", classes.toString(), "-cp", runtime.toString(), "-nowarn"),
+                                 files.filter(p -> p.toString().endsWith(".java")).map(Path::toString))
+                    .toList();
+        }
+        assertThat(ToolProvider.getSystemJavaCompiler().run(null, null, null, args.toArray(String[]::new))).isZero();
+        return new GeneratedApi(new URLClassLoader(new URL[] {classes.toUri().toURL()}, GeneratedApi.class.getClassLoader()),
+                                pkg + "." + lang + "_Api",
+                                sources.resolve(pkg));
+    }
+
+    Object start() throws Exception {
+        return loader.loadClass(apiClassName).getMethod("start").invoke(null);
+    }
+
+    String source(String simpleName) throws IOException {
+        return Files.readString(sources.resolve(simpleName + ".java"));
+    }
+
+    /**
+     * Builds the sentence and renders the resulting AST.
+     */
+    String build(List<Call> sentence) throws Exception {
+        return render(buildAst(sentence));
+    }
+
+    Object buildAst(List<Call> sentence) throws Exception {
+        var result = start();
+        for (var c : sentence) {
+            result = call(result, c);
+        }
+        return result;
+    }
+
+    /**
+     * Loads a class generated for the same language as the API, e.g., {@code Lang_Parser} for suffix {@code Parser}.
+     */
+    Class<?> loadGenerated(String suffix) throws ClassNotFoundException {
+        return loader.loadClass(apiClassName.replaceFirst("_Api$", Matcher.quoteReplacement("_" + suffix)));
+    }
+
+    /**
+     * Invokes a static method of a generated class, rethrowing any exception thrown by the method itself.
+     */
+    Object invokeGenerated(String suffix, String method, List<Class<?>> parameterTypes, Object... args) throws Exception {
+        try {
+            return loadGenerated(suffix).getMethod(method, parameterTypes.toArray(Class<?>[]::new)).invoke(null, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    static Object call(Object receiver, Call call) throws Exception {
+        Method method = Arrays.stream(receiver.getClass().getMethods())
+                .filter(m -> m.getName().equals(call.method()) && m.getParameterCount() == call.args().length)
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No method %s in %s".formatted(call.method(), receiver.getClass())));
+        method.setAccessible(true);
+        return method.invoke(receiver, call.args());
+    }
+
+    static String render(Object node) throws Exception {
+        if (node instanceof List<?> list) {
+            var builder = new StringBuilder("[");
+            for (int i = 0; i < list.size(); i++) {
+                builder.append(i == 0 ? "" : ", ").append(render(list.get(i)));
+            }
+            return builder.append(']').toString();
+        }
+        if (!node.getClass().getName().contains("_AstNode$")) {
+            return String.valueOf(node);
+        }
+        var builder = new StringBuilder(node.getClass().getSimpleName()).append('(');
+        var fields = Arrays.stream(node.getClass().getDeclaredFields()).filter(f -> Modifier.isPublic(f.getModifiers()) && !Modifier.isStatic(f.getModifiers())).toList();
+        for (int i = 0; i < fields.size(); i++) {
+            fields.get(i).setAccessible(true);
+            builder.append(i == 0 ? "" : ", ").append(render(fields.get(i).get(node)));
+        }
+        return builder.append(')').toString();
+    }
+
+}
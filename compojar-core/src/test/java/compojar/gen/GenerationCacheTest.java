@@ -0,0 +1,117 @@
+package compojar.gen;
+
+import compojar.bnf.AbstractGrammar;
+import compojar.bnf.BNF;
+import compojar.bnf.Terminal;
+import compojar.bnf.Variable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+
+import static compojar.bnf.BnfBuilder.start;
+import static compojar.bnf.Rule.derivation;
+import static compojar.bnf.Rule.selection;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GenerationCacheTest {
+
+    /**
+     * SHA-256 of the AST generated for {@link Grammar} at {@link GrammarFingerprint#FORMAT_VERSION}.
+     * If the generated AST changes, the version must be incremented and both constants updated, otherwise the cache
+     * serves stale sources.
+     */
+    static final int AST_FORMAT_VERSION = 4;
+    static final String AST_DIGEST = "7a6117a6b44a0c62c340ed533516d48b2105a408b27dd641dcb6bad696627d71";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    static class PrefixGrammar extends AbstractGrammar {
+        Variable S, A, B;
+        Terminal x, y, z;
+
+        BNF bnf() {
+            return start(S)
+                    .select(S, A, B)
+                    .derive(A, x, y)
+                    .derive(B, x, z)
+                    .$();
+        }
+    }
+
+    static class Grammar extends AbstractGrammar {
+        Variable S, A, B;
+        Terminal x, y;
+
+        BNF bnf() {
+            return start(S)
+                    .select(S, A, B)
+                    .derive(A, x.parameters(int.class, "n"))
+                    .derive(B, y)
+                    .$();
+        }
+    }
+
+    @Test
+    public void fingerprint_does_not_depend_on_order_of_rules_but_depends_on_namer_and_parameters() {
+        var g = new Grammar();
+        var bnf = g.bnf();
+        var reordered = new BNF(List.of(derivation(g.B, g.y), derivation(g.A, g.x.parameters(int.class, "n")), selection(g.S, g.A, g.B)), g.S);
+        var otherParameter = new BNF(List.of(derivation(g.B, g.y), derivation(g.A, g.x.parameters(long.class, "n")), selection(g.S, g.A, g.B)), g.S);
+
+        assertThat(GrammarFingerprint.of(reordered, new Namer("L", "l"))).isEqualTo(GrammarFingerprint.of(bnf, new Namer("L", "l")));
+        assertThat(GrammarFingerprint.of(bnf, new Namer("M", "l"))).isNotEqualTo(GrammarFingerprint.of(bnf, new Namer("L", "l")));
+        assertThat(GrammarFingerprint.of(otherParameter, new Namer("L", "l"))).isNotEqualTo(GrammarFingerprint.of(bnf, new Namer("L", "l")));
+    }
+
+    @Test
+    public void unchanged_grammar_is_served_from_cache() throws Exception {
+        var cache = new GenerationCache(tmp.newFolder("cache").toPath());
+        var out1 = tmp.newFolder("out1").toPath();
+        var out2 = tmp.newFolder("out2").toPath();
+
+        var first = cache.generate(new Namer("L", "l"), new Grammar().bnf(), out1);
+        var second = cache.generate(new Namer("L", "l"), new Grammar().bnf(), out2);
+
+        assertThat(first.hit()).isFalse();
+        assertThat(second.hit()).isTrue();
+        assertThat(second.fingerprint()).isEqualTo(first.fingerprint());
+        for (var name : List.of("L_AstNode.java", "L_Api.java", "L_ApiImpl.java")) {
+            assertThat(Files.readString(out2.resolve("l").resolve(name))).isEqualTo(Files.readString(out1.resolve("l").resolve(name)));
+        }
+    }
+
+    @Test
+    public void generated_ast_does_not_change_without_incrementing_the_format_version() throws Exception {
+        var out = tmp.newFolder("out").toPath();
+        new GenerationCache(tmp.newFolder("cache").toPath()).generate(new Namer("L", "l"), new Grammar().bnf(), out);
+
+        var digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(out.resolve("l").resolve("L_AstNode.java")));
+        assertThat(GrammarFingerprint.FORMAT_VERSION).isEqualTo(AST_FORMAT_VERSION);
+        assertThat(HexFormat.of().formatHex(digest))
+                .as("The generated AST changed: increment GrammarFingerprint.FORMAT_VERSION and update AST_DIGEST.")
+                .isEqualTo(AST_DIGEST);
+    }
+
+    @Test
+    public void hit_advances_a_reused_namer_like_generation() throws Exception {
+        var cache = new GenerationCache(tmp.newFolder("cache").toPath());
+
+        var missNamer = new Namer("L", "l");
+        cache.generate(missNamer, new PrefixGrammar().bnf(), tmp.newFolder("out1").toPath());
+        var next = cache.generate(missNamer, new Grammar().bnf(), tmp.newFolder("out2").toPath());
+
+        var hitNamer = new Namer("L", "l");
+        assertThat(cache.generate(hitNamer, new PrefixGrammar().bnf(), tmp.newFolder("out3").toPath()).hit()).isTrue();
+        assertThat(hitNamer.counter()).isGreaterThan(new Namer("L", "l").counter());
+        assertThat(cache.generate(hitNamer, new Grammar().bnf(), tmp.newFolder("out4").toPath()).fingerprint())
+                .isEqualTo(next.fingerprint());
+        assertThat(tmp.getRoot().toPath().resolve("out3").resolve(GenerationCache.COUNTER_FILE)).doesNotExist();
+    }
+
+}
@@ -0,0 +1,107 @@
+package compojar.gen;
+
+import compojar.bnf.AbstractGrammar;
+import compojar.bnf.BNF;
+import compojar.bnf.Terminal;
+import compojar.bnf.Variable;
+import compojar.scratch.Regex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static compojar.bnf.BnfBuilder.start;
+import static compojar.gen.GeneratedApi.call;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GeneratorPassReportTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void every_pass_is_reported_with_grammar_sizes() {
+        var g = new AbstractGrammar() {
+            Variable S, A, B;
+            Terminal x, y, z;
+
+            BNF bnf() {
+                return start(S)
+                        .select(S, A, B)
+                        .derive(A, x, y)
+                        .derive(B, x, z)
+                        .$();
+            }
+        };
+
+        var report = new Generator(new Namer("Report", "report"), g.bnf()).generate(tmp.getRoot().toPath());
+
+        assertThat(report.passes()).map(PassReport.Pass::name)
+                .containsExactly("AstGenerator", "TerminalNormalisation", "EmptyProductionElimination", "LeftFactoring",
+                                 "EmptyProductionElimination", "StackMachine", "ApiGenerator", "ApiImplGenerator", "Write");
+        var leftFactoring = report.passes().get(3);
+        assertThat(report.passes().getFirst().input().rules()).isEqualTo(3);
+        assertThat(leftFactoring.input()).isEqualTo(report.passes().get(2).output());
+        assertThat(leftFactoring.output().rules()).isGreaterThan(leftFactoring.input().rules());
+        assertThat(leftFactoring.count(Generator.LEFT_FACTORING_REWRITES)).isEqualTo(1);
+        assertThat(report.passes()).allSatisfy(pass -> assertThat(pass.wallTime()).isPositive());
+        assertThat(tmp.getRoot().toPath().resolve("report/Report_ApiImpl.java")).exists();
+    }
+
+    @Test
+    public void left_factoring_reports_rewrites_and_checks_avoided_by_the_incremental_mode() {
+        var g = new AbstractGrammar() {
+            Variable S, A, B, C, D, P, Q, R, T, U, W;
+            Terminal x, y, z, k, m, n, q, r, u, w;
+
+            BNF bnf() {
+                return start(S)
+                        .select(S, A, B, C, D, P)
+                        .derive(A, x, y)
+                        .derive(B, x, z, T)
+                        .derive(C, k, m)
+                        .derive(D, k, n, T)
+                        .select(P, Q, R)
+                        .derive(Q, q, T)
+                        .derive(R, r)
+                        .select(T, U, W)
+                        .derive(U, u)
+                        .derive(W, w)
+                        .$();
+            }
+        };
+
+        var report = new Generator(new Namer("LF", "lf"), g.bnf()).generate(tmp.getRoot().toPath());
+
+        var leftFactoring = report.passes().stream().filter(pass -> pass.name().equals("LeftFactoring")).findFirst().orElseThrow();
+        assertThat(leftFactoring.count(Generator.LEFT_FACTORING_REWRITES)).isEqualTo(2);
+        assertThat(leftFactoring.count(Generator.LEFT_FACTORING_CHECKS)).isPositive();
+        assertThat(leftFactoring.count(Generator.LEFT_FACTORING_SKIPPED_CHECKS)).isPositive();
+        assertThat(leftFactoring.toString()).contains("rewrites=2");
+        assertThat(report.passes()).filteredOn(pass -> !pass.name().equals("LeftFactoring")).allSatisfy(pass -> assertThat(pass.counts()).isEmpty());
+    }
+
+    @Test
+    public void stack_symbol_minimisation_is_reported_and_preserves_asts() throws Exception {
+        var sentence = List.of(call("str", "a"), call("begin"), call("digit"), call("$"), call("end"), call("$"));
+        var options = GeneratorOptions.DEFAULT.setMinimiseStackSymbols(true);
+        var report = new Generator(new Namer("Regex", "regex"), Regex.bnf, options).generate(tmp.newFolder().toPath());
+
+        var minimisation = report.passes().stream().filter(pass -> pass.name().equals("StackSymbolMinimisation")).findFirst().orElseThrow();
+        // Left factoring of Regex doesn't produce equivalent variables (see StackSymbolMinimisationTest for a grammar that does).
+        assertThat(minimisation.removedVariables()).isZero();
+        assertThat(report.passes().get(report.passes().indexOf(minimisation) + 1).name()).isEqualTo("StackMachine");
+        var minimised = GeneratedApi.compile(tmp.newFolder().toPath(), Regex.bnf, "Regex", options);
+        var original = GeneratedApi.compile(tmp.newFolder().toPath(), Regex.bnf, "Regex", GeneratorOptions.DEFAULT);
+        assertThat(interfaceCount(minimised.source("Regex_Api")))
+                .isEqualTo(interfaceCount(original.source("Regex_Api")) - minimisation.removedVariables());
+        assertThat(minimised.build(sentence)).isEqualTo(original.build(sentence));
+    }
+
+    private static long interfaceCount(String source) {
+        return Pattern.compile("\\binterface\\s").matcher(source).results().count();
+    }
+
+}
@@ -0,0 +1,74 @@
+package compojar.gen;
+
+import compojar.bnf.AbstractGrammar;
+import compojar.bnf.BNF;
+import compojar.bnf.Terminal;
+import compojar.bnf.Variable;
+import compojar.scratch.Regex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static compojar.bnf.BnfBuilder.start;
+import static compojar.gen.ApiImplGenerator.Backend.CONTINUATIONS;
+import static compojar.gen.ApiImplGenerator.Backend.OPERAND_STACK;
+import static compojar.gen.AstGenerator.ListNodes.FLAT;
+import static compojar.gen.GeneratedApi.call;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HashConsingTest {
+
+    static class Point extends AbstractGrammar {
+        Variable P;
+        Terminal at;
+
+        BNF bnf() {
+            return start(P).derive(P, at.parameters(double.class, "x", float.class, "y")).$();
+        }
+    }
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void equal_nodes_are_shared() throws Exception {
+        var sentence = List.of(call("between", 1, 3), call("digit"), call("space"), call("$"));
+        for (var backend : List.of(CONTINUATIONS, OPERAND_STACK)) {
+            var api = GeneratedApi.compile(tmp.getRoot().toPath(), Regex.bnf, "Regex", GeneratorOptions.DEFAULT.setBackend(backend).setHashConsing(true));
+
+            assertThat(api.source("Regex_AstNode")).contains("private ExprCons(").doesNotContain("public ExprCons(");
+            var first = api.buildAst(sentence);
+            var second = api.buildAst(sentence);
+            assertThat(second).isSameAs(first);
+            assertThat(GeneratedApi.render(first)).isEqualTo("ExprCons(Between(1, 3, Digit()), ExprCons(Space(), Nil()))");
+            assertThat(api.buildAst(List.of(call("between", 1, 4), call("digit"), call("space"), call("$"))))
+                    .isNotEqualTo(first);
+
+            var digit = api.loadGenerated("AstNode$Digit").getMethod("of");
+            assertThat(digit.invoke(null)).isSameAs(digit.invoke(null));
+        }
+    }
+
+    @Test
+    public void flat_lists_are_shared() throws Exception {
+        var api = GeneratedApi.compile(tmp.getRoot().toPath(), Regex.bnf, "Regex",
+                                       GeneratorOptions.DEFAULT.setListNodes(FLAT).setHashConsing(true));
+        var sentence = List.of(call("begin"), call("digit"), call("$"), call("end"), call("digit"), call("$"));
+        var node = api.buildAst(sentence);
+        assertThat(api.buildAst(sentence)).isSameAs(node);
+        assertThat(GeneratedApi.render(node)).isEqualTo("ExprList([Group(ExprList([Digit()])), Digit()])");
+    }
+
+    @Test
+    public void floating_point_fields_are_compared_consistently_with_their_hash_codes() throws Exception {
+        var api = GeneratedApi.compile(tmp.getRoot().toPath(), new Point().bnf(), "Point", GeneratorOptions.DEFAULT.setHashConsing(true));
+
+        assertThat(api.source("Point_AstNode")).doesNotContain("Objects.hash(");
+        assertThat(api.buildAst(List.of(call("at", Double.NaN, Float.NaN)))).isSameAs(api.buildAst(List.of(call("at", Double.NaN, Float.NaN))));
+        assertThat(api.buildAst(List.of(call("at", -0.0, 0f)))).isNotEqualTo(api.buildAst(List.of(call("at", 0.0, 0f))));
+        assertThat(api.buildAst(List.of(call("at", 0.0, -0f)))).isNotEqualTo(api.buildAst(List.of(call("at", 0.0, 0f))));
+    }
+
+}
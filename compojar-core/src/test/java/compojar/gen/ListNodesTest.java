@@ -0,0 +1,51 @@
+package compojar.gen;
+
+import compojar.scratch.Dot;
+import compojar.scratch.Regex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static compojar.gen.ApiImplGenerator.Backend.CONTINUATIONS;
+import static compojar.gen.ApiImplGenerator.Backend.OPERAND_STACK;
+import static compojar.gen.AstGenerator.ListNodes.FLAT;
+import static compojar.gen.GeneratedApi.call;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ListNodesTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void flat_lists_are_single_nodes_and_the_api_is_unchanged() throws Exception {
+        var sentence = List.of(call("digit"), call("begin"), call("space"), call("str", "a"), call("$"), call("end"), call("$"));
+        for (var backend : List.of(CONTINUATIONS, OPERAND_STACK)) {
+            var api = GeneratedApi.compile(tmp.getRoot().toPath(), Regex.bnf, "Regex", GeneratorOptions.DEFAULT.setBackend(backend).setListNodes(FLAT));
+
+            assertThat(api.source("Regex_AstNode")).doesNotContain("class ExprCons", "class Nil");
+            assertThat(api.build(sentence)).isEqualTo("ExprList([Digit(), Group(ExprList([Space(), Str(a)]))])");
+            assertThat(api.build(List.of(call("$")))).isEqualTo("ExprList([])");
+        }
+
+        var dot = List.of(call("node", "a"), call("node", "b"), call("$"), call("edge", "a"), call("to", "b"), call("$"));
+        assertThat(GeneratedApi.compile(tmp.getRoot().toPath(), Dot.bnf, "Dot", GeneratorOptions.DEFAULT.setListNodes(FLAT)).build(dot))
+                .isEqualTo("Graph(Nodes([Node(a), Node(b)]), Edges([Edge(a, b)]))");
+    }
+
+    @Test
+    public void long_flat_lists_are_built_in_linear_time() throws Exception {
+        for (var backend : List.of(CONTINUATIONS, OPERAND_STACK)) {
+            var api = GeneratedApi.compile(tmp.getRoot().toPath(), Regex.bnf, "Regex", GeneratorOptions.DEFAULT.setBackend(backend).setListNodes(FLAT));
+            var result = api.start();
+            for (int i = 0; i < 100_000; i++) {
+                result = GeneratedApi.call(result, call("digit"));
+            }
+            result = GeneratedApi.call(result, call("$"));
+            assertThat((List<?>) result.getClass().getField("elements").get(result)).hasSize(100_000);
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package compojar.gen;
+
+import compojar.bnf.BNF;
+import compojar.scratch.Dot;
+import compojar.scratch.Regex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static compojar.gen.ApiImplGenerator.Backend.CONTINUATIONS;
+import static compojar.gen.ApiImplGenerator.Backend.OPERAND_STACK;
+import static compojar.gen.GeneratedApi.call;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OperandStackBackendTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void both_backends_build_the_same_ast() throws Exception {
+        var regex = List.of(call("str", "a"), call("begin"), call("between", 1, 3), call("digit"), call("character", "xyz"),
+                            call("$"), call("end"), call("optional"), call("space"), call("$"));
+        assertThat(build(Regex.bnf, "Regex", OPERAND_STACK, regex)).isEqualTo(build(Regex.bnf, "Regex", CONTINUATIONS, regex));
+
+        var dot = List.of(call("node", "a"), call("node", "b"), call("$"), call("edge", "a"), call("to", "b"), call("$"));
+        assertThat(build(Dot.bnf, "Dot", OPERAND_STACK, dot))
+                .isEqualTo(build(Dot.bnf, "Dot", CONTINUATIONS, dot))
+                .isEqualTo("Graph(NodesCons(Node(a), NodesCons(Node(b), NodesNil())), EdgesCons(Edge(a, b), EdgesNil()))");
+    }
+
+    @Test
+    public void views_are_reused_and_long_sentences_are_reduced_iteratively() throws Exception {
+        var api = GeneratedApi.compile(tmp.getRoot().toPath(), Dot.bnf, "Dot", OPERAND_STACK);
+        var first = GeneratedApi.call(api.start(), call("node", "a"));
+        var second = GeneratedApi.call(first, call("node", "b"));
+        assertThat(second).isSameAs(first);
+
+        var sentence = Stream.concat(Stream.generate(() -> call("node", "n")).limit(100_000),
+                                     Stream.of(call("$"), call("$")))
+                .toList();
+        var result = api.start();
+        for (var c : sentence) {
+            result = GeneratedApi.call(result, c);
+        }
+        assertThat(result.getClass().getSimpleName()).isEqualTo("Graph");
+    }
+
+    private String build(BNF bnf, String lang, ApiImplGenerator.Backend backend, List<GeneratedApi.Call> sentence) throws Exception {
+        return GeneratedApi.compile(tmp.getRoot().toPath(), bnf, lang, backend).build(sentence);
+    }
+
+}
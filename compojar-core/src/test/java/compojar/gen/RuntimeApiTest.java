@@ -0,0 +1,111 @@
+package compojar.gen;
+
+import compojar.bnf.AbstractGrammar;
+import compojar.bnf.BNF;
+import compojar.bnf.Terminal;
+import compojar.bnf.Variable;
+import compojar.scratch.Dot;
+import compojar.scratch.Regex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static compojar.bnf.BnfBuilder.start;
+import static compojar.gen.GeneratedApi.call;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class RuntimeApiTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final List<GeneratedApi.Call> REGEX = List.of(call("str", "a"), call("begin"), call("between", 1, 3), call("digit"),
+                                                                 call("character", "xyz"), call("$"), call("end"), call("optional"),
+                                                                 call("space"), call("$"));
+    private static final List<GeneratedApi.Call> DOT = List.of(call("node", "a"), call("node", "b"), call("$"), call("edge", "a"),
+                                                               call("to", "b"), call("$"));
+
+    @Test
+    public void runtime_api_builds_the_same_ast_as_the_generated_one() throws Exception {
+        assertThat(build(RuntimeApi.of(new Namer("Regex", "regex"), Regex.bnf), REGEX))
+                .isEqualTo(GeneratedApi.compile(tmp.newFolder().toPath(), Regex.bnf, "Regex", GeneratorOptions.DEFAULT).build(REGEX));
+        assertThat(build(RuntimeApi.of(new Namer("Dot", "dot"), Dot.bnf), DOT))
+                .isEqualTo("Graph(NodesCons(Node(a), NodesCons(Node(b), NodesNil())), EdgesCons(Edge(a, b), EdgesNil()))");
+    }
+
+    @Test
+    public void partial_parsers_receive_parameters_of_the_selection() {
+        var g = new AbstractGrammar() {
+            Variable S, A, B, C;
+            Terminal x, y, z;
+
+            BNF bnf() {
+                return start(S)
+                        .select(S, A, B)
+                        .derive(A, x.parameters(int.class, "n"), y)
+                        .derive(B, x.parameters(int.class, "n"), C)
+                        .derive(C, z.parameters(String.class, "s"))
+                        .$();
+            }
+        };
+        var api = RuntimeApi.of(new Namer("P", "p"), g.bnf());
+        assertThat(build(api, List.of(call("x", 1), call("y")))).isEqualTo("A(1)");
+        assertThat(build(api, List.of(call("x", 2), call("z", "s")))).isEqualTo("B(2, C(s))");
+    }
+
+    @Test
+    public void generated_classes_are_served_through_proxies() throws Exception {
+        for (var listNodes : AstGenerator.ListNodes.values()) {
+            for (var hashConsing : List.of(false, true)) {
+                var options = GeneratorOptions.DEFAULT.setListNodes(listNodes).setHashConsing(hashConsing);
+                var api = GeneratedApi.compile(tmp.newFolder().toPath(), Regex.bnf, "Regex", options);
+                var runtime = RuntimeApi.of(new Namer("Regex", api.apiClassName().replaceFirst("\\.Regex_Api$", "")), Regex.bnf, options, api.loader());
+
+                Object result = runtime.startProxy();
+                for (var c : REGEX) {
+                    result = GeneratedApi.call(result, c);
+                }
+                assertThat(GeneratedApi.render(result)).isEqualTo(api.build(REGEX));
+            }
+        }
+    }
+
+    @Test
+    public void partial_sentences_are_immutable_and_long_sentences_are_built_iteratively() {
+        var api = RuntimeApi.of(new Namer("Dot", "dot"), Dot.bnf);
+        var prefix = api.start().call("node", "a");
+        assertThat(prefix.call("$").call("$").result().toString()).isEqualTo("Graph(NodesCons(Node(a), NodesNil()), EdgesNil())");
+        assertThat(prefix.call("node", "b").call("$").call("$").result().toString())
+                .isEqualTo("Graph(NodesCons(Node(a), NodesCons(Node(b), NodesNil())), EdgesNil())");
+
+        var sentence = api.start();
+        for (int i = 0; i < 100_000; i++) {
+            sentence = sentence.call("node", "n");
+        }
+        assertThat(sentence.call("$").call("$").result()).isInstanceOf(RuntimeApi.Node.class);
+    }
+
+    @Test
+    public void unexpected_calls_are_rejected() {
+        var api = RuntimeApi.of(new Namer("Dot", "dot"), Dot.bnf);
+        assertThat(api.start().expected()).containsExactlyInAnyOrder("node", "$");
+        assertThat(catchThrowable(() -> api.start().call("edge", "a")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unexpected method edge");
+        assertThat(catchThrowable(() -> api.start().call("node", 1)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("must be of type java.lang.String");
+    }
+
+    private static String build(RuntimeApi api, List<GeneratedApi.Call> sentence) {
+        var result = api.start();
+        for (var c : sentence) {
+            result = result.call(c.method(), c.args());
+        }
+        return result.result().toString();
+    }
+
+}
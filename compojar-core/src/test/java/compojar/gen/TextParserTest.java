@@ -0,0 +1,72 @@
+package compojar.gen;
+
+import compojar.bnf.BNF;
+import compojar.scratch.Dot;
+import compojar.scratch.Regex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.CharBuffer;
+import java.util.List;
+
+import static compojar.gen.ApiImplGenerator.Backend.CONTINUATIONS;
+import static compojar.gen.ApiImplGenerator.Backend.OPERAND_STACK;
+import static compojar.gen.GeneratedApi.call;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class TextParserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void parsed_text_results_in_the_same_ast_as_the_fluent_sentence() throws Exception {
+        for (var backend : ApiImplGenerator.Backend.values()) {
+            var regex = compile(Regex.bnf, "Regex", backend);
+            var regexSentence = List.of(call("str", "a"), call("begin"), call("between", 1, 3), call("digit"), call("character", "xyz"),
+                                        call("$"), call("end"), call("optional"), call("space"), call("$"));
+            assertThat(GeneratedApi.render(parse(regex, "str \"a\" begin between 1 3 digit character \"xyz\" $ end optional space $")))
+                    .isEqualTo(regex.build(regexSentence));
+
+            var dot = compile(Dot.bnf, "Dot", backend);
+            assertThat(GeneratedApi.render(parse(dot, "node \"a\" node \"b\" $\n edge \"a\" to \"b\" $")))
+                    .isEqualTo(dot.build(List.of(call("node", "a"), call("node", "b"), call("$"), call("edge", "a"), call("to", "b"), call("$"))));
+        }
+    }
+
+    @Test
+    public void any_char_sequence_can_be_parsed() throws Exception {
+        var dot = compile(Dot.bnf, "Dot", OPERAND_STACK);
+        assertThat(GeneratedApi.render(parse(dot, CharBuffer.wrap("node \"a b\" $ $"))))
+                .isEqualTo("Graph(NodesCons(Node(a b), NodesNil()), EdgesNil())");
+    }
+
+    @Test
+    public void invalid_text_is_reported_with_its_offset_and_expected_words() throws Exception {
+        var dot = compile(Dot.bnf, "Dot", CONTINUATIONS);
+        assertThat(catchThrowable(() -> parse(dot, "node \"a\" edge")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unexpected 'edge'")
+                .hasMessageContaining("'$'")
+                .hasMessageContaining("'node'");
+        assertThat(catchThrowable(() -> parse(dot, "node \"a\"")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("end of input");
+        assertThat(catchThrowable(() -> parse(dot, "node \"a\" $ $ node")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(catchThrowable(() -> parse(dot, "vertex \"a\" $ $")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("vertex");
+    }
+
+    private GeneratedApi compile(BNF bnf, String lang, ApiImplGenerator.Backend backend) throws Exception {
+        return GeneratedApi.compile(tmp.newFolder().toPath(), bnf, lang, GeneratorOptions.DEFAULT.setBackend(backend).setTextParser(true));
+    }
+
+    private static Object parse(GeneratedApi api, CharSequence text) throws Exception {
+        return api.invokeGenerated("Parser", "parse", List.of(CharSequence.class), text);
+    }
+
+}
@@ -0,0 +1,71 @@
+package compojar.gen;
+
+import compojar.bnf.BNF;
+import compojar.scratch.Dot;
+import compojar.scratch.Regex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static compojar.gen.ApiImplGenerator.Backend.OPERAND_STACK;
+import static compojar.gen.GeneratedApi.call;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UnparserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void unparsed_text_is_parsed_back_to_an_equal_ast() throws Exception {
+        var sentence = List.of(call("str", "a \"b\"\n"), call("begin"), call("between", -1, 3), call("digit"), call("character", "x'y\\z"),
+                               call("$"), call("end"), call("optional"), call("space"), call("$"));
+        for (var listNodes : AstGenerator.ListNodes.values()) {
+            var api = compile(Regex.bnf, "Regex", GeneratorOptions.DEFAULT.setListNodes(listNodes));
+            var ast = api.buildAst(sentence);
+            var text = unparse(api, ast, new StringBuilder()).toString();
+            assertThat(text).isEqualTo("str \"a \\\"b\\\"\\n\" begin between -1 3 digit character \"x\\'y\\\\z\" $ end optional space $");
+            assertThat(GeneratedApi.render(parse(api, text))).isEqualTo(GeneratedApi.render(ast));
+        }
+    }
+
+    @Test
+    public void text_is_written_to_a_byte_buffer_in_utf8() throws Exception {
+        var api = compile(Dot.bnf, "Dot", GeneratorOptions.DEFAULT.setBackend(OPERAND_STACK));
+        var ast = api.buildAst(List.of(call("node", "ä€\uD83D\uDE00"), call("$"), call("edge", "a"), call("to", "b"), call("$")));
+        var buffer = unparse(api, ast, ByteBuffer.allocate(64)).flip();
+        assertThat(StandardCharsets.UTF_8.decode(buffer).toString())
+                .isEqualTo(unparse(api, ast, new StringBuilder()).toString())
+                .isEqualTo("node \"ä€\uD83D\uDE00\" $ edge \"a\" to \"b\" $");
+    }
+
+    @Test
+    public void deep_linked_lists_are_written_iteratively() throws Exception {
+        var api = compile(Dot.bnf, "Dot", GeneratorOptions.DEFAULT.setBackend(OPERAND_STACK));
+        var ast = api.buildAst(Stream.concat(Stream.generate(() -> call("node", "n")).limit(100_000),
+                                             Stream.of(call("$"), call("$")))
+                .toList());
+        var text = unparse(api, ast, new StringBuilder());
+        assertThat(text.length()).isEqualTo(100_000 * "node \"n\" ".length() + "$ $".length());
+    }
+
+    private GeneratedApi compile(BNF bnf, String lang, GeneratorOptions options) throws Exception {
+        return GeneratedApi.compile(tmp.newFolder().toPath(), bnf, lang, options.setTextParser(true).setUnparser(true));
+    }
+
+    private static <A> A unparse(GeneratedApi api, Object ast, A out) throws Exception {
+        var outType = out instanceof ByteBuffer ? ByteBuffer.class : Appendable.class;
+        api.invokeGenerated("Unparser", "unparse", List.of(api.loadGenerated("AstNode"), outType), ast, out);
+        return out;
+    }
+
+    private static Object parse(GeneratedApi api, CharSequence text) throws Exception {
+        return api.invokeGenerated("Parser", "parse", List.of(CharSequence.class), text);
+    }
+
+}
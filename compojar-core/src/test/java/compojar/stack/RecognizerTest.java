@@ -0,0 +1,64 @@
+package compojar.stack;
+
+import org.junit.Test;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static compojar.stack.Rule.rule;
+import static compojar.stack.Symbol.empty;
+import static compojar.stack.Symbol.symbol;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class RecognizerTest {
+
+    private final Symbol S = symbol("S"), C = symbol("C");
+    private final Symbol open = symbol("open"), close = symbol("close");
+
+    // S -> open S close S | <empty>
+    private final Recognizer parens = new Recognizer(new StackMachine(new LinkedHashSet<>(List.of(rule(open, S, S, C, S),
+                                                                                                   rule(empty, S),
+                                                                                                   rule(close, C))),
+                                                                      S));
+
+    @Test
+    public void balanced_parentheses_are_accepted() {
+        assertThat(parens.recognize(parse(""))).isEqualTo(Recognizer.ACCEPTED);
+        assertThat(parens.recognize(parse("(()())()"))).isEqualTo(Recognizer.ACCEPTED);
+    }
+
+    @Test
+    public void position_of_the_error_is_reported() {
+        assertThat(parens.recognize(parse("(()"))).isEqualTo(3);
+        assertThat(parens.recognize(parse("())("))).isEqualTo(2);
+        assertThat(parens.recognize(parens.encode(List.of(open, symbol("unknown"), close)))).isEqualTo(1);
+        assertThat(parens.recognize(parse(")(("), 1, 3)).isEqualTo(3);
+    }
+
+    @Test
+    public void deep_nesting_is_recognized_and_batches_run_in_parallel() {
+        var deep = parse("(".repeat(100_000) + ")".repeat(100_000));
+        assertThat(parens.recognize(deep)).isEqualTo(Recognizer.ACCEPTED);
+
+        var inputs = IntStream.range(0, 1000)
+                .mapToObj(i -> parse("()".repeat(i) + (i % 3 == 0 ? ")" : "")))
+                .toList();
+        assertThat(parens.recognizeAll(inputs)).containsExactly(inputs.stream().mapToInt(parens::recognize).toArray());
+    }
+
+    @Test
+    public void machines_that_are_not_ll1_are_rejected() {
+        var machine = new StackMachine(new LinkedHashSet<>(List.of(rule(empty, S, C), rule(close, S), rule(close, C))), S);
+        assertThat(catchThrowable(() -> new Recognizer(machine)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("not LL(1)");
+    }
+
+    private int[] parse(String parentheses) {
+        return parens.encode(parentheses.chars().mapToObj(c -> c == '(' ? open : close).toList());
+    }
+
+}
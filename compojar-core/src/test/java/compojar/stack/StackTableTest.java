@@ -0,0 +1,77 @@
+package compojar.stack;
+
+import org.junit.Test;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static compojar.stack.Rule.rule;
+import static compojar.stack.Symbol.empty;
+import static compojar.stack.Symbol.symbol;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StackTableTest {
+
+    private final Symbol S = symbol("S"), N = symbol("N"), O = symbol("O"), P = symbol("P");
+    private final Symbol plus = symbol("plus"), one = symbol("one"), zero = symbol("zero");
+
+    private final StackMachine machine = new StackMachine(new LinkedHashSet<>(List.of(rule(empty, S, N, O),
+                                                                                      rule(one, N),
+                                                                                      rule(plus, O, N),
+                                                                                      rule(zero, N),
+                                                                                      rule(empty, O, P),
+                                                                                      rule(plus, P))),
+                                                          S);
+
+    @Test
+    public void rules_that_pop_a_symbol_are_in_the_order_of_the_machine() {
+        assertThat(machine.rulesThatPop(N)).containsExactly(rule(one, N), rule(zero, N));
+        assertThat(machine.rulesThatPop(O)).containsExactly(rule(plus, O, N), rule(empty, O, P));
+        assertThat(machine.rulesThatPop(plus)).isEmpty();
+    }
+
+    @Test
+    public void rules_are_indexed_by_stack_and_input_symbols() {
+        var table = machine.table();
+        int o = table.stackId(O), n = table.stackId(N);
+        assertThat(rules(table, table.firstRule(o, table.inputId(plus)), table.endRule(o, table.inputId(plus))))
+                .containsExactly(rule(plus, O, N));
+        assertThat(rules(table, table.firstRule(o, table.inputId(empty)), table.endRule(o, table.inputId(empty))))
+                .containsExactly(rule(empty, O, P));
+        assertThat(rules(table, table.firstRule(n, table.inputId(plus)), table.endRule(n, table.inputId(plus)))).isEmpty();
+        assertThat(rules(table, table.firstRuleThatPops(o), table.endRuleThatPops(o))).hasSize(2);
+
+        int r = table.firstRule(table.stackId(S), table.inputId(empty));
+        assertThat(table.pops(r)).isEqualTo(table.stackId(S));
+        assertThat(table.reads(r)).isEqualTo(table.inputId(empty));
+        assertThat(IntStream.range(0, table.pushCount(r)).map(i -> table.push(r, i))).containsExactly(n, o);
+        assertThat(table.stackId(symbol("unknown"))).isEqualTo(StackTable.NONE);
+    }
+
+    @Test
+    public void ll1_transitions_follow_rules_that_read_nothing() {
+        Symbol A = symbol("A"), B = symbol("B"), a = symbol("a"), b = symbol("b");
+        var table = new StackMachine(new LinkedHashSet<>(List.of(rule(empty, S, A, B),
+                                                                 rule(a, A),
+                                                                 rule(b, B),
+                                                                 rule(empty, B))),
+                                     S).table();
+        var ll1 = table.ll1Transitions();
+
+        int sa = table.stackId(S) * table.inputCount() + table.inputId(a);
+        assertThat(table.rule(ll1.rules()[sa])).isEqualTo(rule(a, A));
+        assertThat(ll1.pushes()[sa]).containsExactly(table.stackId(B));
+        int sb = table.stackId(S) * table.inputCount() + table.inputId(b);
+        assertThat(ll1.rules()[sb]).isEqualTo(StackTable.NONE);
+        assertThat(ll1.pushes()[sb]).isNull();
+        int end = table.stackId(B) * table.inputCount() + table.inputId(empty);
+        assertThat(table.rule(ll1.rules()[end])).isEqualTo(rule(empty, B));
+        assertThat(ll1.pushes()[end]).isEmpty();
+    }
+
+    private static List<Rule> rules(StackTable table, int first, int end) {
+        return IntStream.range(first, end).mapToObj(table::rule).toList();
+    }
+
+}
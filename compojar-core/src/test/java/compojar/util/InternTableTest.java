@@ -0,0 +1,28 @@
+package compojar.util;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InternTableTest {
+
+    record Value(int n) {}
+
+    @Test
+    public void threads_get_the_same_canonical_instance() {
+        var table = new InternTable();
+        var values = List.of(new Value(1), new Value(2), new Value(3));
+
+        var interned = IntStream.range(0, 10_000).parallel()
+                .mapToObj(i -> table.intern(new Value(i % 3 + 1)))
+                .toList();
+
+        var canonical = values.stream().map(table::intern).toList();
+        interned.forEach(v -> assertThat(v).isSameAs(canonical.get(v.n() - 1)));
+        assertThat(table.size()).isEqualTo(3);
+    }
+
+}